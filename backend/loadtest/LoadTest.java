@@ -0,0 +1,611 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end load test for the backend. Signs up and logs in a set of users, then drives
+ * {@code /aibh/chat} and {@code /aibh/chat/history} and reports throughput and latency
+ * percentiles per endpoint. Needs only a JDK, no build:
+ * <pre>
+ *   java loadtest/LoadTest.java --users=50 --concurrency=50 --duration=60
+ * </pre>
+ * By default the test is closed-loop: {@code concurrency} clients each send their next request
+ * as soon as the previous one returns. With {@code --rate} it is open-loop instead: chats start
+ * at a fixed rate whatever the response times, and latency is measured from the scheduled start,
+ * so a stalled backend shows up in the tail instead of slowing the test down.
+ * <p>
+ * Each user signs up from its own {@code X-Forwarded-For} address, keeping the signups under
+ * the per-address anonymous rate limit. See {@code run.sh} to run against the bundled mock upstream.
+ * <p>
+ * Chat latency is also reported per upstream priority tier. With {@code --admins} that many of
+ * the users sign up as {@code loadtest-admin-*@example.com}, which the backend makes admins when
+ * started with a matching {@code aibh.auth.admin-email-pattern}; the role is read back from the
+ * login. Chat needs a login, so anonymous callers never reach the upstream through it: the
+ * ANONYMOUS tier carries background work. {@code --batch-clients} generate that load by each
+ * submitting batch jobs back to back, and the tier's latency is that of the batch items.
+ * <p>
+ * With {@code --mock-url} pointing at the mock upstream, the report also gives the peak number
+ * of calls the mock held at once during the recorded run, which is how much concurrency the
+ * backend actually carried through to the upstream.
+ */
+public class LoadTest {
+    
+    private static final Pattern ACCESS_TOKEN = Pattern.compile("\"accessToken\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern ROLE = Pattern.compile("\"role\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern JOB_ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+    private static final Pattern JOB_STATUS = Pattern.compile("\"status\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern ITEM_LATENCY = Pattern.compile("\"latency_ms\"\\s*:\\s*(\\d+)");
+    private static final Pattern PEAK_IN_FLIGHT = Pattern.compile("\"peak_in_flight\"\\s*:\\s*(\\d+)");
+    private static final Pattern UPSTREAM_CALLS = Pattern.compile("\"calls\"\\s*:\\s*(\\d+)");
+    private static final Pattern TIER_SAMPLE = Pattern.compile(
+        "^(upstream_limit_queue_wait_seconds_count|upstream_limit_queue_wait_seconds_sum|upstream_limit_rejected_total)\\{.*tier=\"(\\w+)\".*\\}\\s+(\\S+)$",
+        Pattern.MULTILINE);
+    
+    private static final List<String> TIERS = List.of("ADMIN", "USER", "ANONYMOUS");
+    
+    // A small pool of repeated questions exercises the response caches
+    private static final String[] COMMON_QUESTIONS = {
+        "What is a Java record?",
+        "Explain the difference between a process and a thread.",
+        "How do I reverse a list in Python?",
+        "What is the derivative of x^2?",
+        "Hello",
+        "What does HTTP 429 mean?",
+        "How does garbage collection work in the JVM?",
+        "Write a SQL query that counts rows per day.",
+    };
+    
+    private static final String[] TOPICS = {
+        "Java streams", "Python decorators", "binary search", "TCP handshakes", "photosynthesis",
+        "linear regression", "React hooks", "Newton's second law", "hash maps", "Docker volumes",
+    };
+    
+    private final Options options;
+    private final HttpClient client;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, Endpoint> tiers = new ConcurrentHashMap<>();
+    private final AtomicLong messageIds = new AtomicLong();
+    private volatile boolean recording;
+    
+    LoadTest(Options options) {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (options == null) {
+            System.err.println(Options.USAGE);
+            System.exit(2);
+        }
+        new LoadTest(options).run();
+    }
+    
+    void run() throws Exception {
+        System.out.printf("Target %s, %d users, %s, warmup %ds, duration %ds%n", options.baseUrl, options.users,
+            options.rate > 0 ? "open loop at " + options.rate + " chats/s" : "closed loop with " + options.concurrency + " clients",
+            options.warmupSeconds, options.durationSeconds);
+        
+        recording = true;
+        List<User> users = setUp();
+        if (users.isEmpty()) {
+            System.err.println("No user could log in; is the backend running at " + options.baseUrl + "?");
+            report(1);
+            System.exit(1);
+        }
+        // The batch owners are kept apart so their polling does not eat into the chat users' rate limit
+        List<User> batchOwners = users.stream().filter(user -> user.batchOwner).toList();
+        users = users.stream().filter(user -> !user.batchOwner).toList();
+        long admins = users.stream().filter(user -> user.tier.equals("ADMIN")).count();
+        if (options.admins > 0 && admins == 0) {
+            System.err.println("No user got the ADMIN role; start the backend with "
+                + "--aibh.auth.admin-email-pattern=loadtest-admin-.*@example\\.com");
+        }
+        if (users.isEmpty()) {
+            System.err.println("No chat user could log in");
+            report(1);
+            System.exit(1);
+        }
+        
+        recording = false;
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        // Reading the backend's metrics needs an admin
+        String metricsToken = users.stream().filter(user -> user.tier.equals("ADMIN")).map(user -> user.token).findFirst().orElse(null);
+        Map<String, double[]> upstreamBefore = new ConcurrentHashMap<>();
+        Thread recorderSwitch = Thread.ofVirtual().start(() -> {
+            sleepUntil(warmupEnd);
+            upstreamBefore.putAll(upstreamTiers(metricsToken));
+            if (options.mockUrl != null) {
+                send(null, HttpRequest.newBuilder(URI.create(options.mockUrl + "/stats")).DELETE(), -1);
+            }
+            recording = true;
+        });
+        
+        List<Thread> batchClients = new ArrayList<>();
+        for (User owner : batchOwners) {
+            batchClients.add(Thread.ofVirtual().start(() -> runBatches(owner, end)));
+        }
+        if (options.rate > 0) {
+            runOpenLoop(users, end);
+        } else {
+            runClosedLoop(users, end);
+        }
+        for (Thread batchClient : batchClients) {
+            batchClient.join();
+        }
+        recorderSwitch.join();
+        report(options.durationSeconds);
+        reportUpstreamTiers(upstreamBefore, upstreamTiers(metricsToken));
+        if (options.mockUrl != null) {
+            String stats = send(null, HttpRequest.newBuilder(URI.create(options.mockUrl + "/stats")).GET(), -1);
+            Matcher peak = PEAK_IN_FLIGHT.matcher(Objects.requireNonNullElse(stats, ""));
+            Matcher calls = UPSTREAM_CALLS.matcher(Objects.requireNonNullElse(stats, ""));
+            if (peak.find() && calls.find()) {
+                System.out.printf("%nmock upstream: peak %s calls in flight, %.1f calls/s%n",
+                    peak.group(1), Double.parseDouble(calls.group(1)) / options.durationSeconds);
+            }
+        }
+    }
+    
+    private List<User> setUp() throws InterruptedException {
+        List<User> users = Collections.synchronizedList(new ArrayList<>());
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        int accounts = options.users + options.batchClients;
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(accounts, 16))) {
+            for (int i = 0; i < accounts; i++) {
+                int index = i;
+                executor.submit(() -> {
+                    String email = (index < options.admins ? "loadtest-admin-" : "loadtest-") + runId + "-" + index + "@example.com";
+                    String address = "10." + (index >> 16 & 255) + "." + (index >> 8 & 255) + "." + (index & 255);
+                    String signup = "{\"firstName\":\"Load\",\"lastName\":\"Test" + index + "\",\"email\":\"" + email
+                        + "\",\"password\":\"loadtest-password\"}";
+                    String login = "{\"email\":\"" + email + "\",\"password\":\"loadtest-password\"}";
+        
+                    if (send("signup", post("/auth/signup", signup, null).header("X-Forwarded-For", address), -1) == null) {
+                        return;
+                    }
+                    String body = send("login", post("/auth/login", login, null).header("X-Forwarded-For", address), -1);
+                    Matcher token = body != null ? ACCESS_TOKEN.matcher(body) : null;
+                    if (token != null && token.find()) {
+                        Matcher role = ROLE.matcher(body);
+                        String tier = role.find() && role.group(1).equals("ADMIN") ? "ADMIN" : "USER";
+                        users.add(new User(token.group(1), "loadtest-" + runId + "-session-" + index, tier, index >= options.users));
+                    }
+                });
+            }
+        }
+        System.out.printf("%d of %d users logged in, %d of them admins, %d of %d batch clients%n",
+            users.stream().filter(user -> !user.batchOwner).count(), options.users,
+            users.stream().filter(user -> !user.batchOwner && user.tier.equals("ADMIN")).count(),
+            users.stream().filter(user -> user.batchOwner).count(), options.batchClients);
+        return new ArrayList<>(users);
+    }
+    
+    private void runClosedLoop(List<User> users, long end) throws InterruptedException {
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < options.concurrency; i++) {
+            int client = i;
+            clients.add(Thread.ofVirtual().start(() -> {
+                // Clients take turns across all users, so the per-user rate limit sees the average load
+                for (int n = client; System.nanoTime() < end; n += options.concurrency) {
+                    converse(users.get(n % users.size()), -1);
+                    if (options.thinkMs > 0) {
+                        sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.thinkMs));
+                    }
+                }
+            }));
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+    }
+    
+    private void runOpenLoop(List<User> users, long end) throws InterruptedException {
+        long interval = (long) (1e9 / options.rate);
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long n = 0; ; n++) {
+                long scheduled = start + n * interval;
+                if (scheduled >= end) {
+                    break;
+                }
+                sleepUntil(scheduled);
+                User user = users.get((int) (n % users.size()));
+                executor.submit(() -> converse(user, scheduled));
+            }
+        }
+    }
+    
+    /**
+     * Submits batch jobs one after another until {@code end}, and records the latency of every
+     * finished item under the ANONYMOUS tier, the one batch items are sent upstream with. A job
+     * still running at the end is cancelled so it does not spill into the next run.
+     */
+    private void runBatches(User owner, long end) {
+        while (System.nanoTime() < end) {
+            String boundary = "loadtest" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+            StringBuilder body = new StringBuilder("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"file\"; filename=\"loadtest.jsonl\"\r\n")
+                .append("Content-Type: application/x-ndjson\r\n\r\n");
+            for (int i = 0; i < options.batchSize; i++) {
+                body.append("{\"custom_id\":\"item-").append(i).append("\",\"message\":\"")
+                    .append(message().replace("\"", "\\\"")).append("\"}\n");
+            }
+            body.append("\r\n--").append(boundary).append("--\r\n");
+            HttpRequest.Builder submit = request("/aibh/batch/jobs?concurrency=" + options.batchConcurrency, owner.token)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()));
+            Matcher id = JOB_ID.matcher(Objects.requireNonNullElse(send("batch", submit, -1), ""));
+            if (!id.find()) {
+                sleepUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+                continue;
+            }
+            String job = "/aibh/batch/jobs/" + id.group(1);
+            String status = "QUEUED";
+            while (!status.equals("COMPLETED") && !status.equals("CANCELLED")) {
+                if (System.nanoTime() >= end) {
+                    send(null, request(job, owner.token).DELETE(), -1);
+                    break;
+                }
+                sleepUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+                Matcher current = JOB_STATUS.matcher(Objects.requireNonNullElse(send(null, request(job, owner.token).GET(), -1), ""));
+                if (current.find()) {
+                    status = current.group(1);
+                }
+            }
+            String results = send(null, request(job + "/results", owner.token).GET(), -1);
+            if (results == null || !recording) {
+                continue;
+            }
+            for (String line : results.split("\n")) {
+                Matcher latency = ITEM_LATENCY.matcher(line);
+                if (latency.find()) {
+                    tiers.computeIfAbsent("ANONYMOUS", Endpoint::new).record(
+                        TimeUnit.MILLISECONDS.toNanos(Long.parseLong(latency.group(1))), line.contains("\"DONE\"") ? 200 : 500);
+                }
+            }
+        }
+    }
+    
+    // One chat, plus a history fetch every historyEvery chats of the user
+    private void converse(User user, long scheduledNanos) {
+        send("chat", user.tier, post("/aibh/chat", chatBody(user), user.token), scheduledNanos);
+        if (options.historyEvery > 0 && user.chats.incrementAndGet() % options.historyEvery == 0) {
+            String query = "?sessionId=" + URLEncoder.encode(user.sessionId, StandardCharsets.UTF_8);
+            send("history", request("/aibh/chat/history" + query, user.token).GET(), -1);
+        }
+    }
+    
+    private String chatBody(User user) {
+        return "{\"message\":\"" + message().replace("\"", "\\\"") + "\",\"sessionId\":\"" + user.sessionId + "\"}";
+    }
+    
+    private String message() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < options.repeatRatio) {
+            return COMMON_QUESTIONS[random.nextInt(COMMON_QUESTIONS.length)];
+        }
+        return "Question " + messageIds.incrementAndGet() + ": explain " + TOPICS[random.nextInt(TOPICS.length)]
+            + " in " + (2 + random.nextInt(5)) + " sentences.";
+    }
+    
+    private HttpRequest.Builder post(String path, String json, String token) {
+        return request(path, token)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(json));
+    }
+    
+    private HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(options.baseUrl + path))
+            .timeout(Duration.ofMillis(options.timeoutMs));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+    
+    private String send(String endpoint, HttpRequest.Builder request, long scheduledNanos) {
+        return send(endpoint, null, request, scheduledNanos);
+    }
+    
+    /**
+     * Sends the request and records it under {@code endpoint} and {@code tier}, each unless null.
+     * Latency runs from {@code scheduledNanos} when given, else from the send. Returns the body of
+     * a 2xx response.
+     */
+    private String send(String endpoint, String tier, HttpRequest.Builder request, long scheduledNanos) {
+        long start = scheduledNanos > 0 ? scheduledNanos : System.nanoTime();
+        int status;
+        String body = null;
+        try {
+            HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            status = response.statusCode();
+            if (status / 100 == 2) {
+                body = response.body();
+            }
+        } catch (IOException e) {
+            status = -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (recording) {
+            long latency = System.nanoTime() - start;
+            if (endpoint != null) {
+                endpoints.computeIfAbsent(endpoint, Endpoint::new).record(latency, status);
+            }
+            if (tier != null) {
+                tiers.computeIfAbsent(tier, Endpoint::new).record(latency, status);
+            }
+        }
+        return body;
+    }
+    
+    private void report(long seconds) {
+        System.out.println();
+        System.out.printf("%-8s %8s %8s %8s %9s %9s %9s %9s %9s%n",
+            "endpoint", "requests", "ok", "failed", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (String name : List.of("signup", "login", "chat", "history", "batch")) {
+            Endpoint endpoint = endpoints.get(name);
+            if (endpoint == null) {
+                continue;
+            }
+            // Setup calls are not part of the timed run, so no rate is given for them
+            boolean timed = name.equals("chat") || name.equals("history");
+            long[] latencies = endpoint.sortedLatencies();
+            long ok = endpoint.succeeded();
+            System.out.printf("%-8s %8d %8d %8d %9s %9.1f %9.1f %9.1f %9.1f%n",
+                name, latencies.length, ok, latencies.length - ok,
+                timed ? String.format("%.1f", (double) latencies.length / seconds) : "-",
+                percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+                percentile(latencies, 1.0));
+        }
+        if (!tiers.isEmpty()) {
+            // Chats for ADMIN and USER, batch items for ANONYMOUS
+            System.out.println();
+            System.out.printf("%-9s %8s %8s %8s %9s %9s %9s %9s%n",
+                "tier", "requests", "ok", "failed", "p50 ms", "p95 ms", "p99 ms", "max ms");
+            for (String name : TIERS) {
+                Endpoint tier = tiers.get(name);
+                if (tier == null) {
+                    continue;
+                }
+                long[] latencies = tier.sortedLatencies();
+                long ok = tier.succeeded();
+                System.out.printf("%-9s %8d %8d %8d %9.1f %9.1f %9.1f %9.1f%n",
+                    name, latencies.length, ok, latencies.length - ok, percentile(latencies, 0.50),
+                    percentile(latencies, 0.95), percentile(latencies, 0.99), percentile(latencies, 1.0));
+            }
+        }
+        System.out.println();
+        endpoints.values().stream().sorted((a, b) -> a.name.compareTo(b.name)).forEach(endpoint ->
+            System.out.printf("%-8s status %s%n", endpoint.name, endpoint.statuses()));
+    }
+    
+    /**
+     * Reads the upstream limiter's per-tier queue metrics from the backend: calls that got a
+     * permit, their total wait for it in seconds, and calls shed to the local fallback, summed
+     * over upstreams. Empty without an admin token.
+     */
+    private Map<String, double[]> upstreamTiers(String adminToken) {
+        Map<String, double[]> byTier = new HashMap<>();
+        String body = adminToken != null ? send(null, request("/actuator/prometheus", adminToken).GET(), -1) : null;
+        if (body == null) {
+            return byTier;
+        }
+        Matcher sample = TIER_SAMPLE.matcher(body);
+        while (sample.find()) {
+            double[] values = byTier.computeIfAbsent(sample.group(2).toUpperCase(), t -> new double[3]);
+            int index = sample.group(1).endsWith("_count") ? 0 : sample.group(1).endsWith("_sum") ? 1 : 2;
+            values[index] += Double.parseDouble(sample.group(3));
+        }
+        return byTier;
+    }
+    
+    // A shed call is answered locally, fast, so tier latencies only compare once the shedding is known
+    private void reportUpstreamTiers(Map<String, double[]> before, Map<String, double[]> after) {
+        if (after.isEmpty()) {
+            return;
+        }
+        System.out.println();
+        System.out.printf("%-9s %8s %13s %8s%n", "upstream", "admitted", "mean wait ms", "shed");
+        for (String name : TIERS) {
+            double[] start = before.getOrDefault(name, new double[3]);
+            double[] finish = after.getOrDefault(name, new double[3]);
+            double admitted = finish[0] - start[0];
+            System.out.printf("%-9s %8.0f %13.1f %8.0f%n", name, admitted,
+                admitted > 0 ? (finish[1] - start[1]) * 1000 / admitted : 0, finish[2] - start[2]);
+        }
+    }
+    
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+    
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private static final class User {
+        
+        private final String token;
+        private final String sessionId;
+        private final String tier;
+        private final boolean batchOwner;
+        private final AtomicLong chats = new AtomicLong();
+        
+        User(String token, String sessionId, String tier, boolean batchOwner) {
+            this.token = token;
+            this.sessionId = sessionId;
+            this.tier = tier;
+            this.batchOwner = batchOwner;
+        }
+    }
+    
+    private static final class Endpoint {
+        
+        private final String name;
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        
+        // Guarded by this
+        private long[] latencies = new long[1024];
+        private int size;
+        
+        Endpoint(String name) {
+            this.name = name;
+        }
+        
+        void record(long latencyNanos, int status) {
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+            synchronized (this) {
+                if (size == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, size * 2);
+                }
+                latencies[size++] = latencyNanos;
+            }
+        }
+        
+        synchronized long[] sortedLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+        
+        long succeeded() {
+            return statuses.entrySet().stream()
+                .filter(e -> e.getKey() / 100 == 2)
+                .mapToLong(e -> e.getValue().sum())
+                .sum();
+        }
+        
+        Map<String, Long> statuses() {
+            Map<String, Long> byStatus = new TreeMap<>();
+            statuses.forEach((status, count) -> byStatus.put(status < 0 ? "io-error" : status.toString(), count.sum()));
+            return byStatus;
+        }
+    }
+    
+    private static final class Options {
+        
+        static final String USAGE = """
+            Usage: java loadtest/LoadTest.java [--option=value ...]
+              --base-url=http://localhost:8080/api  backend base URL including the context path
+              --users=50                            users signed up and logged in before the run
+              --concurrency=20                      closed-loop clients (ignored with --rate)
+              --rate=0                              open-loop chats per second; 0 runs closed-loop
+              --warmup=10                           seconds run before recording starts
+              --duration=60                         seconds recorded
+              --history-every=5                     fetch the history after every Nth chat of a user; 0 never
+              --repeat-ratio=0.2                    share of chats drawn from a small pool of common questions
+              --think-ms=0                          pause between a closed-loop client's requests
+              --timeout-ms=60000                    per-request timeout
+              --admins=0                            users signed up as loadtest-admin-*@example.com
+              --batch-clients=0                     clients submitting batch jobs back to back (ANONYMOUS tier)
+              --batch-size=20                       prompts per batch job
+              --batch-concurrency=8                 concurrency requested for each batch job
+              --mock-url=                           mock upstream base URL, to report its peak calls in flight
+            """;
+        
+        String baseUrl = "http://localhost:8080/api";
+        int users = 50;
+        int concurrency = 20;
+        double rate;
+        long warmupSeconds = 10;
+        long durationSeconds = 60;
+        int historyEvery = 5;
+        double repeatRatio = 0.2;
+        long thinkMs;
+        long timeoutMs = 60000;
+        int admins;
+        int batchClients;
+        int batchSize = 20;
+        int batchConcurrency = 8;
+        String mockUrl;
+        
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    return null;
+                }
+                values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            Options options = new Options();
+            Map<String, Consumer<String>> setters = new LinkedHashMap<>();
+            setters.put("base-url", v -> options.baseUrl = v.replaceAll("/+$", ""));
+            setters.put("users", v -> options.users = Integer.parseInt(v));
+            setters.put("concurrency", v -> options.concurrency = Integer.parseInt(v));
+            setters.put("rate", v -> options.rate = Double.parseDouble(v));
+            setters.put("warmup", v -> options.warmupSeconds = Long.parseLong(v));
+            setters.put("duration", v -> options.durationSeconds = Long.parseLong(v));
+            setters.put("history-every", v -> options.historyEvery = Integer.parseInt(v));
+            setters.put("repeat-ratio", v -> options.repeatRatio = Double.parseDouble(v));
+            setters.put("think-ms", v -> options.thinkMs = Long.parseLong(v));
+            setters.put("timeout-ms", v -> options.timeoutMs = Long.parseLong(v));
+            setters.put("admins", v -> options.admins = Integer.parseInt(v));
+            setters.put("batch-clients", v -> options.batchClients = Integer.parseInt(v));
+            setters.put("batch-size", v -> options.batchSize = Integer.parseInt(v));
+            setters.put("batch-concurrency", v -> options.batchConcurrency = Integer.parseInt(v));
+            setters.put("mock-url", v -> options.mockUrl = v.isEmpty() ? null : v.replaceAll("/+$", ""));
+            try {
+                for (Map.Entry<String, String> value : values.entrySet()) {
+                    Consumer<String> setter = setters.get(value.getKey());
+                    if (setter == null) {
+                        return null;
+                    }
+                    setter.accept(value.getValue());
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (options.users < 1 || options.concurrency < 1 || options.durationSeconds < 1
+                    || options.admins < 0 || options.admins > options.users || options.batchClients < 0
+                    || options.batchSize < 1 || options.batchConcurrency < 1) {
+                return null;
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+#!/usr/bin/env bash
+# Load tests the backend with platform threads and then with virtual threads
+# (spring.threads.virtual.enabled), for each scenario in thread-modes.conf, through run.sh and
+# the bundled mock upstream. Each report ends with the peak number of calls the mock held at once.
+# MOCK_CPUS, BACKEND_CPUS, LOADTEST_CPUS and MOCK_URL are passed on to run.sh to keep the
+# processes apart. Reports are kept in target/loadtest-threads/. Usage, from backend/:
+#   loadtest/compare-threads.sh [scenario...]
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+OUT=target/loadtest-threads
+mkdir -p "$OUT"
+
+# The runs read from stdin, so the scenarios come in on fd 3
+while IFS='|' read -r name mock backend args <&3; do
+    name=${name#"${name%%[![:space:]]*}"}
+    name=${name%"${name##*[![:space:]]}"}
+    case "$name" in ''|'#'*) continue ;; esac
+    if [ $# -gt 0 ] && [[ " $* " != *" $name "* ]]; then
+        continue
+    fi
+    for mode in platform virtual; do
+        enabled=$([ "$mode" = virtual ] && echo true || echo false)
+        echo "== $name, $mode threads"
+        # Word splitting of the options is intended
+        # shellcheck disable=SC2086
+        MOCK_ARGS="$mock" BACKEND_ARGS="$backend --spring.threads.virtual.enabled=$enabled" \
+            loadtest/run.sh $args | tee "$OUT/$name-$mode.txt"
+    done
+done 3< loadtest/thread-modes.conf
@@ -0,0 +1,67 @@
+#!/usr/bin/env bash
+# Runs the backend against the bundled mock upstream (the "mock" profile) and load tests it
+# with LoadTest.java. Everything stays on this machine. Usage, from backend/:
+#   loadtest/run.sh [LoadTest options...]
+# Mock behaviour can be tuned through MOCK_ARGS, e.g.
+#   MOCK_ARGS="--upstream.local.latency.median-ms=800 --upstream.local.fault.error-rate=0.05" loadtest/run.sh
+# To see the upstream tiers isolate each other, short the upstream capacity and mix the tiers:
+#   MOCK_ARGS="--upstream.local.latency.median-ms=1000" BACKEND_ARGS="--upstream.limit.max=6" \
+#       loadtest/run.sh --users=36 --admins=12 --concurrency=36 --batch-clients=2 --duration=40
+# On one machine the three processes compete for the same cores. MOCK_CPUS, BACKEND_CPUS and
+# LOADTEST_CPUS (taskset lists, e.g. 0-3) keep them apart; with MOCK_URL set the mock is not
+# started here and the one at that URL (e.g. on another host) is used instead.
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+JAR=$(ls target/ai-bh-backend-*.jar 2>/dev/null | head -n 1 || true)
+if [ ! -f src/main/resources/tokenizer/cl100k_base.tiktoken ]; then
+    # The backend refuses to start without its tokenizer vocabulary; bundle it and rebuild
+    scripts/fetch-tokenizer.sh
+    JAR=
+fi
+if [ -z "$JAR" ]; then
+    mvn -B -q package -DskipTests
+    JAR=$(ls target/ai-bh-backend-*.jar | head -n 1)
+fi
+
+pids=()
+trap 'kill "${pids[@]}" 2>/dev/null || true' EXIT
+
+wait_for() {
+    for _ in $(seq 120); do
+        if curl -fs "$1" > /dev/null 2>&1; then
+            return 0
+        fi
+        sleep 1
+    done
+    echo "Timed out waiting for $1" >&2
+    exit 1
+}
+
+# Prefix that pins a command to the given CPUs; empty without them. taskset execs the command,
+# so $! stays the Java process and the trap below can stop it
+pin() {
+    if [ -n "$1" ]; then
+        echo "taskset -c $1"
+    fi
+}
+
+if [ -z "${MOCK_URL:-}" ]; then
+    MOCK_URL=http://localhost:9999/api/local-llm/v1
+    $(pin "${MOCK_CPUS:-}") java -jar "$JAR" --spring.profiles.active=mock ${MOCK_ARGS:-} > target/loadtest-mock.log 2>&1 &
+    pids+=($!)
+fi
+$(pin "${BACKEND_CPUS:-}") java -jar "$JAR" \
+    --openai.api.key=mock \
+    --openai.api.url=$MOCK_URL/chat/completions \
+    --openai.embedding.url=$MOCK_URL/embeddings \
+    --spring.jpa.show-sql=false \
+    --logging.level.org.springframework.security=INFO \
+    --aibh.auth.admin-email-pattern='loadtest-admin-.*@example\.com' \
+    ${BACKEND_ARGS:-} > target/loadtest-backend.log 2>&1 &
+pids+=($!)
+
+wait_for "${MOCK_URL%/local-llm/v1}/aibh/health"
+wait_for http://localhost:8080/api/aibh/health
+
+$(pin "${LOADTEST_CPUS:-}") java loadtest/LoadTest.java --mock-url=$MOCK_URL "$@"
@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+# Downloads the cl100k_base vocabulary the tokenizer loads (aibh.tokenizer.vocabulary-location)
+# into src/main/resources/tokenizer/, where the build bundles it into the jar, and checks it
+# against its published SHA-256. Does nothing when a verified copy is already there. Usage, from
+# backend/:
+#   scripts/fetch-tokenizer.sh
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+URL=https://openaipublic.blob.core.windows.net/encodings/cl100k_base.tiktoken
+SHA256=223921b76ee99bde995b7ff738513eef100fb51d18c93597a113bcffe865b2a7
+FILE=src/main/resources/tokenizer/cl100k_base.tiktoken
+
+if [ -f "$FILE" ] && echo "$SHA256  $FILE" | sha256sum -c --status; then
+    exit 0
+fi
+mkdir -p "$(dirname "$FILE")"
+if ! curl -fsSL "$URL" -o "$FILE.part"; then
+    rm -f "$FILE.part"
+    exit 1
+fi
+if ! echo "$SHA256  $FILE.part" | sha256sum -c --status; then
+    rm -f "$FILE.part"
+    echo "Checksum mismatch for $URL" >&2
+    exit 1
+fi
+mv "$FILE.part" "$FILE"
+echo "Fetched $FILE"
@@ -0,0 +1,74 @@
+package com.aibh.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of the keyword rules against an {@link IntentModel} prediction with the
+ * default feature settings. The weights do not change the cost, so the model is trained on the
+ * sample messages as labelled by the rules; accuracy is reported by {@link IntentModelTrainer}
+ * on real labelled data. Each invocation runs through the eight sample messages.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args=IntentDetectionBenchmark}; add
+ * {@code -prof gc} to the arguments for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentDetectionBenchmark {
+    
+    private static final String[] MESSAGES = {
+        "Hello!",
+        "What is Python?",
+        "How do I read a file line by line in Java without loading it all into memory?",
+        "Can you explain the difference between a derivative and an integral in calculus, with an example?",
+        "why does my react component render twice when I call the api from useEffect",
+        "What's the best way to structure a Spring Boot service that talks to a database and a message queue?",
+        "How do airplanes fly? I never understood the physics of lift.",
+        "Summarize the main points of the last meeting and list the action items for each person involved."
+    };
+    
+    private IntentDetectionService rules;
+    private IntentModel model;
+    
+    @Setup
+    public void setUp() {
+        rules = new IntentDetectionService(new TextClassifier(new StandardEnvironment()));
+        model = IntentModelTrainer.train(Arrays.stream(MESSAGES)
+            .map(message -> new IntentModelTrainer.Example(message, rules.detectIntent(message).getType()))
+            .toList(), IntentModelTrainer.Options.DEFAULTS);
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void rules(Blackhole blackhole) {
+        for (String message : MESSAGES) {
+            blackhole.consume(rules.detectIntent(message));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void model(Blackhole blackhole) {
+        for (String message : MESSAGES) {
+            blackhole.consume(model.predict(message, 0));
+        }
+    }
+}
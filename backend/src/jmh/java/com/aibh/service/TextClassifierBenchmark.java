@@ -0,0 +1,154 @@
+package com.aibh.service;
+
+import com.aibh.model.Intent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of classifying a chat message the way intent detection, the local fallback
+ * and the fallback embedding used to (a lowercase copy and a scan or regex per keyword, in each
+ * of the three) against the single {@link LocalAnswerService#scan} pass shared by intent
+ * detection, the local answers and the embedding. Each invocation runs through the eight sample
+ * messages.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec}; add {@code -Djmh.args="-prof gc"} for
+ * allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextClassifierBenchmark {
+    
+    private static final String[] MESSAGES = {
+        "Hello!",
+        "What is Python?",
+        "How do I read a file line by line in Java without loading it all into memory?",
+        "Can you explain the difference between a derivative and an integral in calculus, with an example?",
+        "why does my react component render twice when I call the api from useEffect",
+        "What's the best way to structure a Spring Boot service that talks to a database and a message queue?",
+        "How do airplanes fly? I never understood the physics of lift.",
+        "Summarize the main points of the last meeting and list the action items for each person involved."
+    };
+    
+    private TextClassifier classifier;
+    private IntentDetectionService intentDetectionService;
+    private LocalAnswerService localAnswerService;
+    
+    @Setup
+    public void setUp() {
+        classifier = new TextClassifier(new StandardEnvironment());
+        intentDetectionService = new IntentDetectionService(classifier);
+        localAnswerService = new LocalAnswerService(classifier, new ObjectMapper(), new SimpleMeterRegistry(), new DefaultResourceLoader(),
+            "classpath:local-answers.json", true, Long.MAX_VALUE);
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void legacy(Blackhole blackhole) {
+        for (String message : MESSAGES) {
+            blackhole.consume(Legacy.detectIntent(message));
+            blackhole.consume(Legacy.fallbackBranch(message));
+            blackhole.consume(Legacy.embeddingFeatures(message));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void classifier(Blackhole blackhole) {
+        for (String message : MESSAGES) {
+            LocalAnswerService.Scan scan = localAnswerService.scan(message);
+            blackhole.consume(intentDetectionService.detectIntent(scan.features()));
+            blackhole.consume(localAnswerService.fallback(message, scan));
+            blackhole.consume(scan.features());
+        }
+    }
+    
+    /**
+     * The checks as they were written before {@link TextClassifier}.
+     */
+    static final class Legacy {
+        
+        static Intent detectIntent(String userMessage) {
+            String lowerMessage = userMessage.toLowerCase().trim();
+        
+            if (lowerMessage.contains("python") || lowerMessage.contains("java") || lowerMessage.contains("javascript")) {
+                return new Intent("programming", 0.9, "technical");
+            } else if (lowerMessage.contains("math") || lowerMessage.contains("calculus") || lowerMessage.contains("physics")) {
+                return new Intent("academic", 0.8, "science");
+            } else if (lowerMessage.matches("^(hello|hi|hey|good morning|good afternoon|good evening)!?$")) {
+                return new Intent("greeting", 0.95, "social");
+            } else if (lowerMessage.startsWith("what is") || lowerMessage.startsWith("what are")) {
+                return new Intent("question", 0.85, "informational");
+            } else if (lowerMessage.startsWith("how to") || lowerMessage.startsWith("how do")) {
+                return new Intent("instruction", 0.8, "procedural");
+            } else {
+                return new Intent("general", 0.5, "conversational");
+            }
+        }
+        
+        static int fallbackBranch(String userMessage) {
+            String lowerMessage = userMessage.toLowerCase().trim();
+            if (lowerMessage.matches("^(hello|hi|hey|good morning|good afternoon|good evening)!?$")) {
+                return 0;
+            }
+            if (lowerMessage.contains("python")) {
+                return 1;
+            }
+            if ((lowerMessage.contains("javascript") || lowerMessage.contains("js")) && !lowerMessage.contains("java ")) {
+                return 2;
+            }
+            if (lowerMessage.contains("java") && !lowerMessage.contains("javascript")) {
+                return 3;
+            }
+            if (lowerMessage.contains("calculus")) {
+                return 4;
+            }
+            if (lowerMessage.contains("physics")) {
+                return 5;
+            }
+            if (lowerMessage.contains("artificial intelligence") || lowerMessage.contains("ai") || lowerMessage.contains("machine learning")) {
+                return 6;
+            }
+            if (lowerMessage.startsWith("what is") || lowerMessage.startsWith("what are") || lowerMessage.startsWith("what's")) {
+                return 7;
+            }
+            if (lowerMessage.startsWith("how to") || lowerMessage.startsWith("how do") || lowerMessage.startsWith("how can")) {
+                return 8;
+            }
+            return lowerMessage.startsWith("why") ? 9 : 10;
+        }
+        
+        static long embeddingFeatures(String text) {
+            String normalizedText = text.toLowerCase().trim();
+            int textLength = normalizedText.length();
+            int wordCount = normalizedText.split("\\s+").length;
+            int uniqueChars = (int) normalizedText.chars().distinct().count();
+            boolean hasJava = normalizedText.contains("java") || normalizedText.contains("spring");
+            boolean hasPython = normalizedText.contains("python") || normalizedText.contains("django");
+            boolean hasJavaScript = normalizedText.contains("javascript") || normalizedText.contains("react");
+            boolean isTechnical = normalizedText.matches(".*\\b(code|function|class|method|api|database)\\b.*");
+            boolean isQuestion = normalizedText.contains("?") || normalizedText.startsWith("how") || normalizedText.startsWith("what");
+            int flags = (hasJava ? 1 : 0) | (hasPython ? 2 : 0) | (hasJavaScript ? 4 : 0) | (isTechnical ? 8 : 0) | (isQuestion ? 16 : 0);
+            return ((long) normalizedText.hashCode() << 32) ^ textLength ^ (long) wordCount << 8 ^ (long) uniqueChars << 16 ^ (long) flags << 24;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.aibh.service;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenizer throughput, reported as tokens per second in the {@code tokens} counter, over a
+ * mix of English prose, code, JSON and non-English text. The rank file is read from
+ * {@code TOKENIZER_VOCABULARY} (a path) or else the bundled
+ * {@code tokenizer/<encoding>.tiktoken}.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args=TokenizerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+    
+    private static final String[] SAMPLES = {
+        "The quick brown fox jumps over the lazy dog. Context budgets are counted in tokens, not characters, "
+            + "so a long conversation about distributed systems gets truncated where the model would.\n\n",
+        "public int countTokens(String text) {\n    if (text == null || text.isEmpty()) {\n        return 0;\n    }\n"
+            + "    return encoding != null ? encoding.count(text) : text.length() / 4;\n}\n",
+        "{\"custom_id\": \"req-00042\", \"message\": \"What is the capital of France?\", \"tags\": [\"geo\", \"quiz\"], \"score\": 0.875}\n",
+        "Привет! Как дела? Сегодня мы обсудим, как работает токенизация текста.\n",
+        "机器学习是人工智能的一个分支，它使计算机能够从数据中学习。\n",
+        "    for (int i = 0; i < 1000; i++) { total += values[i] * weights[i]; }   // 2024-06-01T12:34:56Z\n"
+    };
+    
+    @Param({"cl100k_base"})
+    public String encodingName;
+    
+    private BpeEncoding encoding;
+    private String text;
+    
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Tokens {
+        public long tokens;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+    
+    @Setup
+    public void setUp() throws IOException {
+        String path = System.getenv("TOKENIZER_VOCABULARY");
+        try (InputStream in = path != null ? Files.newInputStream(Path.of(path))
+                : TokenizerBenchmark.class.getResourceAsStream("/tokenizer/" + encodingName + ".tiktoken")) {
+            if (in == null) {
+                throw new IllegalStateException("No vocabulary: set TOKENIZER_VOCABULARY or add tokenizer/" + encodingName + ".tiktoken");
+            }
+            encoding = BpeEncoding.load(encodingName, in);
+        }
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 64 * 1024) {
+            for (String sample : SAMPLES) {
+                builder.append(sample);
+            }
+        }
+        text = builder.toString();
+    }
+    
+    @Benchmark
+    public int count(Tokens counter) {
+        int tokens = encoding.count(text);
+        counter.tokens += tokens;
+        return tokens;
+    }
+    
+    @Benchmark
+    public int[] encode(Tokens counter) {
+        int[] tokens = encoding.encode(text);
+        counter.tokens += tokens.length;
+        return tokens;
+    }
+}
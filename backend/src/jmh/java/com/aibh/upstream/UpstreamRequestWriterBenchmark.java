@@ -0,0 +1,121 @@
+package com.aibh.upstream;
+
+import com.aibh.model.ChatMessage;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing a chat completion request with {@link UpstreamRequestWriter} against the
+ * {@code HashMap} tree written by {@link ObjectMapper} that it replaced, for a 2 KB system prompt
+ * and a varying number of context turns. Both write the same JSON into a reused buffer, as the
+ * converter writes into the request stream.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args=UpstreamRequestWriterBenchmark};
+ * add {@code -prof gc} to the arguments for allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpstreamRequestWriterBenchmark {
+    
+    private static final String MODEL = "gpt-3.5-turbo";
+    private static final String MESSAGE = "Can you explain how a hash map resolves collisions, and when a tree bin is used instead of a list?";
+    
+    @Param({"0", "6"})
+    public int contextTurns;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final UpstreamRequestWriter writer = new UpstreamRequestWriter();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+    
+    private String systemPrompt;
+    private SerializedString encodedSystemPrompt;
+    private List<ChatMessage> context;
+    
+    @Setup
+    public void setUp() {
+        StringBuilder prompt = new StringBuilder();
+        while (prompt.length() < 2048) {
+            prompt.append("You are a helpful assistant. Answer clearly, show code in fenced blocks, ")
+                .append("and say \"I don't know\" rather than guessing.\n");
+        }
+        systemPrompt = prompt.toString();
+        encodedSystemPrompt = UpstreamRequestWriter.preEncode(systemPrompt);
+        context = new ArrayList<>();
+        for (int i = 0; i < contextTurns; i++) {
+            context.add(new ChatMessage("session", "Question " + i + ": what does line " + (i * 7) + " of the stack trace mean?",
+                "It means the call at that frame threw before returning. Look at the \"Caused by\" section below it,\n"
+                    + "which names the original exception and the line that raised it.", "TEXT"));
+        }
+    }
+    
+    @Benchmark
+    public int writer() throws IOException {
+        out.reset();
+        UpstreamRequestBody body = writer.chatCompletion(MODEL, 1000, 0.7, encodedSystemPrompt, context, MESSAGE, false);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            body.writeTo(generator);
+        }
+        return out.size();
+    }
+    
+    @Benchmark
+    public int mapTree() throws IOException {
+        out.reset();
+        objectMapper.writeValue(out, requestMap());
+        return out.size();
+    }
+    
+    // The request as it was built before UpstreamRequestWriter
+    private Map<String, Object> requestMap() {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", MODEL);
+        requestBody.put("max_tokens", 1000);
+        requestBody.put("temperature", 0.7);
+        
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(message("system", systemPrompt));
+        for (ChatMessage contextMessage : context) {
+            if (contextMessage.getUserMessage() != null && !contextMessage.getUserMessage().trim().isEmpty()) {
+                messages.add(message("user", contextMessage.getUserMessage()));
+            }
+            if (contextMessage.getAiResponse() != null && !contextMessage.getAiResponse().trim().isEmpty()) {
+                messages.add(message("assistant", contextMessage.getAiResponse()));
+            }
+        }
+        messages.add(message("user", MESSAGE));
+        requestBody.put("messages", messages);
+        return requestBody;
+    }
+    
+    private static Map<String, String> message(String role, String content) {
+        Map<String, String> message = new HashMap<>();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+}
@@ -0,0 +1,121 @@
+package com.aibh.upstream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading upstream responses with {@link UpstreamResponseReader} against the generic
+ * trees it replaced: a 2 KB chat completion with usage (read into a {@code Map} before), one
+ * streamed delta event and a 1536-dimension embedding (both read with {@code readTree} before).
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args=UpstreamResponseReaderBenchmark};
+ * add {@code -prof gc} to the arguments for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpstreamResponseReaderBenchmark {
+    
+    private static final int DIMENSIONS = 1536;
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<>() {};
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private UpstreamResponseReader reader;
+    
+    private byte[] completion;
+    private String delta;
+    private byte[] embedding;
+    
+    @Setup
+    public void setUp() throws IOException {
+        reader = new UpstreamResponseReader(objectMapper);
+        ReflectionTestUtils.setField(reader, "expectedDimensions", DIMENSIONS);
+        
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 2048) {
+            content.append("A hash map resolves collisions by chaining entries in a bucket; past eight entries ")
+                .append("the bucket becomes a red-black tree, so lookups stay O(log n).\n");
+        }
+        completion = objectMapper.writeValueAsBytes(Map.of(
+            "id", "chatcmpl-123", "object", "chat.completion", "created", 1700000000, "model", "gpt-3.5-turbo",
+            "choices", List.of(Map.of("index", 0, "finish_reason", "stop",
+                "message", Map.of("role", "assistant", "content", content.toString()))),
+            "usage", Map.of("prompt_tokens", 812, "completion_tokens", 431, "total_tokens", 1243)));
+        delta = "{\"id\":\"chatcmpl-123\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,\"model\":\"gpt-3.5-turbo\","
+            + "\"choices\":[{\"index\":0,\"delta\":{\"content\":\" collisions\"},\"finish_reason\":null}]}";
+        
+        Random random = new Random(42);
+        StringBuilder vector = new StringBuilder("{\"object\":\"list\",\"data\":[{\"object\":\"embedding\",\"index\":0,\"embedding\":[");
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector.append(i > 0 ? "," : "").append(String.format(Locale.ROOT, "%.9f", random.nextGaussian() * 0.03));
+        }
+        vector.append("]}],\"model\":\"text-embedding-3-small\",\"usage\":{\"prompt_tokens\":8,\"total_tokens\":8}}");
+        embedding = vector.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public UpstreamResponseReader.Completion completionReader() throws IOException {
+        return reader.readCompletion(new ByteArrayInputStream(completion));
+    }
+    
+    @Benchmark
+    public String completionMap() throws IOException {
+        Map<String, Object> body = objectMapper.readValue(new ByteArrayInputStream(completion), MAP);
+        if (body.get("choices") instanceof List<?> choices && !choices.isEmpty()
+                && choices.get(0) instanceof Map<?, ?> choice && choice.get("message") instanceof Map<?, ?> message
+                && message.get("content") instanceof String text) {
+            return text;
+        }
+        return null;
+    }
+    
+    @Benchmark
+    public String deltaReader() throws IOException {
+        return reader.readStreamDelta(delta);
+    }
+    
+    @Benchmark
+    public String deltaTree() throws IOException {
+        JsonNode content = objectMapper.readTree(delta).path("choices").path(0).path("delta").path("content");
+        return content.isTextual() ? content.asText() : null;
+    }
+    
+    @Benchmark
+    public float[] embeddingReader() throws IOException {
+        return reader.readEmbedding(new ByteArrayInputStream(embedding));
+    }
+    
+    @Benchmark
+    public float[] embeddingTree() throws IOException {
+        JsonNode values = objectMapper.readTree(new ByteArrayInputStream(embedding)).path("data").get(0).path("embedding");
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) values.get(i).asDouble();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,132 @@
+package com.aibh.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Executors for work that runs off the servlet thread. The execution mode follows
+ * {@code spring.threads.virtual.enabled}, the same switch that moves Tomcat's request
+ * handling onto virtual threads.
+ */
+@Configuration
+public class AsyncConfig {
+    
+    @Value("${aibh.chat.stream.pool-size:50}")
+    private int streamPoolSize;
+    
+    @Value("${aibh.chat.stream.queue-capacity:200}")
+    private int streamQueueCapacity;
+    
+    @Value("${aibh.batch.max-running-jobs:4}")
+    private int batchMaxRunningJobs;
+    
+    @Value("${aibh.batch.worker-pool-size:64}")
+    private int batchWorkerPoolSize;
+    
+    @Value("${aibh.summary.pool-size:2}")
+    private int summaryPoolSize;
+    
+    @Value("${aibh.summary.queue-capacity:100}")
+    private int summaryQueueCapacity;
+    
+    @Value("${aibh.context.relevance.pool-size:2}")
+    private int contextEmbeddingPoolSize;
+    
+    @Value("${aibh.context.relevance.queue-capacity:500}")
+    private int contextEmbeddingQueueCapacity;
+    
+    /**
+     * Executor that drives streaming chat turns so the servlet thread is released
+     * as soon as the SSE response has been opened.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public AsyncTaskExecutor chatStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamPoolSize);
+        executor.setMaxPoolSize(streamPoolSize);
+        executor.setQueueCapacity(streamQueueCapacity);
+        executor.setThreadNamePrefix("chat-stream-");
+        return executor;
+    }
+    
+    /**
+     * Virtual-thread variant: one cheap thread per streaming turn, bounded only by the
+     * upstream connection pool.
+     */
+    @Bean(name = "chatStreamExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public AsyncTaskExecutor virtualChatStreamExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("chat-stream-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+    
+    /**
+     * Runs one coordinator per batch job; jobs beyond the pool size wait their turn as QUEUED.
+     */
+    @Bean
+    public AsyncTaskExecutor batchJobExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(batchMaxRunningJobs);
+        executor.setMaxPoolSize(batchMaxRunningJobs);
+        executor.setThreadNamePrefix("batch-job-");
+        return executor;
+    }
+    
+    /**
+     * Executor for batch items. Each job bounds its own items in flight, so the queue only ever
+     * holds up to the sum of the running jobs' concurrency.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public AsyncTaskExecutor batchItemExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(batchWorkerPoolSize);
+        executor.setMaxPoolSize(batchWorkerPoolSize);
+        executor.setThreadNamePrefix("batch-item-");
+        return executor;
+    }
+    
+    @Bean(name = "batchItemExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public AsyncTaskExecutor virtualBatchItemExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("batch-item-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+    
+    /**
+     * Updates rolling conversation summaries. Deliberately small: a fold that finds the queue
+     * full is dropped and tried again on the session's next turn.
+     */
+    @Bean
+    public AsyncTaskExecutor summaryExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(summaryPoolSize);
+        executor.setMaxPoolSize(summaryPoolSize);
+        executor.setQueueCapacity(summaryQueueCapacity);
+        executor.setThreadNamePrefix("summary-");
+        return executor;
+    }
+    
+    /**
+     * Embeds saved chat turns and stores their embeddings for context selection. A turn whose
+     * task finds the queue full is left out of similarity ranking.
+     */
+    @Bean
+    public AsyncTaskExecutor contextEmbeddingExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(contextEmbeddingPoolSize);
+        executor.setMaxPoolSize(contextEmbeddingPoolSize);
+        executor.setQueueCapacity(contextEmbeddingQueueCapacity);
+        executor.setThreadNamePrefix("context-embedding-");
+        return executor;
+    }
+}
@@ -0,0 +1,53 @@
+package com.aibh.config;
+
+import com.aibh.upstream.UpstreamInvoker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Circuit breakers guarding upstream LLM calls, one per model and endpoint. Only failures the
+ * provider is responsible for (5xx, 429, timeouts, connection errors) count against a breaker;
+ * client errors such as 400 or 401 are ignored.
+ */
+@Configuration
+public class ResilienceConfig {
+    
+    @Value("${upstream.breaker.failure-rate-threshold:50}")
+    private float failureRateThreshold;
+    
+    @Value("${upstream.breaker.sliding-window-size:20}")
+    private int slidingWindowSize;
+    
+    @Value("${upstream.breaker.minimum-calls:5}")
+    private int minimumCalls;
+    
+    @Value("${upstream.breaker.open-duration-ms:30000}")
+    private long openDurationMs;
+    
+    @Value("${upstream.breaker.half-open-calls:2}")
+    private int halfOpenCalls;
+    
+    @Bean
+    public CircuitBreakerRegistry upstreamCircuitBreakerRegistry(MeterRegistry meterRegistry) {
+        CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+            .failureRateThreshold(failureRateThreshold)
+            .slidingWindowSize(slidingWindowSize)
+            .minimumNumberOfCalls(minimumCalls)
+            .waitDurationInOpenState(Duration.ofMillis(openDurationMs))
+            .permittedNumberOfCallsInHalfOpenState(halfOpenCalls)
+            .automaticTransitionFromOpenToHalfOpenEnabled(true)
+            .recordException(UpstreamInvoker::isRetryable)
+            .build();
+        
+        CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(config);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry;
+    }
+}
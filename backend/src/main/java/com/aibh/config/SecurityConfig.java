@@ -3,6 +3,7 @@ package com.aibh.config;
 import com.aibh.security.CustomUserDetailsService;
 import com.aibh.security.JwtAuthenticationFilter;
 import com.aibh.security.RateLimitFilter;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -62,11 +63,15 @@ public class SecurityConfig {
             .csrf(csrf -> csrf.disable())
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
+                // Async dispatches (SSE completion) re-enter the chain without a JWT
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                
                 // Public endpoints
                 .requestMatchers("/auth/**").permitAll()
                 .requestMatchers("/aibh/health").permitAll()
                 .requestMatchers("/h2-console/**").permitAll()
                 .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/local-llm/**").permitAll()
                 
                 // Swagger/OpenAPI (Admin only)
                 .requestMatchers("/swagger-ui/**", "/v3/api-docs/**").hasRole("ADMIN")
@@ -81,8 +86,8 @@ public class SecurityConfig {
                 .anyRequest().authenticated()
             )
             .authenticationProvider(authenticationProvider())
-            .addFilterBefore(rateLimitFilter, JwtAuthenticationFilter.class)
             .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class)
+            .addFilterAfter(rateLimitFilter, JwtAuthenticationFilter.class)
             .headers(headers -> headers
                 .frameOptions(frameOptions -> frameOptions.deny())
                 .contentTypeOptions(contentTypeOptions -> {})
@@ -0,0 +1,76 @@
+package com.aibh.config;
+
+import com.aibh.upstream.UpstreamConnectionPool;
+import com.aibh.upstream.UpstreamRequestBodyConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import javax.net.ssl.SSLContext;
+import java.net.http.HttpClient;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+
+/**
+ * Shared HTTP client for every call to the LLM provider (chat completions and embeddings).
+ * Uses the JDK client for HTTP/2 multiplexing and keep-alive connection reuse, with a
+ * dedicated TLS context so sessions are resumed instead of renegotiated under bursts.
+ */
+@Configuration
+public class UpstreamHttpConfig {
+    
+    @Value("${upstream.http.max-connections:64}")
+    private int maxConnections;
+    
+    @Value("${upstream.http.connect-timeout-ms:3000}")
+    private long connectTimeoutMs;
+    
+    @Value("${upstream.http.read-timeout-ms:10000}")
+    private long readTimeoutMs;
+    
+    @Value("${upstream.http.pool-acquire-timeout-ms:2000}")
+    private long poolAcquireTimeoutMs;
+    
+    @Value("${upstream.http.tls-session-cache-size:256}")
+    private int tlsSessionCacheSize;
+    
+    @Value("${upstream.http.tls-session-timeout-seconds:3600}")
+    private int tlsSessionTimeoutSeconds;
+    
+    @Bean
+    public HttpClient upstreamHttpClient() throws GeneralSecurityException {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        sslContext.getClientSessionContext().setSessionCacheSize(tlsSessionCacheSize);
+        sslContext.getClientSessionContext().setSessionTimeout(tlsSessionTimeoutSeconds);
+        
+        return HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .sslContext(sslContext)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    }
+    
+    @Bean
+    public UpstreamConnectionPool upstreamConnectionPool(MeterRegistry meterRegistry) {
+        return new UpstreamConnectionPool(maxConnections, poolAcquireTimeoutMs, meterRegistry);
+    }
+    
+    @Bean
+    public RestTemplate upstreamRestTemplate(HttpClient upstreamHttpClient, UpstreamConnectionPool upstreamConnectionPool,
+                                             ObjectMapper objectMapper) {
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(upstreamHttpClient);
+        factory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        
+        // No interceptors: they would make RestTemplate buffer each request body before sending it
+        RestTemplate restTemplate = new RestTemplate(upstreamConnectionPool.leasing(factory));
+        // Request bodies are written by UpstreamRequestWriter rather than mapped from object trees
+        restTemplate.getMessageConverters().add(0, new UpstreamRequestBodyConverter(objectMapper.getFactory()));
+        return restTemplate;
+    }
+}
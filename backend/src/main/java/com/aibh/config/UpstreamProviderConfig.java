@@ -0,0 +1,83 @@
+package com.aibh.config;
+
+import com.aibh.upstream.HttpLlmProvider;
+import com.aibh.upstream.LlmProvider;
+import com.aibh.upstream.UpstreamInvoker;
+import com.aibh.upstream.UpstreamLoadBalancer;
+import com.aibh.upstream.UpstreamQuotaPacer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers the upstream LLM providers and the load balancer that chooses between them.
+ * Providers come from {@code upstream.providers}, falling back to the legacy {@code openai.*}
+ * properties, plus any {@link LlmProvider} beans such as the local stand-in.
+ */
+@Configuration
+@EnableConfigurationProperties(UpstreamProviderProperties.class)
+public class UpstreamProviderConfig {
+    
+    @Value("${openai.api.key:}")
+    private String openaiApiKey;
+    
+    @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}")
+    private String openaiApiUrl;
+    
+    @Value("${openai.embedding.url:https://api.openai.com/v1/embeddings}")
+    private String embeddingUrl;
+    
+    @Value("${upstream.balancer.decay-ms:10000}")
+    private long decayMs;
+    
+    @Value("${upstream.balancer.failure-penalty-ms:5000}")
+    private long failurePenaltyMs;
+    
+    @Value("${upstream.balancer.initial-latency-ms:500}")
+    private long initialLatencyMs;
+    
+    @Value("${upstream.quota.burst-seconds:5}")
+    private double quotaBurstSeconds;
+    
+    @Value("${upstream.quota.max-wait-ms:2000}")
+    private long quotaMaxWaitMs;
+    
+    @Bean
+    public UpstreamLoadBalancer upstreamLoadBalancer(UpstreamProviderProperties properties,
+                                                     ObjectProvider<LlmProvider> providerBeans,
+                                                     UpstreamInvoker upstreamInvoker,
+                                                     MeterRegistry meterRegistry) {
+        List<LlmProvider> providers = new ArrayList<>();
+        if (properties.getProviders().isEmpty()) {
+            providers.add(new HttpLlmProvider("openai", openaiApiUrl, embeddingUrl, openaiApiKey,
+                                              Set.of(), EnumSet.allOf(LlmProvider.Capability.class)));
+        } else {
+            for (UpstreamProviderProperties.Provider provider : properties.getProviders()) {
+                providers.add(new HttpLlmProvider(provider.getName(), provider.getChatUrl(), provider.getEmbeddingUrl(),
+                                                  provider.getApiKey(), provider.getModels(), provider.getCapabilities()));
+            }
+        }
+        providerBeans.orderedStream().forEach(providers::add);
+        
+        return new UpstreamLoadBalancer(providers, upstreamInvoker, meterRegistry,
+                                        decayMs, failurePenaltyMs, initialLatencyMs);
+    }
+    
+    @Bean
+    public UpstreamQuotaPacer upstreamQuotaPacer(UpstreamProviderProperties properties, MeterRegistry meterRegistry) {
+        Map<String, UpstreamQuotaPacer.Quota> quotas = new HashMap<>();
+        properties.getQuotas().forEach((model, quota) ->
+            quotas.put(model, new UpstreamQuotaPacer.Quota(quota.getRpm(), quota.getTpm())));
+        return new UpstreamQuotaPacer(quotas, quotaBurstSeconds, quotaMaxWaitMs, meterRegistry);
+    }
+}
@@ -0,0 +1,74 @@
+package com.aibh.config;
+
+import com.aibh.upstream.LlmProvider;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Upstream providers configured under {@code upstream.providers[n]}. When the list is empty the
+ * single provider described by the {@code openai.*} properties is used. Per-model provider
+ * quotas go under {@code upstream.quotas[<model>]}.
+ */
+@ConfigurationProperties(prefix = "upstream")
+public class UpstreamProviderProperties {
+    
+    private List<Provider> providers = new ArrayList<>();
+    private Map<String, Quota> quotas = new TreeMap<>();
+    
+    public List<Provider> getProviders() { return providers; }
+    public void setProviders(List<Provider> providers) { this.providers = providers; }
+    
+    public Map<String, Quota> getQuotas() { return quotas; }
+    public void setQuotas(Map<String, Quota> quotas) { this.quotas = quotas; }
+    
+    public static class Provider {
+        
+        private String name;
+        private String chatUrl;
+        private String embeddingUrl;
+        private String apiKey;
+        private Set<String> models = new LinkedHashSet<>();
+        private Set<LlmProvider.Capability> capabilities = EnumSet.allOf(LlmProvider.Capability.class);
+        
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        
+        public String getChatUrl() { return chatUrl; }
+        public void setChatUrl(String chatUrl) { this.chatUrl = chatUrl; }
+        
+        public String getEmbeddingUrl() { return embeddingUrl; }
+        public void setEmbeddingUrl(String embeddingUrl) { this.embeddingUrl = embeddingUrl; }
+        
+        public String getApiKey() { return apiKey; }
+        public void setApiKey(String apiKey) { this.apiKey = apiKey; }
+        
+        public Set<String> getModels() { return models; }
+        public void setModels(Set<String> models) { this.models = models; }
+        
+        public Set<LlmProvider.Capability> getCapabilities() { return capabilities; }
+        public void setCapabilities(Set<LlmProvider.Capability> capabilities) { this.capabilities = capabilities; }
+    }
+    
+    /**
+     * Requests and tokens per minute the provider allows for one model; 0 leaves it to be
+     * learned from the provider's rate-limit headers.
+     */
+    public static class Quota {
+        
+        private long rpm;
+        private long tpm;
+        
+        public long getRpm() { return rpm; }
+        public void setRpm(long rpm) { this.rpm = rpm; }
+        
+        public long getTpm() { return tpm; }
+        public void setTpm(long tpm) { this.tpm = tpm; }
+    }
+}
@@ -0,0 +1,110 @@
+package com.aibh.controller;
+
+import com.aibh.dto.BatchJobResponse;
+import com.aibh.model.BatchJob;
+import com.aibh.security.UserPrincipal;
+import com.aibh.service.BatchJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/aibh/batch/jobs")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+@Tag(name = "Batch", description = "Bulk chat jobs from JSONL prompt files")
+@SecurityRequirement(name = "bearerAuth")
+public class BatchJobController {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BatchJobController.class);
+    
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    
+    @Autowired
+    private BatchJobService batchJobService;
+    
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Create batch job", description = "Upload a JSONL file with one {\"custom_id\", \"message\"} object per line")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Job accepted and queued"),
+        @ApiResponse(responseCode = "400", description = "Empty file or too many prompts"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized")
+    })
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> createJob(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) Integer concurrency,
+            @AuthenticationPrincipal UserPrincipal user) throws IOException {
+        
+        logger.info("Creating batch job from {} ({} bytes) for user: {}", file.getOriginalFilename(), file.getSize(), user.getEmail());
+        try {
+            BatchJobResponse job = batchJobService.createJob(file.getInputStream(), file.getOriginalFilename(), concurrency, user);
+            return ResponseEntity.accepted().body(job);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @GetMapping
+    @Operation(summary = "List batch jobs", description = "List the current user's batch jobs, newest first")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<List<BatchJobResponse>> listJobs(@AuthenticationPrincipal UserPrincipal user) {
+        return ResponseEntity.ok(batchJobService.listJobs(user));
+    }
+    
+    @GetMapping("/{id}")
+    @Operation(summary = "Get batch job", description = "Progress and throughput of a batch job")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<BatchJobResponse> getJob(
+            @PathVariable Long id,
+            @AuthenticationPrincipal UserPrincipal user) {
+        
+        return ResponseEntity.of(batchJobService.getJob(id, user));
+    }
+    
+    @GetMapping("/{id}/results")
+    @Operation(summary = "Download batch results", description = "Finished items as JSONL in input order; available while the job runs")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> getResults(
+            @PathVariable Long id,
+            @AuthenticationPrincipal UserPrincipal user) {
+        
+        Optional<BatchJob> job = batchJobService.findJob(id, user);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        StreamingResponseBody body = output -> batchJobService.writeResults(id, output);
+        return ResponseEntity.ok()
+            .contentType(NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"batch-" + id + "-results.jsonl\"")
+            .body(body);
+    }
+    
+    @DeleteMapping("/{id}")
+    @Operation(summary = "Cancel batch job", description = "Stop a queued or running job; finished results are kept")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<BatchJobResponse> cancelJob(
+            @PathVariable Long id,
+            @AuthenticationPrincipal UserPrincipal user) {
+        
+        logger.info("Cancelling batch job {} for user: {}", id, user.getEmail());
+        return ResponseEntity.of(batchJobService.cancelJob(id, user));
+    }
+}
@@ -14,10 +14,14 @@ import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -30,9 +34,14 @@ public class ChatController {
     
     private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
     
+    private static final long STREAM_TIMEOUT_MS = 120_000L;
+    
     @Autowired
     private ChatService chatService;
     
+    @Autowired
+    private AsyncTaskExecutor chatStreamExecutor;
+    
     @PostMapping("/chat")
     @Operation(summary = "Send chat message", description = "Send a text message to the AI assistant")
     @ApiResponses(value = {
@@ -50,6 +59,29 @@ public class ChatController {
         return ResponseEntity.ok(response);
     }
     
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream chat message", description = "Send a text message and receive the AI response as server-sent events")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Event stream of 'delta' events followed by a final 'done' event, or by an 'error' event when the answer was cut off"),
+        @ApiResponse(responseCode = "429", description = "Rate limit exceeded"),
+        @ApiResponse(responseCode = "401", description = "Unauthorized")
+    })
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public SseEmitter chatStream(
+            @Valid @RequestBody ChatRequest request,
+            @AuthenticationPrincipal UserPrincipal user) {
+        
+        logger.info("Processing streaming chat request for user: {}", user.getEmail());
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        try {
+            chatStreamExecutor.execute(() -> chatService.processChatStream(request, user, emitter));
+        } catch (TaskRejectedException e) {
+            logger.warn("Streaming chat rejected for user: {}, executor saturated", user.getEmail());
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+    
     @PostMapping("/chat/image")
     @Operation(summary = "Send image with message", description = "Send an image with text message to the AI assistant")
     @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
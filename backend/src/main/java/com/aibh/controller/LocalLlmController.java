@@ -0,0 +1,283 @@
+package com.aibh.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.v3.oas.annotations.Hidden;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OpenAI-compatible chat completion and embedding endpoints answered in-process, backing the
+ * local stand-in provider. Answers and embeddings are deterministic for a given input, so
+ * tests can run the full upstream path (writer, balancer, breaker, reader) without a network.
+ * <p>
+ * Run on its own with the {@code mock} profile it doubles as the mock upstream for load tests:
+ * responses are delayed by a log-normal latency given by its median and p99, streams emit one
+ * chunk per word with a fixed delay, and a configurable share of calls fail with 500, are
+ * throttled with 429, or stall long enough to trip the client's read timeout. {@code GET stats}
+ * reports how many calls are inside that latency at once, and the peak since the last
+ * {@code DELETE stats}, so a load test can see how much concurrency actually reached the upstream.
+ */
+@RestController
+@RequestMapping(LocalLlmController.BASE_PATH)
+@ConditionalOnProperty(name = "upstream.local.enabled", havingValue = "true")
+@Hidden
+public class LocalLlmController {
+    
+    public static final String BASE_PATH = "/local-llm/v1";
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${openai.embedding.dimensions:1536}")
+    private int embeddingDimensions;
+    
+    @Value("${upstream.local.latency.median-ms:0}")
+    private long latencyMedianMs;
+    
+    @Value("${upstream.local.latency.p99-ms:0}")
+    private long latencyP99Ms;
+    
+    @Value("${upstream.local.stream.chunk-delay-ms:0}")
+    private long chunkDelayMs;
+    
+    @Value("${upstream.local.fault.error-rate:0}")
+    private double errorRate;
+    
+    @Value("${upstream.local.fault.throttle-rate:0}")
+    private double throttleRate;
+    
+    @Value("${upstream.local.fault.stall-rate:0}")
+    private double stallRate;
+    
+    @Value("${upstream.local.fault.stall-ms:30000}")
+    private long stallMs;
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder calls = new LongAdder();
+    
+    @PostMapping("/chat/completions")
+    public ResponseEntity<StreamingResponseBody> chatCompletions(@RequestBody JsonNode request) throws InterruptedException {
+        String model = request.path("model").asText("local");
+        String prompt = lastUserText(request.path("messages"));
+        String answer = "Local stand-in response to: " + prompt;
+        
+        HttpStatus fault = simulateUpstream();
+        if (fault != null) {
+            Map<String, Object> error = errorBody(fault);
+            StreamingResponseBody body = out -> objectMapper.writeValue(out, error);
+            return faultResponse(fault).contentType(MediaType.APPLICATION_JSON).body(body);
+        }
+        
+        if (request.path("stream").asBoolean(false)) {
+            // A streamed stall hangs after the first chunk, the way a stuck generation looks
+            boolean stall = ThreadLocalRandom.current().nextDouble() < stallRate;
+            StreamingResponseBody body = out -> streamAnswer(out, model, answer, stall);
+            return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(body);
+        }
+        if (ThreadLocalRandom.current().nextDouble() < stallRate) {
+            Thread.sleep(stallMs);
+        }
+        
+        int promptTokens = estimateTokens(request.path("messages").toString());
+        int completionTokens = estimateTokens(answer);
+        Map<String, Object> completion = Map.of(
+            "id", "chatcmpl-local-" + UUID.randomUUID(),
+            "object", "chat.completion",
+            "model", model,
+            "choices", List.of(Map.of(
+                "index", 0,
+                "message", Map.of("role", "assistant", "content", answer),
+                "finish_reason", "stop"
+            )),
+            "usage", Map.of(
+                "prompt_tokens", promptTokens,
+                "completion_tokens", completionTokens,
+                "total_tokens", promptTokens + completionTokens
+            )
+        );
+        StreamingResponseBody body = out -> objectMapper.writeValue(out, completion);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+    
+    @PostMapping("/embeddings")
+    public ResponseEntity<Map<String, Object>> embeddings(@RequestBody JsonNode request) throws InterruptedException {
+        HttpStatus fault = simulateUpstream();
+        if (fault != null) {
+            return faultResponse(fault).body(errorBody(fault));
+        }
+        if (ThreadLocalRandom.current().nextDouble() < stallRate) {
+            Thread.sleep(stallMs);
+        }
+        
+        String input = request.path("input").asText("");
+        int tokens = estimateTokens(input);
+        return ResponseEntity.ok(Map.of(
+            "object", "list",
+            "model", request.path("model").asText("local"),
+            "data", List.of(Map.of(
+                "object", "embedding",
+                "index", 0,
+                "embedding", embed(input)
+            )),
+            "usage", Map.of("prompt_tokens", tokens, "total_tokens", tokens)
+        ));
+    }
+    
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return Map.of(
+            "in_flight", inFlight.get(),
+            "peak_in_flight", peakInFlight.get(),
+            "calls", calls.sum()
+        );
+    }
+    
+    @DeleteMapping("/stats")
+    public ResponseEntity<Void> resetStats() {
+        peakInFlight.set(inFlight.get());
+        calls.reset();
+        return ResponseEntity.noContent().build();
+    }
+    
+    private void streamAnswer(OutputStream out, String model, String answer, boolean stall) throws IOException {
+        String id = "chatcmpl-local-" + UUID.randomUUID();
+        boolean first = true;
+        for (String word : answer.split("(?<= )")) {
+            if (!first) {
+                pause(stall ? stallMs : chunkDelayMs);
+                stall = false;
+            }
+            first = false;
+            Map<String, Object> chunk = Map.of(
+                "id", id,
+                "object", "chat.completion.chunk",
+                "model", model,
+                "choices", List.of(Map.of("index", 0, "delta", Map.of("content", word)))
+            );
+            out.write(("data: " + objectMapper.writeValueAsString(chunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+    
+    /**
+     * Waits out the simulated upstream latency, then decides whether this call fails.
+     * Returns the status to fail with, or null for a normal answer.
+     */
+    private HttpStatus simulateUpstream() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        calls.increment();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            if (latencyMedianMs > 0) {
+                // Log-normal: sigma chosen so the 99th percentile (z = 2.326) lands on p99-ms
+                double sigma = latencyP99Ms > latencyMedianMs ? Math.log((double) latencyP99Ms / latencyMedianMs) / 2.326 : 0;
+                Thread.sleep((long) (latencyMedianMs * Math.exp(sigma * random.nextGaussian())));
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        double roll = random.nextDouble();
+        if (roll < throttleRate) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+        if (roll < throttleRate + errorRate) {
+            return HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+        return null;
+    }
+    
+    private ResponseEntity.BodyBuilder faultResponse(HttpStatus status) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(status);
+        if (status == HttpStatus.TOO_MANY_REQUESTS) {
+            builder.header(HttpHeaders.RETRY_AFTER, "1");
+        }
+        return builder;
+    }
+    
+    private Map<String, Object> errorBody(HttpStatus status) {
+        String type = status == HttpStatus.TOO_MANY_REQUESTS ? "rate_limit_exceeded" : "server_error";
+        return Map.of("error", Map.of("message", "Simulated upstream failure", "type", type));
+    }
+    
+    private void pause(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming the local answer");
+        }
+    }
+    
+    private String lastUserText(JsonNode messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            JsonNode message = messages.get(i);
+            if (!"user".equals(message.path("role").asText())) {
+                continue;
+            }
+            JsonNode content = message.path("content");
+            if (content.isTextual()) {
+                return content.asText();
+            }
+            for (JsonNode part : content) {
+                if ("text".equals(part.path("type").asText())) {
+                    return part.path("text").asText();
+                }
+            }
+        }
+        return "";
+    }
+    
+    // Seeded by the normalized input, so equal prompts embed identically
+    private List<Float> embed(String input) {
+        SplittableRandom random = new SplittableRandom(input.trim().toLowerCase(Locale.ROOT).hashCode());
+        double[] values = new double[embeddingDimensions];
+        double norm = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 2 - 1;
+            norm += values[i] * values[i];
+        }
+        norm = Math.sqrt(norm);
+        List<Float> embedding = new ArrayList<>(values.length);
+        for (double value : values) {
+            embedding.add((float) (value / norm));
+        }
+        return embedding;
+    }
+    
+    private int estimateTokens(String text) {
+        return Math.max(1, text.length() / 4);
+    }
+}
@@ -0,0 +1,62 @@
+package com.aibh.dto;
+
+import java.time.LocalDateTime;
+
+public class BatchJobResponse {
+    
+    private Long id;
+    private String fileName;
+    private String status;
+    private int concurrency;
+    private int totalItems;
+    private long pending;
+    private long succeeded;
+    private long failed;
+    private double itemsPerSecond;
+    private Long estimatedSecondsRemaining;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    
+    public BatchJobResponse() {}
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public int getConcurrency() { return concurrency; }
+    public void setConcurrency(int concurrency) { this.concurrency = concurrency; }
+    
+    public int getTotalItems() { return totalItems; }
+    public void setTotalItems(int totalItems) { this.totalItems = totalItems; }
+    
+    public long getPending() { return pending; }
+    public void setPending(long pending) { this.pending = pending; }
+    
+    public long getSucceeded() { return succeeded; }
+    public void setSucceeded(long succeeded) { this.succeeded = succeeded; }
+    
+    public long getFailed() { return failed; }
+    public void setFailed(long failed) { this.failed = failed; }
+    
+    public double getItemsPerSecond() { return itemsPerSecond; }
+    public void setItemsPerSecond(double itemsPerSecond) { this.itemsPerSecond = itemsPerSecond; }
+    
+    public Long getEstimatedSecondsRemaining() { return estimatedSecondsRemaining; }
+    public void setEstimatedSecondsRemaining(Long estimatedSecondsRemaining) { this.estimatedSecondsRemaining = estimatedSecondsRemaining; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+    
+    public LocalDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+}
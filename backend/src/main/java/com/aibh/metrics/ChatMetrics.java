@@ -9,6 +9,8 @@ import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.TimeUnit;
+
 @Component
 public class ChatMetrics {
     
@@ -17,6 +19,9 @@ public class ChatMetrics {
     private final Counter chatRequestsError;
     private final Timer chatResponseTime;
     private final Counter tokensUsedTotal;
+    private final Timer chatFirstTokenTime;
+    private final Counter upstreamPromptTokens;
+    private final Counter upstreamCompletionTokens;
     
     @Autowired
     private UserRepository userRepository;
@@ -45,6 +50,20 @@ public class ChatMetrics {
             .description("Total number of tokens used")
             .register(meterRegistry);
             
+        this.chatFirstTokenTime = Timer.builder("chat_first_token_time")
+            .description("Time until the first streamed token reaches the client")
+            .register(meterRegistry);
+            
+        this.upstreamPromptTokens = Counter.builder("upstream_tokens_total")
+            .tag("type", "prompt")
+            .description("Tokens billed by the model provider, as reported in completion usage")
+            .register(meterRegistry);
+            
+        this.upstreamCompletionTokens = Counter.builder("upstream_tokens_total")
+            .tag("type", "completion")
+            .description("Tokens billed by the model provider, as reported in completion usage")
+            .register(meterRegistry);
+            
         // Register gauges directly without storing references
         Gauge.builder("active_users", this, ChatMetrics::getActiveUserCount)
             .description("Number of active users")
@@ -75,10 +94,19 @@ public class ChatMetrics {
         sample.stop(chatResponseTime);
     }
     
+    public void recordTimeToFirstToken(long nanos) {
+        chatFirstTokenTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+    
     public void recordTokensUsed(int tokens) {
         tokensUsedTotal.increment(tokens);
     }
     
+    public void recordUpstreamTokens(int promptTokens, int completionTokens) {
+        upstreamPromptTokens.increment(promptTokens);
+        upstreamCompletionTokens.increment(completionTokens);
+    }
+    
     private double getActiveUserCount() {
         try {
             return userRepository.countActiveUsers();
@@ -0,0 +1,45 @@
+package com.aibh.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of the most recent latency samples. Writers never block; a concurrent
+ * percentile read sees a slightly stale but consistent-enough view.
+ */
+public class LatencyWindow {
+    
+    private final AtomicLongArray samples;
+    private final AtomicLong writes = new AtomicLong();
+    
+    public LatencyWindow(int capacity) {
+        this.samples = new AtomicLongArray(capacity);
+    }
+    
+    public void record(long nanos) {
+        int slot = (int) (writes.getAndIncrement() % samples.length());
+        samples.set(slot, nanos);
+    }
+    
+    public int size() {
+        return (int) Math.min(writes.get(), samples.length());
+    }
+    
+    /**
+     * Returns the given percentile (0.0-1.0) in nanoseconds, or -1 when no samples exist yet.
+     */
+    public long percentile(double percentile) {
+        int size = size();
+        if (size == 0) {
+            return -1;
+        }
+        long[] snapshot = new long[size];
+        for (int i = 0; i < size; i++) {
+            snapshot[i] = samples.get(i);
+        }
+        Arrays.sort(snapshot);
+        int index = (int) Math.ceil(percentile * size) - 1;
+        return snapshot[Math.max(0, Math.min(size - 1, index))];
+    }
+}
@@ -0,0 +1,7 @@
+package com.aibh.model;
+
+public enum BatchItemStatus {
+    PENDING,
+    DONE,
+    FAILED
+}
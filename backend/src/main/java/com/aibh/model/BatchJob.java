@@ -0,0 +1,85 @@
+package com.aibh.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * A batch of prompts uploaded as one JSONL file. Its items are the checkpoint: each one is
+ * saved as soon as it is answered, so a restarted job only redoes what was still open.
+ */
+@Entity
+@Table(name = "batch_jobs", indexes = {
+    @Index(name = "idx_batch_job_user_id", columnList = "user_id"),
+    @Index(name = "idx_batch_job_status", columnList = "status")
+})
+public class BatchJob {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+    
+    @Column(name = "file_name")
+    private String fileName;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private BatchJobStatus status = BatchJobStatus.QUEUED;
+    
+    @Column(nullable = false)
+    private int concurrency;
+    
+    @Column(name = "total_items", nullable = false)
+    private int totalItems;
+    
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+    
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+    
+    public BatchJob() {}
+    
+    public BatchJob(User user, String fileName, int concurrency) {
+        this.user = user;
+        this.fileName = fileName;
+        this.concurrency = concurrency;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public User getUser() { return user; }
+    public void setUser(User user) { this.user = user; }
+    
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    
+    public BatchJobStatus getStatus() { return status; }
+    public void setStatus(BatchJobStatus status) { this.status = status; }
+    
+    public int getConcurrency() { return concurrency; }
+    public void setConcurrency(int concurrency) { this.concurrency = concurrency; }
+    
+    public int getTotalItems() { return totalItems; }
+    public void setTotalItems(int totalItems) { this.totalItems = totalItems; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+    
+    public LocalDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+}
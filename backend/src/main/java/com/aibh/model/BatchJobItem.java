@@ -0,0 +1,94 @@
+package com.aibh.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * One line of a batch job's input file and, once processed, its answer or error.
+ */
+@Entity
+@Table(name = "batch_job_items", indexes = {
+    @Index(name = "idx_batch_item_job_status_line", columnList = "job_id, status, line_number")
+})
+public class BatchJobItem {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "job_id", nullable = false)
+    private BatchJob job;
+    
+    @Column(name = "line_number", nullable = false)
+    private int lineNumber;
+    
+    @Column(name = "custom_id")
+    private String customId;
+    
+    @Column(columnDefinition = "TEXT")
+    private String message;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private BatchItemStatus status = BatchItemStatus.PENDING;
+    
+    @Column(columnDefinition = "TEXT")
+    private String response;
+    
+    @Column(length = 1000)
+    private String error;
+    
+    @Column(nullable = false)
+    private int attempts;
+    
+    @Column(name = "latency_ms")
+    private Long latencyMs;
+    
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+    
+    public BatchJobItem() {}
+    
+    public BatchJobItem(BatchJob job, int lineNumber, String customId, String message) {
+        this.job = job;
+        this.lineNumber = lineNumber;
+        this.customId = customId;
+        this.message = message;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public BatchJob getJob() { return job; }
+    public void setJob(BatchJob job) { this.job = job; }
+    
+    public int getLineNumber() { return lineNumber; }
+    public void setLineNumber(int lineNumber) { this.lineNumber = lineNumber; }
+    
+    public String getCustomId() { return customId; }
+    public void setCustomId(String customId) { this.customId = customId; }
+    
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+    
+    public BatchItemStatus getStatus() { return status; }
+    public void setStatus(BatchItemStatus status) { this.status = status; }
+    
+    public String getResponse() { return response; }
+    public void setResponse(String response) { this.response = response; }
+    
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+    
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    
+    public Long getLatencyMs() { return latencyMs; }
+    public void setLatencyMs(Long latencyMs) { this.latencyMs = latencyMs; }
+    
+    public LocalDateTime getCompletedAt() { return completedAt; }
+    public void setCompletedAt(LocalDateTime completedAt) { this.completedAt = completedAt; }
+}
@@ -0,0 +1,8 @@
+package com.aibh.model;
+
+public enum BatchJobStatus {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    CANCELLED
+}
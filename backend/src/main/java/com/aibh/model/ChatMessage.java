@@ -1,5 +1,6 @@
 package com.aibh.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
@@ -12,14 +13,19 @@ import java.time.LocalDateTime;
 })
 public class ChatMessage {
     
+    public static final String SUMMARY = "SUMMARY";
+    
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
+    // Lazy associations are not loaded outside the transaction, so they stay out of the history JSON
+    @JsonIgnore
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "conversation_id", nullable = false)
     private Conversation conversation;
     
+    @JsonIgnore
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
@@ -35,7 +41,7 @@ public class ChatMessage {
     private String aiResponse;
     
     @Column(name = "message_type", length = 50)
-    private String messageType = "TEXT"; // TEXT, IMAGE, VOICE
+    private String messageType = "TEXT"; // TEXT, IMAGE, VOICE; SUMMARY is never persisted
     
     @Column(name = "image_url", length = 500)
     private String imageUrl;
@@ -68,6 +74,19 @@ public class ChatMessage {
         this.messageType = messageType;
     }
     
+    /**
+     * Unsaved stand-in for the turns folded into a rolling summary; it leads the context and is
+     * sent upstream as a system message.
+     */
+    public static ChatMessage summary(String sessionId, String summary) {
+        return new ChatMessage(sessionId, null, "Summary of the earlier conversation:\n" + summary, SUMMARY);
+    }
+    
+    @JsonIgnore
+    public boolean isSummary() {
+        return SUMMARY.equals(messageType);
+    }
+    
     // Getters and Setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
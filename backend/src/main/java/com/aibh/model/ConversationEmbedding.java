@@ -0,0 +1,89 @@
+package com.aibh.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Embedding of a saved chat turn, its message together with the start of its answer,
+ * normalized to unit length. Used to pick the past turns relevant to a new message.
+ */
+@Entity
+@Table(name = "conversation_embeddings", indexes = {
+    @Index(name = "idx_user_embeddings", columnList = "user_id"),
+    @Index(name = "idx_conversation_embeddings", columnList = "conversation_id")
+})
+public class ConversationEmbedding {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "chat_message_id", nullable = false)
+    private Long chatMessageId;
+    
+    // The embedded text
+    @Column(name = "message_content", columnDefinition = "TEXT", nullable = false)
+    private String messageContent;
+    
+    @Column(name = "embedding_vector", nullable = false)
+    private float[] embeddingVector;
+    
+    @Column(name = "message_type", length = 20)
+    private String messageType = "USER";
+    
+    // Prompt tokens of the whole turn, so it can be budgeted without loading it
+    @Column(name = "token_count", nullable = false)
+    private int tokenCount;
+    
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    public ConversationEmbedding() {}
+    
+    public ConversationEmbedding(Long conversationId, Long userId, Long chatMessageId, String messageContent,
+                                 float[] embeddingVector, int tokenCount) {
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.chatMessageId = chatMessageId;
+        this.messageContent = messageContent;
+        this.embeddingVector = embeddingVector;
+        this.tokenCount = tokenCount;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public Long getConversationId() { return conversationId; }
+    public void setConversationId(Long conversationId) { this.conversationId = conversationId; }
+    
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+    
+    public Long getChatMessageId() { return chatMessageId; }
+    public void setChatMessageId(Long chatMessageId) { this.chatMessageId = chatMessageId; }
+    
+    public String getMessageContent() { return messageContent; }
+    public void setMessageContent(String messageContent) { this.messageContent = messageContent; }
+    
+    public float[] getEmbeddingVector() { return embeddingVector; }
+    public void setEmbeddingVector(float[] embeddingVector) { this.embeddingVector = embeddingVector; }
+    
+    public String getMessageType() { return messageType; }
+    public void setMessageType(String messageType) { this.messageType = messageType; }
+    
+    public int getTokenCount() { return tokenCount; }
+    public void setTokenCount(int tokenCount) { this.tokenCount = tokenCount; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
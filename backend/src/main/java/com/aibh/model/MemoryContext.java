@@ -0,0 +1,79 @@
+package com.aibh.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Rolling summary of a chat session. Turns up to {@code summarizedMessageId} are folded into
+ * {@code contextSummary} and no longer sent upstream as raw messages; later turns still are.
+ */
+@Entity
+@Table(name = "memory_contexts", indexes = {
+    @Index(name = "idx_context_session", columnList = "user_id, session_id")
+})
+public class MemoryContext {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+    
+    @Column(name = "session_id", nullable = false, length = 100)
+    private String sessionId;
+    
+    @Column(name = "context_summary", columnDefinition = "TEXT")
+    private String contextSummary;
+    
+    // Id of the last chat message folded into the summary
+    @Column(name = "summarized_message_id")
+    private Long summarizedMessageId;
+    
+    @Column(name = "summary_tokens")
+    private Integer summaryTokens;
+    
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    public MemoryContext() {}
+    
+    public MemoryContext(User user, String sessionId) {
+        this.user = user;
+        this.sessionId = sessionId;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public User getUser() { return user; }
+    public void setUser(User user) { this.user = user; }
+    
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+    
+    public String getContextSummary() { return contextSummary; }
+    public void setContextSummary(String contextSummary) { this.contextSummary = contextSummary; }
+    
+    public Long getSummarizedMessageId() { return summarizedMessageId; }
+    public void setSummarizedMessageId(Long summarizedMessageId) { this.summarizedMessageId = summarizedMessageId; }
+    
+    public Integer getSummaryTokens() { return summaryTokens; }
+    public void setSummaryTokens(Integer summaryTokens) { this.summaryTokens = summaryTokens; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,39 @@
+package com.aibh.repository;
+
+import com.aibh.model.BatchItemStatus;
+import com.aibh.model.BatchJob;
+import com.aibh.model.BatchJobItem;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface BatchJobItemRepository extends JpaRepository<BatchJobItem, Long> {
+    
+    // Keyset paging in line order, for dispatching work and streaming results
+    List<BatchJobItem> findByJobAndStatusInAndLineNumberGreaterThanOrderByLineNumberAsc(
+        BatchJob job, Collection<BatchItemStatus> statuses, int lineNumber, Pageable pageable);
+    
+    @Query("SELECT i.status, COUNT(i) FROM BatchJobItem i WHERE i.job = :job GROUP BY i.status")
+    List<Object[]> countByStatus(@Param("job") BatchJob job);
+    
+    /**
+     * Records an item's outcome with a single UPDATE, without loading the item first.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE BatchJobItem i SET i.status = :status, i.response = :response, i.error = :error, " +
+           "i.attempts = :attempts, i.latencyMs = :latencyMs, i.completedAt = :completedAt WHERE i.id = :id")
+    int complete(@Param("id") Long id, @Param("status") BatchItemStatus status,
+                 @Param("response") String response, @Param("error") String error,
+                 @Param("attempts") int attempts, @Param("latencyMs") Long latencyMs,
+                 @Param("completedAt") LocalDateTime completedAt);
+}
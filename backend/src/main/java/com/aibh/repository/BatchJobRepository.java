@@ -0,0 +1,21 @@
+package com.aibh.repository;
+
+import com.aibh.model.BatchJob;
+import com.aibh.model.BatchJobStatus;
+import com.aibh.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BatchJobRepository extends JpaRepository<BatchJob, Long> {
+    
+    Optional<BatchJob> findByIdAndUser(Long id, User user);
+    
+    List<BatchJob> findByUserOrderByCreatedAtDesc(User user);
+    
+    List<BatchJob> findByStatusInOrderByCreatedAtAsc(Collection<BatchJobStatus> statuses);
+}
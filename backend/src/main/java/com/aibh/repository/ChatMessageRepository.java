@@ -26,6 +26,8 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long>
     
     void deleteBySessionId(String sessionId);
     
+    List<ChatMessage> findBySessionIdAndIdGreaterThanOrderByIdAsc(String sessionId, Long id);
+    
     // New conversation-based methods
     List<ChatMessage> findByConversationOrderByCreatedAtAsc(Conversation conversation);
     
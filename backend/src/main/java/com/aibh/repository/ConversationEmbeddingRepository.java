@@ -0,0 +1,14 @@
+package com.aibh.repository;
+
+import com.aibh.model.ConversationEmbedding;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ConversationEmbeddingRepository extends JpaRepository<ConversationEmbedding, Long> {
+    
+    List<ConversationEmbedding> findByConversationIdOrderByChatMessageIdDesc(Long conversationId, Pageable pageable);
+}
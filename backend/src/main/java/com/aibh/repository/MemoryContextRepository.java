@@ -0,0 +1,15 @@
+package com.aibh.repository;
+
+import com.aibh.model.MemoryContext;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface MemoryContextRepository extends JpaRepository<MemoryContext, Long> {
+    
+    Optional<MemoryContext> findBySessionId(String sessionId);
+    
+    void deleteBySessionId(String sessionId);
+}
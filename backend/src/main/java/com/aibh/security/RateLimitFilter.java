@@ -1,6 +1,5 @@
 package com.aibh.security;
 
-import com.aibh.model.Role;
 import com.aibh.service.RateLimitingService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.FilterChain;
@@ -59,6 +58,7 @@ public class RateLimitFilter extends OncePerRequestFilter {
     private boolean shouldSkipRateLimit(String requestURI) {
         return requestURI.contains("/actuator/health") || 
                requestURI.contains("/h2-console") ||
+               requestURI.contains("/local-llm/") ||
                requestURI.contains("/swagger-ui") ||
                requestURI.contains("/v3/api-docs");
     }
@@ -82,13 +82,7 @@ public class RateLimitFilter extends OncePerRequestFilter {
         
         if (authentication != null && authentication.isAuthenticated() && 
             authentication.getPrincipal() instanceof UserPrincipal) {
-            UserPrincipal userPrincipal = (UserPrincipal) authentication.getPrincipal();
-            
-            if (userPrincipal.getRole() == Role.ADMIN) {
-                return RateLimitingService.RateLimitType.ADMIN;
-            } else {
-                return RateLimitingService.RateLimitType.USER;
-            }
+            return RateLimitingService.typeOf((UserPrincipal) authentication.getPrincipal());
         }
         
         return RateLimitingService.RateLimitType.ANONYMOUS;
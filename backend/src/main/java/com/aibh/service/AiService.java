@@ -1,30 +1,38 @@
 package com.aibh.service;
 
+import com.aibh.metrics.ChatMetrics;
 import com.aibh.model.ChatMessage;
 import com.aibh.model.Intent;
+import com.aibh.upstream.LlmProvider;
+import com.aibh.upstream.UpstreamHedger;
+import com.aibh.upstream.UpstreamInvoker;
+import com.aibh.upstream.UpstreamLoadBalancer;
+import com.aibh.upstream.UpstreamQuotaPacer;
+import com.aibh.upstream.UpstreamRequestBody;
+import com.aibh.upstream.UpstreamRequestWriter;
+import com.aibh.upstream.UpstreamResponseReader;
+import com.fasterxml.jackson.core.SerializableString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.client.RestClientException;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
-import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.util.StringUtils;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
+import java.util.function.Consumer;
 
 @Service
 @SuppressWarnings("null")
 public class AiService {
     
-    @Value("${openai.api.key:}")
-    private String openaiApiKey;
-    
-    @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}")
-    private String openaiApiUrl;
+    private static final Logger logger = LoggerFactory.getLogger(AiService.class);
     
     @Autowired(required = false)
     private IntentDetectionService intentDetectionService;
@@ -38,19 +46,57 @@ public class AiService {
     @Autowired(required = false)
     private OutputStandardizationService outputStandardizationService;
     
-    private final RestTemplate restTemplate;
+    @Autowired(required = false)
+    private ResponseCacheService responseCacheService;
+    
+    @Autowired(required = false)
+    private SemanticCacheService semanticCacheService;
+    
+    @Autowired(required = false)
+    private RequestCoalescingService requestCoalescingService;
+    
+    @Autowired(required = false)
+    private ImagePipelineService imagePipelineService;
+    
+    @Autowired(required = false)
+    private ChatMetrics chatMetrics;
     
-    // Retry and timeout configuration
-    private static final int MAX_RETRIES = 2;
-    private static final int TIMEOUT_SECONDS = 10;
+    private final RestTemplate restTemplate;
+    private final UpstreamInvoker upstreamInvoker;
+    private final UpstreamHedger upstreamHedger;
+    private final UpstreamRequestWriter requestWriter;
+    private final UpstreamResponseReader responseReader;
+    private final UpstreamLoadBalancer upstreamLoadBalancer;
+    private final UpstreamQuotaPacer quotaPacer;
+    private final LocalAnswerService localAnswerService;
+    private final TokenizerService tokenizerService;
+    private final int systemPromptTokens;
+    private final int summaryPromptTokens;
     
-    public AiService() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(TIMEOUT_SECONDS * 1000);
-        factory.setReadTimeout(TIMEOUT_SECONDS * 1000);
-        this.restTemplate = new RestTemplate(factory);
+    // Timeouts live on the shared upstream client (UpstreamHttpConfig), retries in UpstreamInvoker,
+    // provider choice in UpstreamLoadBalancer, provider RPM/TPM quotas in UpstreamQuotaPacer
+    public AiService(RestTemplate upstreamRestTemplate, UpstreamInvoker upstreamInvoker, UpstreamHedger upstreamHedger,
+                     UpstreamRequestWriter requestWriter, UpstreamResponseReader responseReader,
+                     UpstreamLoadBalancer upstreamLoadBalancer, UpstreamQuotaPacer quotaPacer,
+                     LocalAnswerService localAnswerService, TokenizerService tokenizerService) {
+        this.restTemplate = upstreamRestTemplate;
+        this.upstreamInvoker = upstreamInvoker;
+        this.upstreamHedger = upstreamHedger;
+        this.requestWriter = requestWriter;
+        this.responseReader = responseReader;
+        this.upstreamLoadBalancer = upstreamLoadBalancer;
+        this.quotaPacer = quotaPacer;
+        this.localAnswerService = localAnswerService;
+        this.tokenizerService = tokenizerService;
+        this.systemPromptTokens = tokenizerService.countTokens(SYSTEM_PROMPT);
+        this.summaryPromptTokens = tokenizerService.countTokens(SUMMARY_PROMPT);
     }
     
+    private static final String UNPROCESSABLE_RESPONSE = "I couldn't process your request properly.";
+    
+    // Typical high-detail image once fitted to 768px: 85 base tokens plus four 512px tiles at 170
+    private static final int IMAGE_TOKENS = 765;
+    
     private static final String SYSTEM_PROMPT = 
         "You are AI.BH, a fast, precise, topic-focused AI assistant. " +
         "Your main objective is to give the most accurate and direct answer to the user's question in the shortest possible time. " +
@@ -86,76 +132,23 @@ public class AiService {
         
         "Your success is measured by how quickly and correctly the user gets the exact answer they asked for.";
     
+    // Escaped and UTF-8 encoded once; every request copies these bytes as-is
+    private static final SerializableString SYSTEM_PROMPT_JSON = UpstreamRequestWriter.preEncode(SYSTEM_PROMPT);
+    
+    private static final String SUMMARY_PROMPT = 
+        "You maintain a running summary of a conversation between a user and an AI assistant. " +
+        "Merge the new turns into the summary so far and reply with the updated summary only. " +
+        "Keep facts, decisions, names, numbers, code identifiers and open questions the user may refer back to. " +
+        "Drop greetings, filler and anything repeated. Use short plain sentences or bullet points.";
+    
+    private static final SerializableString SUMMARY_PROMPT_JSON = UpstreamRequestWriter.preEncode(SUMMARY_PROMPT);
+    
+    // Routed, parameterized and accounted like a chat intent (see the "summary" route)
+    private static final Intent SUMMARY_INTENT = new Intent("summary", 1.0, "procedural");
+    
     public String generateResponse(String userMessage, List<ChatMessage> conversationHistory) {
         try {
-            if (!StringUtils.hasText(userMessage)) {
-                return "Please provide a message.";
-            }
-            
-            // Detect intent
-            Intent intent = intentDetectionService != null ? 
-                intentDetectionService.detectIntent(userMessage) : 
-                new Intent("general", 0.5, "conversational");
-            
-            // Optimize context
-            List<ChatMessage> optimizedContext = contextManagementService != null ? 
-                contextManagementService.optimizeContext(conversationHistory) : 
-                conversationHistory;
-            
-            // Use OpenAI API if key is configured, otherwise use intelligent fallback
-            if (!StringUtils.hasText(openaiApiKey) || "your-openai-api-key".equals(openaiApiKey)) {
-                String response = generateIntelligentResponse(userMessage);
-                return outputStandardizationService != null ? 
-                    outputStandardizationService.standardizeOutput(response, intent) : response;
-            }
-            
-            // Select model based on intent
-            String selectedModel = modelRoutingService != null ? 
-                modelRoutingService.selectModel(intent, false) : "gpt-4o-mini";
-            
-            Map<String, Object> requestBody = buildRequestBody(userMessage, intent, optimizedContext, selectedModel);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(openaiApiKey);
-            
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            
-            ResponseEntity<Map<String, Object>> response = null;
-            String aiResponse = null;
-            
-            // Retry logic
-            for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
-                try {
-                    response = restTemplate.exchange(
-                        openaiApiUrl, 
-                        HttpMethod.POST, 
-                        request, 
-                        new ParameterizedTypeReference<Map<String, Object>>() {}
-                    );
-                    
-                    Map<String, Object> responseBody = response.getBody();
-                    aiResponse = extractResponseText(responseBody);
-                    break; // Success, exit retry loop
-                    
-                } catch (RestClientException e) {
-                    if (attempt == MAX_RETRIES) {
-                        throw e; // Last attempt failed, throw exception
-                    }
-                    System.err.println("Attempt " + (attempt + 1) + " failed, retrying: " + e.getMessage());
-                    try {
-                        Thread.sleep(1000 * (attempt + 1)); // Exponential backoff
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("Interrupted during retry", ie);
-                    }
-                }
-            }
-            
-            // Standardize output
-            return outputStandardizationService != null ? 
-                outputStandardizationService.standardizeOutput(aiResponse, intent) : aiResponse;
-            
+            return generate(userMessage, conversationHistory, true);
         } catch (Exception e) {
             System.err.println("Error in generateResponse: " + e.getMessage());
             String fallbackResponse = generateIntelligentResponse(userMessage);
@@ -165,299 +158,473 @@ public class AiService {
         }
     }
     
-    public String generateImageResponse(String userMessage, String imageUrl, List<ChatMessage> conversationHistory) {
-        try {
-            if (!StringUtils.hasText(userMessage) || !StringUtils.hasText(imageUrl)) {
-                return "Please provide both a message and an image.";
-            }
-            
-            if (!StringUtils.hasText(openaiApiKey) || "your-openai-api-key".equals(openaiApiKey)) {
-                return "I can see you've uploaded an image with the question: \"" + userMessage + "\"\n\n" +
-                       "To enable full image analysis capabilities, configure your OpenAI API key in the backend settings. " +
-                       "This will allow me to actually see and analyze your images in detail!\n\n" +
-                       "For now, I can help with text-based questions about images, photography, or visual concepts.";
-            }
-            
-            Intent imageIntent = intentDetectionService != null ? 
-                intentDetectionService.detectIntent(userMessage) : 
-                new Intent("general", 0.5, "conversational");
-            
-            Map<String, Object> requestBody = buildImageRequestBody(userMessage, imageUrl, imageIntent);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(openaiApiKey);
-            
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                openaiApiUrl, 
-                HttpMethod.POST, 
-                request, 
-                new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
-            
-            Map<String, Object> responseBody = response.getBody();
-            return extractResponseText(responseBody);
-            
-        } catch (Exception e) {
-            System.err.println("Error in generateImageResponse: " + e.getMessage());
-            return "I encountered an error processing your image. Please try again or check your API configuration.";
-        }
+    /**
+     * Same pipeline as {@link #generateResponse} but lets upstream failures propagate instead of
+     * answering with the local fallback, for callers such as batch jobs that retry on their own.
+     * Having no chat provider available counts as such a failure.
+     */
+    public String generateUpstreamResponse(String userMessage, List<ChatMessage> conversationHistory) {
+        return generate(userMessage, conversationHistory, false);
     }
     
-    private Map<String, Object> buildRequestBody(String userMessage, Intent intent, List<ChatMessage> context, String model) {
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", model);
-        
-        // Use model routing service for parameters if available
-        if (modelRoutingService != null) {
-            requestBody.put("max_tokens", modelRoutingService.getMaxTokens(intent));
-            requestBody.put("temperature", modelRoutingService.getTemperature(intent));
-        } else {
-            requestBody.put("max_tokens", 1000);
-            requestBody.put("temperature", 0.7);
+    private String generate(String userMessage, List<ChatMessage> conversationHistory, boolean localFallback) {
+        if (!StringUtils.hasText(userMessage)) {
+            return "Please provide a message.";
         }
         
-        List<Map<String, String>> messages = new ArrayList<>();
+        // Read once for intent detection, the local answers and their fallback
+        LocalAnswerService.Scan scan = localAnswerService.scan(userMessage);
+        Intent intent = intentDetectionService != null ? 
+            intentDetectionService.detectIntent(userMessage, scan.features()) : 
+            new Intent("general", 0.5, "conversational");
         
-        // System message
-        Map<String, String> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", SYSTEM_PROMPT);
-        messages.add(systemMessage);
+        // Trivial messages are answered from the local knowledge base without an upstream call
+        String localAnswer = localAnswerService.fastPath(userMessage, scan, intent);
+        if (localAnswer != null) {
+            return outputStandardizationService != null ? 
+                outputStandardizationService.standardizeOutput(localAnswer, intent) : localAnswer;
+        }
         
-        // Add context messages if available
-        if (context != null && !context.isEmpty()) {
-            for (ChatMessage contextMessage : context) {
-                // Add user message
-                if (contextMessage.getUserMessage() != null && !contextMessage.getUserMessage().trim().isEmpty()) {
-                    Map<String, String> userMsg = new HashMap<>();
-                    userMsg.put("role", "user");
-                    userMsg.put("content", contextMessage.getUserMessage());
-                    messages.add(userMsg);
-                }
-                
-                // Add AI response
-                if (contextMessage.getAiResponse() != null && !contextMessage.getAiResponse().trim().isEmpty()) {
-                    Map<String, String> aiMsg = new HashMap<>();
-                    aiMsg.put("role", "assistant");
-                    aiMsg.put("content", contextMessage.getAiResponse());
-                    messages.add(aiMsg);
-                }
+        // Optimize context
+        List<ChatMessage> optimizedContext = contextManagementService != null ? 
+            contextManagementService.optimizeContext(conversationHistory) : 
+            conversationHistory;
+        
+        // Use an upstream provider if one is configured, otherwise use intelligent fallback
+        if (!upstreamLoadBalancer.isAvailable(LlmProvider.Capability.CHAT)) {
+            if (!localFallback) {
+                throw new IllegalStateException("No upstream chat provider is available");
             }
+            String response = localAnswerService.fallback(userMessage, scan);
+            return outputStandardizationService != null ? 
+                outputStandardizationService.standardizeOutput(response, intent) : response;
         }
         
-        // Current user message
-        Map<String, String> currentMessage = new HashMap<>();
-        currentMessage.put("role", "user");
-        currentMessage.put("content", userMessage);
-        messages.add(currentMessage);
+        // Select model based on intent
+        String selectedModel = modelRoutingService != null ? 
+            modelRoutingService.selectModel(intent, false) : "gpt-4o-mini";
         
-        requestBody.put("messages", messages);
-        return requestBody;
+        ResponseCacheService.Key cacheKey = buildCacheKey(selectedModel, intent, userMessage, optimizedContext);
+        String cachedResponse = responseCacheService != null ? responseCacheService.get(cacheKey) : null;
+        if (cachedResponse != null) {
+            return cachedResponse;
+        }
+        
+        // Identical requests already in flight share that call instead of making their own
+        return requestCoalescingService != null ? 
+            requestCoalescingService.execute(cacheKey, () -> 
+                completeUpstream(selectedModel, intent, userMessage, optimizedContext, cacheKey)) : 
+            completeUpstream(selectedModel, intent, userMessage, optimizedContext, cacheKey);
     }
     
-    private Map<String, Object> buildImageRequestBody(String userMessage, String imageUrl, Intent intent) {
-        Map<String, Object> requestBody = new HashMap<>();
+    /**
+     * Streaming variant of {@link #generateResponse}. Sends the completion request with
+     * {@code stream: true} and hands every content delta to {@code onDelta} as soon as it
+     * arrives. Returns the assembled, standardized response once the stream has finished.
+     * A failure before the first delta is answered with the local fallback; a failure after it
+     * is thrown, since the part already delivered is not a complete answer.
+     */
+    public String generateStreamingResponse(String userMessage, List<ChatMessage> conversationHistory,
+                                            Consumer<String> onDelta) {
+        if (!StringUtils.hasText(userMessage)) {
+            String response = "Please provide a message.";
+            onDelta.accept(response);
+            return response;
+        }
         
-        String model = modelRoutingService != null ? 
-            modelRoutingService.selectModel(intent, true) : "gpt-4-vision-preview";
-        requestBody.put("model", model);
+        LocalAnswerService.Scan scan = localAnswerService.scan(userMessage);
+        Intent intent = intentDetectionService != null ? 
+            intentDetectionService.detectIntent(userMessage, scan.features()) : 
+            new Intent("general", 0.5, "conversational");
         
-        int maxTokens = modelRoutingService != null ? 
-            modelRoutingService.getMaxTokens(intent) : 1000;
-        requestBody.put("max_tokens", maxTokens);
+        String localAnswer = localAnswerService.fastPath(userMessage, scan, intent);
+        if (localAnswer != null) {
+            onDelta.accept(localAnswer);
+            return outputStandardizationService != null ? 
+                outputStandardizationService.standardizeOutput(localAnswer, intent) : localAnswer;
+        }
         
-        List<Map<String, Object>> messages = new ArrayList<>();
+        List<ChatMessage> optimizedContext = contextManagementService != null ? 
+            contextManagementService.optimizeContext(conversationHistory) : 
+            conversationHistory;
         
-        Map<String, Object> systemMessage = new HashMap<>();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", SYSTEM_PROMPT);
-        messages.add(systemMessage);
+        StringBuilder assembled = new StringBuilder();
+        Intent outputIntent = intent;
+        try {
+            if (!upstreamLoadBalancer.isAvailable(LlmProvider.Capability.STREAMING)) {
+                String response = localAnswerService.fallback(userMessage, scan);
+                assembled.append(response);
+                onDelta.accept(response);
+            } else {
+                String selectedModel = modelRoutingService != null ? 
+                    modelRoutingService.selectModel(intent, false) : "gpt-4o-mini";
+                
+                ResponseCacheService.Key key = buildCacheKey(selectedModel, intent, userMessage, optimizedContext);
+                String cachedResponse = responseCacheService != null ? responseCacheService.get(key) : null;
+                if (cachedResponse != null) {
+                    onDelta.accept(cachedResponse);
+                    return cachedResponse;
+                }
+                
+                Consumer<String> emit = delta -> {
+                    assembled.append(delta);
+                    onDelta.accept(delta);
+                };
+                return requestCoalescingService != null ? 
+                    requestCoalescingService.executeStreaming(key, emit, sink -> 
+                        streamUpstream(selectedModel, intent, userMessage, optimizedContext, key, sink)) : 
+                    streamUpstream(selectedModel, intent, userMessage, optimizedContext, key, emit);
+            }
+        } catch (RuntimeException e) {
+            if (assembled.length() > 0) {
+                throw e;
+            }
+            // Nothing reached the client yet, so the local fallback can still stand in
+            logger.warn("Streaming completion failed, answering locally: {}", e.getMessage());
+            String fallbackResponse = localAnswerService.fallback(userMessage, scan);
+            assembled.append(fallbackResponse);
+            onDelta.accept(fallbackResponse);
+            outputIntent = new Intent("general", 0.5, "conversational");
+        }
         
-        Map<String, Object> userMessageMap = new HashMap<>();
-        userMessageMap.put("role", "user");
+        String aiResponse = assembled.toString();
+        return outputStandardizationService != null ? 
+            outputStandardizationService.standardizeOutput(aiResponse, outputIntent) : aiResponse;
+    }
+    
+    /**
+     * Makes the upstream completion call for a request that missed the exact-match cache,
+     * then standardizes and caches the answer.
+     */
+    private String completeUpstream(String selectedModel, Intent intent, String userMessage,
+                                    List<ChatMessage> optimizedContext, ResponseCacheService.Key cacheKey) {
+        SemanticCacheService.Lookup semanticLookup = semanticLookup(selectedModel, intent, userMessage, optimizedContext);
+        if (semanticLookup.hit()) {
+            return semanticLookup.response();
+        }
         
-        List<Map<String, Object>> content = new ArrayList<>();
+        UpstreamRequestBody requestBody = buildRequestBody(userMessage, intent, optimizedContext, selectedModel, false);
+        int quotaTokens = estimatePromptTokens(userMessage, optimizedContext) + maxTokens(intent);
         
-        Map<String, Object> textContent = new HashMap<>();
-        textContent.put("type", "text");
-        textContent.put("text", userMessage);
-        content.add(textContent);
+        // Hedging races a second call past the latency percentile, and each call picks its own
+        // provider; circuit breaker, retries and the overall deadline are handled by the invoker.
+        // Quota pacing happens before the invoker so its waits do not hold a concurrency permit
+        long start = System.nanoTime();
+        UpstreamResponseReader.Completion completion;
+        try {
+            completion = upstreamHedger.execute(selectedModel, () ->
+                upstreamLoadBalancer.execute(selectedModel, LlmProvider.Capability.CHAT, provider -> {
+                    UpstreamQuotaPacer.Reservation reservation = quotaPacer.reserve(provider, selectedModel, quotaTokens);
+                    return upstreamInvoker.execute(selectedModel, provider.getChatUrl(), () ->
+                        postCompletion(provider, requestBody, reservation));
+                })
+            );
+        } catch (RuntimeException e) {
+            recordRoutingOutcome(intent, selectedModel, -1, -1, false);
+            throw e;
+        }
+        recordRoutingOutcome(intent, selectedModel, System.nanoTime() - start,
+            completion != null ? completion.usage().completionTokens() : -1, completion != null);
         
-        Map<String, Object> imageContent = new HashMap<>();
-        imageContent.put("type", "image_url");
-        Map<String, String> imageUrlMap = new HashMap<>();
-        imageUrlMap.put("url", imageUrl);
-        imageContent.put("image_url", imageUrlMap);
-        content.add(imageContent);
+        String aiResponse = extractResponseText(completion);
         
-        userMessageMap.put("content", content);
-        messages.add(userMessageMap);
+        // Standardize output
+        String standardized = outputStandardizationService != null ? 
+            outputStandardizationService.standardizeOutput(aiResponse, intent) : aiResponse;
         
-        requestBody.put("messages", messages);
-        return requestBody;
+        if (!UNPROCESSABLE_RESPONSE.equals(aiResponse)) {
+            cacheResponse(cacheKey, semanticLookup, standardized, intent);
+        }
+        return standardized;
     }
     
-    private String extractResponseText(Map<String, Object> responseBody) {
+    /**
+     * Streaming counterpart of {@link #completeUpstream}: forwards every delta to {@code sink}
+     * and caches the answer only once the whole stream has been received.
+     */
+    private String streamUpstream(String selectedModel, Intent intent, String userMessage,
+                                  List<ChatMessage> optimizedContext, ResponseCacheService.Key cacheKey,
+                                  Consumer<String> sink) {
+        SemanticCacheService.Lookup semanticLookup = semanticLookup(selectedModel, intent, userMessage, optimizedContext);
+        if (semanticLookup.hit()) {
+            sink.accept(semanticLookup.response());
+            return semanticLookup.response();
+        }
+        
+        UpstreamRequestBody requestBody = buildRequestBody(userMessage, intent, optimizedContext, selectedModel, true);
+        int promptTokens = estimatePromptTokens(userMessage, optimizedContext);
+        
+        StringBuilder received = new StringBuilder();
+        // Single attempt: a retry could replay deltas the client has already received
         try {
-            if (responseBody == null) {
-                return "I couldn't process your request properly.";
-            }
-            
-            Object choicesObj = responseBody.get("choices");
-            if (choicesObj instanceof List<?> choicesList && !choicesList.isEmpty()) {
-                Object firstChoice = choicesList.get(0);
-                if (firstChoice instanceof Map<?, ?> choiceMap) {
-                    Object messageObj = choiceMap.get("message");
-                    if (messageObj instanceof Map<?, ?> messageMap) {
-                        Object contentObj = messageMap.get("content");
-                        if (contentObj instanceof String content) {
-                            return content;
-                        }
+            streamCompletion(selectedModel, requestBody, promptTokens, maxTokens(intent), delta -> {
+                received.append(delta);
+                sink.accept(delta);
+            });
+        } catch (RuntimeException e) {
+            recordRoutingOutcome(intent, selectedModel, -1, -1, false);
+            throw e;
+        }
+        // A stream's duration reflects the answer length, so only its outcome is recorded
+        recordRoutingOutcome(intent, selectedModel, -1, -1, true);
+        
+        String aiResponse = received.toString();
+        String standardized = outputStandardizationService != null ? 
+            outputStandardizationService.standardizeOutput(aiResponse, intent) : aiResponse;
+        cacheResponse(cacheKey, semanticLookup, standardized, intent);
+        return standardized;
+    }
+    
+    private void streamCompletion(String selectedModel, UpstreamRequestBody requestBody, int promptTokens, int maxTokens,
+                                  Consumer<String> onDelta) {
+        upstreamLoadBalancer.execute(selectedModel, LlmProvider.Capability.STREAMING, provider -> {
+            HttpHeaders headers = upstreamHeaders(provider);
+            headers.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+            UpstreamQuotaPacer.Reservation reservation = quotaPacer.reserve(provider, selectedModel, promptTokens + maxTokens);
+            return upstreamInvoker.executeOnce(selectedModel, provider.getChatUrl(), () -> reservation.attempt(() ->
+                restTemplate.execute(
+                    provider.getChatUrl(),
+                    HttpMethod.POST,
+                    restTemplate.httpEntityCallback(new HttpEntity<>(requestBody, headers)),
+                    response -> {
+                        reservation.observe(response.getHeaders());
+                        // Streams carry no usage block, so settle on the prompt estimate plus what
+                        // was actually generated
+                        StringBuilder generated = new StringBuilder();
+                        readCompletionStream(response.getBody(), delta -> {
+                            generated.append(delta);
+                            onDelta.accept(delta);
+                        });
+                        reservation.settle(promptTokens + tokenizerService.countTokens(generated.toString()));
+                        return null;
                     }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error extracting response text: " + e.getMessage());
+                )
+            ));
+        });
+    }
+    
+    private void recordRoutingOutcome(Intent intent, String model, long latencyNanos, int completionTokens, boolean success) {
+        if (modelRoutingService != null) {
+            modelRoutingService.recordOutcome(intent, model, latencyNanos, completionTokens, success);
         }
-        return "I couldn't process your request properly.";
     }
     
-    public String generateIntelligentResponse(String userMessage) {
-        String lowerMessage = userMessage.toLowerCase().trim();
-        
-        // Simple greetings
-        if (lowerMessage.matches("^(hello|hi|hey|good morning|good afternoon|good evening)!?$")) {
-            return "Hello! What do you need help with?";
+    private void cacheResponse(ResponseCacheService.Key cacheKey, SemanticCacheService.Lookup semanticLookup,
+                               String standardized, Intent intent) {
+        if (responseCacheService != null) {
+            responseCacheService.put(cacheKey, standardized, intent);
         }
-        
-        // Programming questions
-        if (isAbout(lowerMessage, "python")) {
-            return handlePythonQuestion(userMessage, lowerMessage);
+        if (semanticCacheService != null) {
+            semanticCacheService.store(semanticLookup, standardized);
         }
-        if (isAbout(lowerMessage, "javascript", "js") && !lowerMessage.contains("java ")) {
-            return handleJavaScriptQuestion(userMessage, lowerMessage);
+    }
+    
+    private SemanticCacheService.Lookup semanticLookup(String model, Intent intent, String userMessage, List<ChatMessage> context) {
+        return semanticCacheService != null ? 
+            semanticCacheService.lookup(model, intent, userMessage, context) : 
+            SemanticCacheService.Lookup.SKIPPED;
+    }
+    
+    private ResponseCacheService.Key buildCacheKey(String model, Intent intent, String userMessage, List<ChatMessage> context) {
+        if (responseCacheService == null) {
+            return null;
         }
-        if (isAbout(lowerMessage, "java") && !lowerMessage.contains("javascript")) {
-            return handleJavaQuestion(userMessage, lowerMessage);
+        double temperature = modelRoutingService != null ? modelRoutingService.getTemperature(intent) : 0.7;
+        return responseCacheService.buildKey(model, temperature, userMessage, context);
+    }
+    
+    /**
+     * Reads an OpenAI server-sent event stream and forwards each
+     * {@code choices[0].delta.content} fragment until the {@code [DONE]} marker.
+     */
+    private void readCompletionStream(InputStream body, Consumer<String> onDelta) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            if ("[DONE]".equals(data)) {
+                break;
+            }
+            if (data.isEmpty()) {
+                continue;
+            }
+            String content = responseReader.readStreamDelta(data);
+            if (content != null && !content.isEmpty()) {
+                onDelta.accept(content);
+            }
         }
-        
-        // Science questions
-        if (isAbout(lowerMessage, "calculus")) {
-            return handleCalculusQuestion(userMessage, lowerMessage);
+    }
+    
+    /**
+     * Folds {@code turns} into {@code previousSummary} with one completion call and returns the
+     * updated summary, or null when no chat provider is configured or nothing usable came back.
+     * Meant for background work: upstream failures propagate and nothing is cached.
+     */
+    public String summarize(String previousSummary, List<ChatMessage> turns) {
+        if (!upstreamLoadBalancer.isAvailable(LlmProvider.Capability.CHAT)) {
+            return null;
         }
-        if (isAbout(lowerMessage, "physics")) {
-            return handlePhysicsQuestion(userMessage, lowerMessage);
+        
+        StringBuilder request = new StringBuilder("Summary so far:\n")
+            .append(StringUtils.hasText(previousSummary) ? previousSummary : "(none)")
+            .append("\n\nNew turns:\n");
+        for (ChatMessage turn : turns) {
+            if (StringUtils.hasText(turn.getUserMessage())) {
+                request.append("User: ").append(turn.getUserMessage()).append('\n');
+            }
+            if (StringUtils.hasText(turn.getAiResponse())) {
+                request.append("Assistant: ").append(turn.getAiResponse()).append('\n');
+            }
         }
-        if (isAbout(lowerMessage, "artificial intelligence", "ai", "machine learning")) {
-            return handleAIQuestion(userMessage, lowerMessage);
+        
+        String model = modelRoutingService != null ? 
+            modelRoutingService.selectModel(SUMMARY_INTENT, false) : "gpt-4o-mini";
+        double temperature = modelRoutingService != null ? modelRoutingService.getTemperature(SUMMARY_INTENT) : 0.2;
+        UpstreamRequestBody requestBody = requestWriter.chatCompletion(
+            model, maxTokens(SUMMARY_INTENT), temperature, SUMMARY_PROMPT_JSON, null, request.toString(), false);
+        int quotaTokens = summaryPromptTokens + tokenizerService.countTokens(request.toString())
+            + 2 * TokenizerService.TOKENS_PER_MESSAGE + TokenizerService.TOKENS_PER_REPLY + maxTokens(SUMMARY_INTENT);
+        
+        long start = System.nanoTime();
+        UpstreamResponseReader.Completion completion;
+        try {
+            completion = upstreamLoadBalancer.execute(model, LlmProvider.Capability.CHAT, provider -> {
+                UpstreamQuotaPacer.Reservation reservation = quotaPacer.reserve(provider, model, quotaTokens);
+                return upstreamInvoker.execute(model, provider.getChatUrl(), () -> postCompletion(provider, requestBody, reservation));
+            });
+        } catch (RuntimeException e) {
+            recordRoutingOutcome(SUMMARY_INTENT, model, -1, -1, false);
+            throw e;
         }
+        recordRoutingOutcome(SUMMARY_INTENT, model, System.nanoTime() - start,
+            completion != null ? completion.usage().completionTokens() : -1, completion != null);
         
-        // General question handling
-        return handleGeneralQuestion(userMessage, lowerMessage);
+        String summary = extractResponseText(completion);
+        return UNPROCESSABLE_RESPONSE.equals(summary) || !StringUtils.hasText(summary) ? null : summary.trim();
     }
     
-    private boolean isAbout(String message, String... keywords) {
-        for (String keyword : keywords) {
-            if (message.contains(keyword)) {
-                return true;
+    public String generateImageResponse(String userMessage, String imageUrl, List<ChatMessage> conversationHistory) {
+        try {
+            if (!StringUtils.hasText(userMessage) || !StringUtils.hasText(imageUrl)) {
+                return "Please provide both a message and an image.";
+            }
+            
+            if (!upstreamLoadBalancer.isAvailable(LlmProvider.Capability.VISION)) {
+                return "I can see you've uploaded an image with the question: \"" + userMessage + "\"\n\n" +
+                       "To enable full image analysis capabilities, configure your OpenAI API key in the backend settings. " +
+                       "This will allow me to actually see and analyze your images in detail!\n\n" +
+                       "For now, I can help with text-based questions about images, photography, or visual concepts.";
             }
+            
+            Intent imageIntent = intentDetectionService != null ? 
+                intentDetectionService.detectIntent(userMessage) : 
+                new Intent("general", 0.5, "conversational");
+            
+            String model = modelRoutingService != null ? 
+                modelRoutingService.selectModel(imageIntent, true) : "gpt-4-vision-preview";
+            
+            // Downscaled once and cached by content; the same picture with the same question
+            // is answered from the response cache
+            ImagePipelineService.PreparedImage image = imagePipelineService != null ? 
+                imagePipelineService.prepare(imageUrl) : new ImagePipelineService.PreparedImage(imageUrl, null);
+            ResponseCacheService.Key cacheKey = image.contentHash() != null ? 
+                buildCacheKey(model, imageIntent, "[image " + image.contentHash() + "] " + userMessage, List.of()) : null;
+            String cachedResponse = cacheKey != null ? responseCacheService.get(cacheKey) : null;
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+            
+            UpstreamRequestBody requestBody = buildImageRequestBody(userMessage, image.url(), imageIntent, model);
+            
+            int quotaTokens = estimatePromptTokens(userMessage, List.of()) + IMAGE_TOKENS + maxTokens(imageIntent);
+            UpstreamResponseReader.Completion completion = upstreamLoadBalancer.execute(model, LlmProvider.Capability.VISION, provider -> {
+                UpstreamQuotaPacer.Reservation reservation = quotaPacer.reserve(provider, model, quotaTokens);
+                return upstreamInvoker.execute(model, provider.getChatUrl(), () -> postCompletion(provider, requestBody, reservation));
+            });
+            
+            String aiResponse = extractResponseText(completion);
+            if (cacheKey != null && !UNPROCESSABLE_RESPONSE.equals(aiResponse)) {
+                responseCacheService.put(cacheKey, aiResponse, imageIntent);
+            }
+            return aiResponse;
+            
+        } catch (Exception e) {
+            System.err.println("Error in generateImageResponse: " + e.getMessage());
+            return "I encountered an error processing your image. Please try again or check your API configuration.";
         }
-        return false;
     }
     
-    private String handlePythonQuestion(String userMessage, String lowerMessage) {
-        if (lowerMessage.contains("what is") || lowerMessage.contains("what's")) {
-            return "Python is a high-level programming language with simple, readable syntax.\n\n" +
-                   "Key features: Easy to learn, cross-platform, large standard library\n" +
-                   "Common uses: Web development, data science, machine learning, automation";
-        }
-        if (lowerMessage.contains("hello world") || lowerMessage.contains("print")) {
-            return "```python\nprint(\"Hello, World!\")\n```";
-        }
-        return "What specific Python topic do you need help with?";
+    private UpstreamRequestBody buildRequestBody(String userMessage, Intent intent, List<ChatMessage> context, String model, boolean stream) {
+        // Use model routing service for parameters if available
+        int maxTokens = maxTokens(intent);
+        double temperature = modelRoutingService != null ? modelRoutingService.getTemperature(intent) : 0.7;
+        
+        return requestWriter.chatCompletion(model, maxTokens, temperature, SYSTEM_PROMPT_JSON, context, userMessage, stream);
     }
     
-    private String handleJavaScriptQuestion(String userMessage, String lowerMessage) {
-        if (lowerMessage.contains("what is") || lowerMessage.contains("what's")) {
-            return "JavaScript is the programming language that makes websites interactive.\n\n" +
-                   "Runs in browsers and servers (Node.js), event-driven, no compilation needed\n" +
-                   "Used for: Web development, mobile apps, desktop applications";
-        }
-        return "What specific JavaScript topic do you need help with?";
+    private UpstreamRequestBody buildImageRequestBody(String userMessage, String imageUrl, Intent intent, String model) {
+        return requestWriter.visionCompletion(model, maxTokens(intent), SYSTEM_PROMPT_JSON, userMessage, imageUrl);
     }
     
-    private String handleJavaQuestion(String userMessage, String lowerMessage) {
-        if (lowerMessage.contains("what is") || lowerMessage.contains("what's")) {
-            return "Java is a powerful, object-oriented programming language known for its 'write once, run anywhere' philosophy.\n\n" +
-                   "**Key Features:**\n" +
-                   "• Platform independent (runs on JVM)\n" +
-                   "• Object-oriented programming\n" +
-                   "• Strongly typed\n" +
-                   "• Automatic memory management\n\n" +
-                   "**Common Uses:**\n" +
-                   "• Enterprise applications\n" +
-                   "• Android development\n" +
-                   "• Web backend development\n" +
-                   "• Desktop applications";
-        }
-        return "I can help with Java programming concepts, syntax, or frameworks. What would you like to know?";
+    private int maxTokens(Intent intent) {
+        return modelRoutingService != null ? modelRoutingService.getMaxTokens(intent) : 1000;
     }
     
-    private String handleCalculusQuestion(String userMessage, String lowerMessage) {
-        return "Calculus is the mathematics of change and motion.\n\n" +
-               "Two parts: Differential calculus (rates of change) and integral calculus (accumulation)\n" +
-               "Key concepts: Derivatives, integrals, limits\n" +
-               "Used in: Physics, economics, engineering, medicine";
+    /**
+     * Prompt size for quota pacing, counted with the tokenizer; the reservation is settled
+     * against the provider's own count once the answer arrives.
+     */
+    private int estimatePromptTokens(String userMessage, List<ChatMessage> context) {
+        long tokens = systemPromptTokens + tokenizerService.countTokens(userMessage)
+            + 2 * TokenizerService.TOKENS_PER_MESSAGE + TokenizerService.TOKENS_PER_REPLY;
+        if (context != null) {
+            for (ChatMessage message : context) {
+                tokens += tokenizerService.countTurnTokens(message);
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, tokens);
     }
     
-    private String handlePhysicsQuestion(String userMessage, String lowerMessage) {
-        if (lowerMessage.contains("airplane") || lowerMessage.contains("fly") || lowerMessage.contains("flight")) {
-            return "Airplanes fly using four fundamental forces:\n\n" +
-                   "1. **Lift** - Upward force from air flowing over wings\n" +
-                   "2. **Weight** - Downward force from gravity\n" +
-                   "3. **Thrust** - Forward force from engines\n" +
-                   "4. **Drag** - Backward force from air resistance\n\n" +
-                   "**How it works:**\n" +
-                   "Wings are shaped to make air move faster over the top surface, creating lower pressure above and higher pressure below, generating lift.";
+    private UpstreamResponseReader.Completion postCompletion(LlmProvider provider, UpstreamRequestBody requestBody,
+                                                             UpstreamQuotaPacer.Reservation reservation) {
+        UpstreamResponseReader.Completion completion = reservation.attempt(() -> restTemplate.execute(
+            provider.getChatUrl(),
+            HttpMethod.POST,
+            restTemplate.httpEntityCallback(new HttpEntity<>(requestBody, upstreamHeaders(provider))),
+            response -> {
+                reservation.observe(response.getHeaders());
+                return responseReader.readCompletion(response.getBody());
+            }
+        ));
+        if (completion != null) {
+            reservation.settle(completion.usage().totalTokens());
         }
-        return "Physics studies matter, energy, and their interactions. I can explain concepts like motion, forces, energy, waves, or specific physics topics. What interests you?";
+        return completion;
     }
     
-    private String handleAIQuestion(String userMessage, String lowerMessage) {
-        return "AI enables computers to perform tasks requiring human intelligence.\n\n" +
-               "Types: Machine learning, deep learning, natural language processing, computer vision\n" +
-               "Applications: Virtual assistants, recommendations, self-driving cars, medical diagnosis";
+    private HttpHeaders upstreamHeaders(LlmProvider provider) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (StringUtils.hasText(provider.getApiKey())) {
+            headers.setBearerAuth(provider.getApiKey());
+        }
+        return headers;
     }
     
-    private String handleGeneralQuestion(String userMessage, String lowerMessage) {
-        if (lowerMessage.startsWith("what is") || lowerMessage.startsWith("what are") || lowerMessage.startsWith("what's")) {
-            String topic = extractTopic(userMessage);
-            return "I can explain " + topic + ". Could you specify what aspect you're most interested in?";
-        }
-        if (lowerMessage.startsWith("how to") || lowerMessage.startsWith("how do") || lowerMessage.startsWith("how can")) {
-            return "I'll help you with: " + userMessage + "\n\nWhat's your current experience level with this topic?";
+    private String extractResponseText(UpstreamResponseReader.Completion completion) {
+        if (completion == null || completion.content() == null) {
+            return UNPROCESSABLE_RESPONSE;
         }
-        if (lowerMessage.startsWith("why")) {
-            return "I can explain the reasoning behind " + userMessage + ". Are you looking for the technical explanation or practical benefits?";
+        if (chatMetrics != null && completion.usage().totalTokens() > 0) {
+            chatMetrics.recordUpstreamTokens(completion.usage().promptTokens(), completion.usage().completionTokens());
         }
-        
-        return "I can help with " + userMessage + ". What specific information do you need?";
+        return completion.content();
     }
     
-    private String extractTopic(String userMessage) {
-        String[] prefixes = {"what is", "what are", "what's"};
-        String lowerMessage = userMessage.toLowerCase();
-        
-        for (String prefix : prefixes) {
-            if (lowerMessage.startsWith(prefix)) {
-                String topic = userMessage.substring(prefix.length()).trim();
-                topic = topic.replaceAll("[?!.]", "").trim();
-                return topic.isEmpty() ? "this topic" : topic;
-            }
-        }
-        return "this topic";
+    public String generateIntelligentResponse(String userMessage) {
+        return localAnswerService.fallback(userMessage);
     }
-}
\ No newline at end of file
+}
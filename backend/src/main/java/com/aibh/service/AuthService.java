@@ -11,6 +11,7 @@ import com.aibh.security.UserPrincipal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -18,6 +19,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
 @Service
 public class AuthService {
@@ -36,6 +38,10 @@ public class AuthService {
     @Autowired
     private JwtTokenProvider tokenProvider;
     
+    // Lets load tests sign up admins; empty, the default, makes every signup a plain user
+    @Value("${aibh.auth.admin-email-pattern:}")
+    private String adminEmailPattern;
+    
     @Transactional
     public AuthResponse login(LoginRequest loginRequest) {
         logger.info("Attempting login for user: {}", loginRequest.getEmail());
@@ -79,7 +85,8 @@ public class AuthService {
         user.setLastName(signupRequest.getLastName());
         user.setEmail(signupRequest.getEmail());
         user.setPassword(passwordEncoder.encode(signupRequest.getPassword()));
-        user.setRole(Role.USER);
+        user.setRole(StringUtils.hasText(adminEmailPattern) && signupRequest.getEmail().matches(adminEmailPattern) ? 
+            Role.ADMIN : Role.USER);
         user.setEnabled(true);
         
         User savedUser = userRepository.save(user);
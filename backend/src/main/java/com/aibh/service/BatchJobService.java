@@ -0,0 +1,519 @@
+package com.aibh.service;
+
+import com.aibh.dto.BatchJobResponse;
+import com.aibh.model.BatchItemStatus;
+import com.aibh.model.BatchJob;
+import com.aibh.model.BatchJobItem;
+import com.aibh.model.BatchJobStatus;
+import com.aibh.model.User;
+import com.aibh.repository.BatchJobItemRepository;
+import com.aibh.repository.BatchJobRepository;
+import com.aibh.repository.UserRepository;
+import com.aibh.security.UserPrincipal;
+import com.aibh.service.RateLimitingService.RateLimitType;
+import com.aibh.upstream.UpstreamPriority;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs uploaded JSONL prompt files through the same {@link AiService} pipeline as interactive
+ * chat, in the background. Each line {@code {"custom_id": "...", "message": "..."}} becomes an
+ * item; a coordinator per job walks the pending items in line order and hands them to the shared
+ * worker executor, keeping at most the job's concurrency in flight.
+ * <p>
+ * Items run at the lowest upstream priority, so interactive requests queue ahead of them in the
+ * concurrency limiter, and retry with exponential backoff when the upstream sheds or fails them
+ * instead of falling back to a local answer. Every outcome is written as soon as it is known;
+ * after a restart, unfinished jobs pick up from their remaining pending items.
+ */
+@Service
+public class BatchJobService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BatchJobService.class);
+    
+    private static final int PAGE_SIZE = 500;
+    private static final int MAX_MESSAGE_LENGTH = 32_000;
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final Set<BatchItemStatus> PENDING = EnumSet.of(BatchItemStatus.PENDING);
+    private static final Set<BatchItemStatus> FINISHED = EnumSet.of(BatchItemStatus.DONE, BatchItemStatus.FAILED);
+    private static final Set<BatchJobStatus> ACTIVE = EnumSet.of(BatchJobStatus.QUEUED, BatchJobStatus.RUNNING);
+    
+    @Value("${aibh.batch.max-items:50000}")
+    private int maxItems;
+    
+    @Value("${aibh.batch.default-concurrency:8}")
+    private int defaultConcurrency;
+    
+    @Value("${aibh.batch.max-concurrency-per-job:32}")
+    private int maxConcurrencyPerJob;
+    
+    @Value("${aibh.batch.max-attempts:4}")
+    private int maxAttempts;
+    
+    @Value("${aibh.batch.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+    
+    private final BatchJobRepository jobRepository;
+    private final BatchJobItemRepository itemRepository;
+    private final UserRepository userRepository;
+    private final AiService aiService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final AsyncTaskExecutor batchJobExecutor;
+    private final AsyncTaskExecutor batchItemExecutor;
+    
+    // Jobs submitted to the coordinator executor, queued or running
+    private final ConcurrentMap<Long, Run> runs = new ConcurrentHashMap<>();
+    
+    private final Counter succeededItems;
+    private final Counter failedItems;
+    private final Counter retriedItems;
+    private final Timer itemLatency;
+    
+    public BatchJobService(BatchJobRepository jobRepository, BatchJobItemRepository itemRepository,
+                           UserRepository userRepository, AiService aiService,
+                           TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+                           AsyncTaskExecutor batchJobExecutor, AsyncTaskExecutor batchItemExecutor,
+                           MeterRegistry meterRegistry) {
+        this.jobRepository = jobRepository;
+        this.itemRepository = itemRepository;
+        this.userRepository = userRepository;
+        this.aiService = aiService;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.batchJobExecutor = batchJobExecutor;
+        this.batchItemExecutor = batchItemExecutor;
+        
+        this.succeededItems = outcomeCounter(meterRegistry, "succeeded");
+        this.failedItems = outcomeCounter(meterRegistry, "failed");
+        this.retriedItems = Counter.builder("batch_item_retries_total")
+            .description("Batch item attempts repeated after an upstream failure")
+            .register(meterRegistry);
+        this.itemLatency = Timer.builder("batch_item_latency")
+            .description("Time to answer a batch item, including retries")
+            .register(meterRegistry);
+        Gauge.builder("batch_jobs_active", runs, ConcurrentMap::size)
+            .description("Batch jobs queued or running")
+            .register(meterRegistry);
+    }
+    
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("batch_items_total")
+            .tag("outcome", outcome)
+            .description("Batch items processed, by outcome")
+            .register(meterRegistry);
+    }
+    
+    private static final class Run {
+        final Long jobId;
+        final long startNanos = System.nanoTime();
+        final AtomicLong finished = new AtomicLong();
+        volatile boolean cancelled;
+        // Set when the workers refused an item and the job went back to QUEUED
+        boolean requeued;
+        
+        Run(Long jobId) {
+            this.jobId = jobId;
+        }
+    }
+    
+    private record ParsedLine(int lineNumber, String customId, String message, String error) {}
+    
+    /**
+     * Reads the JSONL upload, stores the job with all its items and queues it. Lines that are not
+     * valid are stored as failed items so they show up in the results next to the others.
+     */
+    public BatchJobResponse createJob(InputStream input, String fileName, Integer concurrency, UserPrincipal userPrincipal)
+            throws IOException {
+        List<ParsedLine> lines = parse(input);
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("The file contains no prompts");
+        }
+        int jobConcurrency = Math.max(1, Math.min(maxConcurrencyPerJob,
+            concurrency != null ? concurrency : defaultConcurrency));
+        
+        BatchJob job = transactionTemplate.execute(status -> {
+            User user = userRepository.findById(userPrincipal.getId())
+                .orElseThrow(() -> new RuntimeException("User not found"));
+            BatchJob created = new BatchJob(user, fileName, jobConcurrency);
+            created.setTotalItems(lines.size());
+            created = jobRepository.save(created);
+        
+            List<BatchJobItem> items = new ArrayList<>(Math.min(lines.size(), PAGE_SIZE));
+            for (ParsedLine line : lines) {
+                BatchJobItem item = new BatchJobItem(created, line.lineNumber(), line.customId(), line.message());
+                if (line.error() != null) {
+                    item.setStatus(BatchItemStatus.FAILED);
+                    item.setError(line.error());
+                    item.setCompletedAt(LocalDateTime.now());
+                }
+                items.add(item);
+                if (items.size() == PAGE_SIZE) {
+                    itemRepository.saveAll(items);
+                    items.clear();
+                }
+            }
+            itemRepository.saveAll(items);
+            return created;
+        });
+        
+        logger.info("Created batch job {} with {} items for user: {}", job.getId(), lines.size(), userPrincipal.getEmail());
+        submit(job.getId());
+        return toResponse(job);
+    }
+    
+    private List<ParsedLine> parse(InputStream input) throws IOException {
+        List<ParsedLine> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (lines.size() == maxItems) {
+                    throw new IllegalArgumentException("The file has more than " + maxItems + " prompts");
+                }
+                lines.add(parseLine(lineNumber, line));
+            }
+        }
+        return lines;
+    }
+    
+    private ParsedLine parseLine(int lineNumber, String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException e) {
+            return new ParsedLine(lineNumber, null, null, "Line is not valid JSON");
+        }
+        if (node == null || !node.isObject()) {
+            return new ParsedLine(lineNumber, null, null, "Line is not a JSON object");
+        }
+        JsonNode customIdNode = node.get("custom_id");
+        String customId = customIdNode != null && !customIdNode.isNull() ? truncate(customIdNode.asText(), 255) : null;
+        JsonNode messageNode = node.get("message");
+        if (messageNode == null || !messageNode.isTextual() || messageNode.asText().isBlank()) {
+            return new ParsedLine(lineNumber, customId, null, "Missing \"message\"");
+        }
+        if (messageNode.asText().length() > MAX_MESSAGE_LENGTH) {
+            return new ParsedLine(lineNumber, customId, null, "Message is longer than " + MAX_MESSAGE_LENGTH + " characters");
+        }
+        return new ParsedLine(lineNumber, customId, messageNode.asText(), null);
+    }
+    
+    public List<BatchJobResponse> listJobs(UserPrincipal userPrincipal) {
+        User user = userRepository.findById(userPrincipal.getId())
+            .orElseThrow(() -> new RuntimeException("User not found"));
+        return jobRepository.findByUserOrderByCreatedAtDesc(user).stream()
+            .map(this::toResponse)
+            .toList();
+    }
+    
+    public Optional<BatchJobResponse> getJob(Long jobId, UserPrincipal userPrincipal) {
+        return findJob(jobId, userPrincipal).map(this::toResponse);
+    }
+    
+    /**
+     * Stops a queued or running job. Items already in flight finish; the rest stay pending.
+     */
+    public Optional<BatchJobResponse> cancelJob(Long jobId, UserPrincipal userPrincipal) {
+        return findJob(jobId, userPrincipal).map(job -> {
+            if (ACTIVE.contains(job.getStatus())) {
+                Run run = runs.get(jobId);
+                if (run != null) {
+                    run.cancelled = true;
+                }
+                job.setStatus(BatchJobStatus.CANCELLED);
+                job.setFinishedAt(LocalDateTime.now());
+                job = jobRepository.save(job);
+                logger.info("Cancelled batch job {} for user: {}", jobId, userPrincipal.getEmail());
+            }
+            return toResponse(job);
+        });
+    }
+    
+    /**
+     * Writes the finished items of a job as JSONL in line order, a page at a time, so results of
+     * any size stream without being held in memory. Can be called while the job is running.
+     */
+    public void writeResults(Long jobId, OutputStream output) throws IOException {
+        BatchJob job = jobRepository.getReferenceById(jobId);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        int lastLine = 0;
+        List<BatchJobItem> page;
+        do {
+            page = itemRepository.findByJobAndStatusInAndLineNumberGreaterThanOrderByLineNumberAsc(
+                job, FINISHED, lastLine, PageRequest.of(0, PAGE_SIZE));
+            for (BatchJobItem item : page) {
+                generator.writeStartObject();
+                generator.writeStringField("custom_id", item.getCustomId());
+                generator.writeNumberField("line", item.getLineNumber());
+                generator.writeStringField("status", item.getStatus().name());
+                generator.writeStringField("response", item.getResponse());
+                generator.writeStringField("error", item.getError());
+                generator.writeNumberField("attempts", item.getAttempts());
+                if (item.getLatencyMs() != null) {
+                    generator.writeNumberField("latency_ms", item.getLatencyMs());
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                lastLine = item.getLineNumber();
+            }
+            generator.flush();
+        } while (page.size() == PAGE_SIZE);
+        generator.close();
+    }
+    
+    public Optional<BatchJob> findJob(Long jobId, UserPrincipal userPrincipal) {
+        return userRepository.findById(userPrincipal.getId())
+            .flatMap(user -> jobRepository.findByIdAndUser(jobId, user));
+    }
+    
+    /**
+     * Resumes jobs left queued or running when the application last stopped. Needs a persistent
+     * datasource, such as the {@code persistent} profile; with the in-memory H2 default there is
+     * nothing to resume.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJobs() {
+        List<BatchJob> unfinished = jobRepository.findByStatusInOrderByCreatedAtAsc(ACTIVE);
+        for (BatchJob job : unfinished) {
+            logger.info("Resuming batch job {}", job.getId());
+            submit(job.getId());
+        }
+    }
+    
+    private void submit(Long jobId) {
+        Run run = new Run(jobId);
+        if (runs.putIfAbsent(jobId, run) != null) {
+            return;
+        }
+        try {
+            batchJobExecutor.execute(() -> {
+                try {
+                    runJob(run);
+                } catch (RuntimeException e) {
+                    logger.error("Batch job {} stopped: {}", jobId, e.getMessage(), e);
+                } finally {
+                    runs.remove(jobId);
+                }
+                if (run.requeued && backoff(1)) {
+                    submit(jobId);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            runs.remove(jobId);
+            logger.warn("Batch job {} could not be scheduled, it stays queued until the next restart", jobId);
+        }
+    }
+    
+    private void runJob(Run run) {
+        BatchJob job = jobRepository.findById(run.jobId).orElse(null);
+        if (job == null || !ACTIVE.contains(job.getStatus())) {
+            return;
+        }
+        job.setStatus(BatchJobStatus.RUNNING);
+        if (job.getStartedAt() == null) {
+            job.setStartedAt(LocalDateTime.now());
+        }
+        job = jobRepository.save(job);
+        if (run.cancelled) {
+            // Cancelled between loading and saving the job above
+            job.setStatus(BatchJobStatus.CANCELLED);
+            jobRepository.save(job);
+            return;
+        }
+        
+        int concurrency = job.getConcurrency();
+        Semaphore inFlight = new Semaphore(concurrency);
+        int lastLine = 0;
+        TaskRejectedException rejected = null;
+        try {
+            List<BatchJobItem> page;
+            do {
+                page = itemRepository.findByJobAndStatusInAndLineNumberGreaterThanOrderByLineNumberAsc(
+                    job, PENDING, lastLine, PageRequest.of(0, PAGE_SIZE));
+                for (BatchJobItem item : page) {
+                    inFlight.acquire();
+                    if (run.cancelled) {
+                        inFlight.release();
+                        break;
+                    }
+                    try {
+                        batchItemExecutor.execute(() -> {
+                            try {
+                                processItem(run, item);
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    } catch (TaskRejectedException e) {
+                        inFlight.release();
+                        rejected = e;
+                        break;
+                    }
+                    lastLine = item.getLineNumber();
+                }
+            } while (page.size() == PAGE_SIZE && !run.cancelled && rejected == null);
+        
+            // Wait for the items still in flight
+            inFlight.acquire(concurrency);
+        } catch (InterruptedException e) {
+            // Shutting down: the job stays RUNNING and resumes from its pending items
+            Thread.currentThread().interrupt();
+            return;
+        }
+        
+        if (rejected != null && !run.cancelled) {
+            // The workers are shutting down or refusing work: queue the job again rather than
+            // leave it RUNNING with no coordinator; its remaining items stay pending
+            job.setStatus(BatchJobStatus.QUEUED);
+            jobRepository.save(job);
+            run.requeued = true;
+            logger.warn("Batch job {} queued again, its items were refused: {}", run.jobId, rejected.getMessage());
+            return;
+        }
+        if (!run.cancelled) {
+            job.setStatus(BatchJobStatus.COMPLETED);
+            job.setFinishedAt(LocalDateTime.now());
+            jobRepository.save(job);
+            logger.info("Batch job {} completed, {} items in {}s", run.jobId, run.finished.get(),
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - run.startNanos));
+        }
+    }
+    
+    private void processItem(Run run, BatchJobItem item) {
+        long start = System.nanoTime();
+        int attempts = 0;
+        String response = null;
+        String error = null;
+        while (response == null) {
+            attempts++;
+            try {
+                response = UpstreamPriority.call(RateLimitType.ANONYMOUS, () ->
+                    aiService.generateUpstreamResponse(item.getMessage(), List.of()));
+            } catch (RuntimeException e) {
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                if (attempts >= maxAttempts) {
+                    break;
+                }
+                if (run.cancelled || !backoff(attempts)) {
+                    // Left pending; a resumed job answers it
+                    return;
+                }
+                retriedItems.increment();
+            }
+        }
+        
+        long latencyNanos = System.nanoTime() - start;
+        boolean succeeded = response != null;
+        itemRepository.complete(item.getId(), succeeded ? BatchItemStatus.DONE : BatchItemStatus.FAILED,
+            response, succeeded ? null : truncate(error, MAX_ERROR_LENGTH), attempts,
+            TimeUnit.NANOSECONDS.toMillis(latencyNanos), LocalDateTime.now());
+        run.finished.incrementAndGet();
+        itemLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        (succeeded ? succeededItems : failedItems).increment();
+    }
+    
+    /**
+     * Sleeps before the next attempt, doubling the delay each time with full jitter so retries
+     * from many workers do not land on the upstream together. False if interrupted.
+     */
+    private boolean backoff(int attempts) {
+        long ceiling = retryBackoffMs << Math.min(attempts - 1, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    private BatchJobResponse toResponse(BatchJob job) {
+        long pending = 0;
+        long succeeded = 0;
+        long failed = 0;
+        for (Object[] row : itemRepository.countByStatus(job)) {
+            long count = ((Number) row[1]).longValue();
+            switch ((BatchItemStatus) row[0]) {
+                case PENDING -> pending = count;
+                case DONE -> succeeded = count;
+                case FAILED -> failed = count;
+            }
+        }
+        
+        BatchJobResponse response = new BatchJobResponse();
+        response.setId(job.getId());
+        response.setFileName(job.getFileName());
+        response.setStatus(job.getStatus().name());
+        response.setConcurrency(job.getConcurrency());
+        response.setTotalItems(job.getTotalItems());
+        response.setPending(pending);
+        response.setSucceeded(succeeded);
+        response.setFailed(failed);
+        response.setCreatedAt(job.getCreatedAt());
+        response.setStartedAt(job.getStartedAt());
+        response.setFinishedAt(job.getFinishedAt());
+        
+        // Throughput of the current run while the job is active, over the whole job once it ended
+        Run run = runs.get(job.getId());
+        double itemsPerSecond = 0;
+        if (run != null && job.getStatus() == BatchJobStatus.RUNNING) {
+            double seconds = (System.nanoTime() - run.startNanos) / 1e9;
+            itemsPerSecond = seconds > 0 ? run.finished.get() / seconds : 0;
+        } else if (job.getStartedAt() != null && job.getFinishedAt() != null) {
+            double seconds = Duration.between(job.getStartedAt(), job.getFinishedAt()).toMillis() / 1000.0;
+            itemsPerSecond = seconds > 0 ? (succeeded + failed) / seconds : 0;
+        }
+        response.setItemsPerSecond(Math.round(itemsPerSecond * 100) / 100.0);
+        if (itemsPerSecond > 0 && pending > 0 && job.getStatus() == BatchJobStatus.RUNNING) {
+            response.setEstimatedSecondsRemaining(Math.round(pending / itemsPerSecond));
+        }
+        return response;
+    }
+    
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+}
@@ -0,0 +1,331 @@
+package com.aibh.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Byte pair encoding compatible with the tiktoken encodings used by OpenAI models
+ * ({@code cl100k_base}, {@code o200k_base}), loaded from their {@code .tiktoken} rank files
+ * (one base64 token and its rank per line).
+ * <p>
+ * Text is split with the encoding's regex, each piece is UTF-8 encoded into a reused buffer and
+ * looked up whole; only pieces that are not a token themselves go through the merge loop, which
+ * merges the adjacent pair of lowest rank until none is left, exactly as tiktoken does. Ranks
+ * live in an open-addressing table keyed by byte ranges, so lookups never allocate. Special
+ * tokens are not recognized: text is encoded as ordinary text. Instances are immutable and safe
+ * to share between threads.
+ */
+public final class BpeEncoding {
+    
+    private static final String CL100K_PATTERN =
+        "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+    
+    private static final String O200K_PATTERN = String.join("|",
+        "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?",
+        "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?",
+        "\\p{N}{1,3}",
+        " ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*",
+        "\\s*[\\r\\n]+",
+        "\\s+(?!\\S)",
+        "\\s+");
+    
+    private static final int NO_RANK = Integer.MAX_VALUE;
+    
+    private final String name;
+    private final Pattern pattern;
+    private final RankTable ranks;
+    
+    private BpeEncoding(String name, Pattern pattern, RankTable ranks) {
+        this.name = name;
+        this.pattern = pattern;
+        this.ranks = ranks;
+    }
+    
+    /**
+     * Reads a {@code .tiktoken} rank file for the named encoding, which selects the split regex.
+     */
+    public static BpeEncoding load(String name, InputStream rankFile) throws IOException {
+        String regex = switch (name) {
+            case "cl100k_base" -> CL100K_PATTERN;
+            case "o200k_base" -> O200K_PATTERN;
+            default -> throw new IllegalArgumentException("Unsupported encoding: " + name);
+        };
+        RankTable ranks = new RankTable();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(rankFile, StandardCharsets.US_ASCII));
+        Base64.Decoder decoder = Base64.getDecoder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+                throw new IOException("Malformed rank line: " + line);
+            }
+            try {
+                ranks.put(decoder.decode(line.substring(0, space)), Integer.parseInt(line, space + 1, line.length(), 10));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed rank line: " + line, e);
+            }
+        }
+        for (int b = 0; b < 256; b++) {
+            if (ranks.get(new byte[] {(byte) b}, 0, 1) == NO_RANK) {
+                throw new IOException("Rank file lacks the single byte token " + b);
+            }
+        }
+        return new BpeEncoding(name, Pattern.compile(regex, Pattern.UNICODE_CHARACTER_CLASS), ranks);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int size() {
+        return ranks.size;
+    }
+    
+    public int count(CharSequence text) {
+        Encoder encoder = new Encoder(null);
+        encoder.run(text);
+        return encoder.count;
+    }
+    
+    public int[] encode(CharSequence text) {
+        Encoder encoder = new Encoder(new int[Math.max(16, text.length() / 3)]);
+        encoder.run(text);
+        return Arrays.copyOf(encoder.tokens, encoder.count);
+    }
+    
+    public String decode(int[] tokens) {
+        byte[] out = new byte[tokens.length * 4];
+        int length = 0;
+        for (int token : tokens) {
+            byte[] bytes = ranks.bytesOf(token);
+            if (length + bytes.length > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, length + bytes.length));
+            }
+            System.arraycopy(bytes, 0, out, length, bytes.length);
+            length += bytes.length;
+        }
+        return new String(out, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Scratch state of one encode or count call; buffers grow to the longest piece seen.
+     */
+    private final class Encoder {
+        
+        private byte[] piece = new byte[64];
+        private int[] positions = new int[65];
+        private int[] pairRanks = new int[65];
+        private int[] tokens;
+        private int count;
+        
+        Encoder(int[] tokens) {
+            this.tokens = tokens;
+        }
+        
+        void run(CharSequence text) {
+            Matcher matcher = pattern.matcher(text);
+            while (matcher.find()) {
+                int length = utf8(text, matcher.start(), matcher.end());
+                int rank = ranks.get(piece, 0, length);
+                if (rank != NO_RANK) {
+                    emit(rank);
+                } else {
+                    merge(length);
+                }
+            }
+        }
+        
+        private int utf8(CharSequence text, int start, int end) {
+            if (piece.length < (end - start) * 3) {
+                piece = new byte[(end - start) * 3];
+            }
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    piece[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    piece[length++] = (byte) (0xC0 | c >> 6);
+                    piece[length++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    piece[length++] = (byte) (0xF0 | cp >> 18);
+                    piece[length++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    piece[length++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    piece[length++] = (byte) (0x80 | cp & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate, encoded as String.getBytes would
+                    piece[length++] = '?';
+                } else {
+                    piece[length++] = (byte) (0xE0 | c >> 12);
+                    piece[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    piece[length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            return length;
+        }
+        
+        // tiktoken's byte pair merge: parts start at positions[0..parts), pairRanks[i] is the
+        // rank of parts i and i + 1 joined
+        private void merge(int length) {
+            if (positions.length < length + 1) {
+                positions = new int[length + 1];
+                pairRanks = new int[length + 1];
+            }
+            int parts = length + 1;
+            for (int i = 0; i < parts; i++) {
+                positions[i] = i;
+                pairRanks[i] = i + 2 <= length ? ranks.get(piece, i, 2) : NO_RANK;
+            }
+            while (true) {
+                int best = -1;
+                int bestRank = NO_RANK;
+                for (int i = 0; i < parts - 1; i++) {
+                    if (pairRanks[i] < bestRank) {
+                        bestRank = pairRanks[i];
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                if (best > 0) {
+                    pairRanks[best - 1] = rankOf(best - 1, parts);
+                }
+                pairRanks[best] = rankOf(best, parts);
+                System.arraycopy(positions, best + 2, positions, best + 1, parts - best - 2);
+                System.arraycopy(pairRanks, best + 2, pairRanks, best + 1, parts - best - 2);
+                parts--;
+            }
+            for (int i = 0; i < parts - 1; i++) {
+                emit(tokens != null ? ranks.get(piece, positions[i], positions[i + 1] - positions[i]) : 0);
+            }
+        }
+        
+        // Rank of parts i, i + 1 and i + 2 joined, before i + 1 is removed
+        private int rankOf(int i, int parts) {
+            return i + 3 < parts ? ranks.get(piece, positions[i], positions[i + 3] - positions[i]) : NO_RANK;
+        }
+        
+        private void emit(int rank) {
+            if (tokens != null) {
+                if (count == tokens.length) {
+                    tokens = Arrays.copyOf(tokens, count * 2);
+                }
+                tokens[count] = rank;
+            }
+            count++;
+        }
+    }
+    
+    /**
+     * Byte sequence to rank, open addressing with linear probing; all keys share one array.
+     */
+    private static final class RankTable {
+        
+        private byte[] keys = new byte[1 << 20];
+        private int keysLength;
+        private int[] offsets = new int[1 << 16];
+        private int[] lengths = new int[1 << 16];
+        private int[] rankOf = new int[1 << 16];
+        private int size;
+        // Entry index + 1 per slot, 0 when empty
+        private int[] slots = new int[1 << 17];
+        private byte[][] byRank = new byte[1 << 16][];
+        
+        void put(byte[] token, int rank) {
+            if (rank < 0) {
+                throw new IllegalArgumentException("Negative rank " + rank);
+            }
+            if ((size + 1) * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                rankOf = Arrays.copyOf(rankOf, size * 2);
+            }
+            if (keysLength + token.length > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + token.length));
+            }
+            System.arraycopy(token, 0, keys, keysLength, token.length);
+            offsets[size] = keysLength;
+            lengths[size] = token.length;
+            rankOf[size] = rank;
+            keysLength += token.length;
+        
+            int mask = slots.length - 1;
+            int slot = hash(token, 0, token.length) & mask;
+            while (slots[slot] != 0) {
+                int entry = slots[slot] - 1;
+                if (matches(entry, token, 0, token.length)) {
+                    throw new IllegalArgumentException("Duplicate token with ranks " + rankOf[entry] + " and " + rank);
+                }
+                slot = slot + 1 & mask;
+            }
+            slots[slot] = ++size;
+        
+            if (rank >= byRank.length) {
+                byRank = Arrays.copyOf(byRank, Math.max(byRank.length * 2, rank + 1));
+            }
+            byRank[rank] = token;
+        }
+        
+        int get(byte[] bytes, int offset, int length) {
+            int mask = slots.length - 1;
+            int slot = hash(bytes, offset, length) & mask;
+            while (slots[slot] != 0) {
+                int entry = slots[slot] - 1;
+                if (matches(entry, bytes, offset, length)) {
+                    return rankOf[entry];
+                }
+                slot = slot + 1 & mask;
+            }
+            return NO_RANK;
+        }
+        
+        byte[] bytesOf(int rank) {
+            byte[] bytes = rank >= 0 && rank < byRank.length ? byRank[rank] : null;
+            if (bytes == null) {
+                throw new IllegalArgumentException("Unknown token " + rank);
+            }
+            return bytes;
+        }
+        
+        private boolean matches(int entry, byte[] bytes, int offset, int length) {
+            return lengths[entry] == length
+                && Arrays.equals(keys, offsets[entry], offsets[entry] + length, bytes, offset, offset + length);
+        }
+        
+        private void rehash(int capacity) {
+            int[] grown = new int[capacity];
+            int mask = capacity - 1;
+            for (int entry = 0; entry < size; entry++) {
+                int slot = hash(keys, offsets[entry], lengths[entry]) & mask;
+                while (grown[slot] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                grown[slot] = entry + 1;
+            }
+            slots = grown;
+        }
+        
+        private static int hash(byte[] bytes, int offset, int length) {
+            int h = 0x811C9DC5;
+            for (int i = offset; i < offset + length; i++) {
+                h = (h ^ bytes[i]) * 0x01000193;
+            }
+            return h ^ h >>> 16;
+        }
+    }
+}
@@ -11,15 +11,21 @@ import com.aibh.repository.ChatMessageRepository;
 import com.aibh.repository.ConversationRepository;
 import com.aibh.repository.UserRepository;
 import com.aibh.security.UserPrincipal;
+import com.aibh.upstream.UpstreamPriority;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class ChatService {
@@ -41,7 +47,27 @@ public class ChatService {
     @Autowired
     private ChatMetrics chatMetrics;
     
-    @Transactional
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private TokenizerService tokenizerService;
+    
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+    
+    @Autowired
+    private SessionContextCache sessionContextCache;
+    
+    @Autowired
+    private ContextManagementService contextManagementService;
+    
+    /**
+     * Not transactional on purpose: each repository call runs in its own short transaction and
+     * the turn is persisted in {@link #saveChatMessage}, so no pooled JDBC connection is held
+     * while the upstream call is in flight. Once the session is cached, a turn makes no read
+     * queries, only the insert of the new message.
+     */
     public ChatResponse processChat(ChatRequest request, UserPrincipal userPrincipal) {
         String sessionId = request.getSessionId();
         if (sessionId == null || sessionId.isEmpty()) {
@@ -53,60 +79,39 @@ public class ChatService {
         var timerSample = chatMetrics.startTimer();
         
         try {
-            // Get user entity
             Objects.requireNonNull(userPrincipal, "User authentication required");
             Long userId = Objects.requireNonNull(userPrincipal.getId(), "User ID cannot be null");
-            User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("User not found"));
+            SessionContextCache.SessionContext session = openSession(sessionId, userId, request.getMessage());
             
-            // Get or create conversation
-            Conversation conversation = getOrCreateConversation(sessionId, user, request.getMessage());
+            // Upstream calls queue by the caller's tier when capacity is short
+            RateLimitingService.RateLimitType tier = RateLimitingService.typeOf(userPrincipal);
             
-            // Get conversation history for context
-            List<ChatMessage> conversationHistory = chatMessageRepository
-                .findRecentBySessionIdWithLimit(sessionId, 10);
+            // Get conversation history for context: the rolling summary, then the past turns most relevant to the message
+            List<ChatMessage> recentHistory = session.context();
+            List<ChatMessage> conversationHistory = UpstreamPriority.call(tier, () ->
+                contextManagementService.selectContext(request.getMessage(), session, recentHistory));
             
             long startTime = System.currentTimeMillis();
             
             // Generate AI response
             String aiResponse;
             if ("IMAGE".equals(request.getMessageType()) && request.getImageUrl() != null) {
-                aiResponse = aiService.generateImageResponse(
+                aiResponse = UpstreamPriority.call(tier, () -> aiService.generateImageResponse(
                     request.getMessage(), 
                     request.getImageUrl(), 
                     conversationHistory
-                );
+                ));
             } else {
-                aiResponse = aiService.generateResponse(request.getMessage(), conversationHistory);
+                aiResponse = UpstreamPriority.call(tier, () -> 
+                    aiService.generateResponse(request.getMessage(), conversationHistory));
             }
             
             long responseTime = System.currentTimeMillis() - startTime;
             
             // Save conversation to database
-            ChatMessage chatMessage = new ChatMessage(
-                conversation,
-                user,
-                request.getMessage(),
-                aiResponse,
-                request.getMessageType()
-            );
-            
-            if (request.getImageUrl() != null) {
-                chatMessage.setImageUrl(request.getImageUrl());
-            }
-            
-            chatMessage.setResponseTimeMs(responseTime);
-            // Estimate tokens used (rough calculation: 1 token ≈ 4 characters)
-            chatMessage.setTokensUsed(estimateTokens(request.getMessage() + aiResponse));
-            
-            chatMessageRepository.save(chatMessage);
-            
-            // Update conversation title if it's the first message
-            if (conversation.getMessages().isEmpty()) {
-                String title = generateConversationTitle(request.getMessage());
-                conversation.setTitle(title);
-                conversationRepository.save(conversation);
-            }
+            ChatMessage chatMessage = saveChatMessage(session, request, aiResponse, responseTime);
+            contextManagementService.remember(session, chatMessage);
+            conversationSummaryService.afterTurn(userId, sessionId, recentHistory, chatMessage);
             
             logger.info("Chat processed successfully for user: {} in {}ms", 
                        userPrincipal.getEmail(), responseTime);
@@ -138,6 +143,89 @@ public class ChatService {
         }
     }
     
+    /**
+     * Streaming counterpart of {@link #processChat(ChatRequest, UserPrincipal)}.
+     * Forwards each response delta to the emitter as a {@code delta} event, persists the
+     * assembled message once the upstream stream completes and finishes with a {@code done}
+     * event carrying the final {@link ChatResponse}. When the stream fails after deltas went
+     * out, it ends with an {@code error} event instead and nothing is persisted: the client
+     * already shows part of an answer, and neither it nor the history should take that part,
+     * or a different fallback answer, for the complete one.
+     */
+    public void processChatStream(ChatRequest request, UserPrincipal userPrincipal, SseEmitter emitter) {
+        String sessionId = request.getSessionId();
+        if (sessionId == null || sessionId.isEmpty()) {
+            sessionId = generateSessionId();
+        }
+        
+        chatMetrics.incrementChatRequests();
+        var timerSample = chatMetrics.startTimer();
+        long startNanos = System.nanoTime();
+        AtomicBoolean firstToken = new AtomicBoolean(true);
+        
+        try {
+            Objects.requireNonNull(userPrincipal, "User authentication required");
+            Long userId = Objects.requireNonNull(userPrincipal.getId(), "User ID cannot be null");
+            SessionContextCache.SessionContext session = openSession(sessionId, userId, request.getMessage());
+            
+            RateLimitingService.RateLimitType tier = RateLimitingService.typeOf(userPrincipal);
+            List<ChatMessage> recentHistory = session.context();
+            List<ChatMessage> conversationHistory = UpstreamPriority.call(tier, () ->
+                contextManagementService.selectContext(request.getMessage(), session, recentHistory));
+            
+            long startTime = System.currentTimeMillis();
+            
+            String aiResponse = UpstreamPriority.call(tier, () -> 
+                aiService.generateStreamingResponse(request.getMessage(), conversationHistory, delta -> {
+                    if (firstToken.compareAndSet(true, false)) {
+                        chatMetrics.recordTimeToFirstToken(System.nanoTime() - startNanos);
+                    }
+                    sendEvent(emitter, "delta", Map.of("content", delta));
+                }));
+            
+            long responseTime = System.currentTimeMillis() - startTime;
+            
+            ChatMessage chatMessage = saveChatMessage(session, request, aiResponse, responseTime);
+            contextManagementService.remember(session, chatMessage);
+            conversationSummaryService.afterTurn(userId, sessionId, recentHistory, chatMessage);
+            
+            logger.info("Streaming chat processed successfully for user: {} in {}ms", 
+                       userPrincipal.getEmail(), responseTime);
+            
+            chatMetrics.incrementSuccessfulRequests();
+            chatMetrics.recordResponseTime(timerSample);
+            if (chatMessage.getTokensUsed() != null) {
+                chatMetrics.recordTokensUsed(chatMessage.getTokensUsed());
+            }
+            
+            sendEvent(emitter, "done", new ChatResponse(aiResponse, sessionId));
+            emitter.complete();
+            
+        } catch (Exception e) {
+            logger.error("Streaming ChatService error for user: {}", userPrincipal != null ? userPrincipal.getEmail() : "unknown", e);
+            
+            chatMetrics.incrementErrorRequests();
+            chatMetrics.recordResponseTime(timerSample);
+            
+            if (!firstToken.get()) {
+                // Part of an answer is on the client already; only an error can end it
+                ChatResponse error = ChatResponse.error("The response was interrupted. Please try again.");
+                error.setSessionId(sessionId);
+                sendEvent(emitter, "error", error);
+                emitter.complete();
+                return;
+            }
+            try {
+                String fallbackResponse = aiService.generateIntelligentResponse(request.getMessage());
+                sendEvent(emitter, "done", new ChatResponse(fallbackResponse, sessionId));
+                emitter.complete();
+            } catch (Exception fallbackError) {
+                logger.error("Streaming fallback also failed for user: {}", userPrincipal != null ? userPrincipal.getEmail() : "unknown", fallbackError);
+                emitter.completeWithError(fallbackError);
+            }
+        }
+    }
+    
     // Backward compatibility method
     public ChatResponse processChat(ChatRequest request) {
         // For backward compatibility, create a temporary user principal
@@ -183,6 +271,8 @@ public class ChatService {
             if (conversation != null) {
                 conversation.setStatus(ConversationStatus.DELETED);
                 conversationRepository.save(conversation);
+                // The messages stay for the record, but the summary and cached session go
+                conversationSummaryService.forget(sessionId);
                 logger.info("Conversation {} marked as deleted for user: {}", 
                            sessionId, userPrincipal.getEmail());
                 return;
@@ -191,11 +281,28 @@ public class ChatService {
         
         // Fallback for backward compatibility
         chatMessageRepository.deleteBySessionId(sessionId);
+        conversationSummaryService.forget(sessionId);
     }
     
     // Backward compatibility method
     public void clearChatHistory(String sessionId) {
         chatMessageRepository.deleteBySessionId(sessionId);
+        conversationSummaryService.forget(sessionId);
+    }
+    
+    /**
+     * The cached session, or on a miss the user and conversation from the database, cached from
+     * then on until the session goes idle.
+     */
+    private SessionContextCache.SessionContext openSession(String sessionId, Long userId, String firstMessage) {
+        SessionContextCache.SessionContext session = sessionContextCache.get(sessionId, userId);
+        if (session != null) {
+            return session;
+        }
+        User user = userRepository.findById(userId)
+            .orElseThrow(() -> new RuntimeException("User not found"));
+        Conversation conversation = getOrCreateConversation(sessionId, user, firstMessage);
+        return sessionContextCache.load(conversation, userId);
     }
     
     private Conversation getOrCreateConversation(String sessionId, User user, String firstMessage) {
@@ -210,6 +317,59 @@ public class ChatService {
             });
     }
     
+    private ChatMessage saveChatMessage(SessionContextCache.SessionContext session, ChatRequest request,
+                                        String aiResponse, long responseTime) {
+        ChatMessage chatMessage = transactionTemplate.execute(status -> persistChatMessage(session, request, aiResponse, responseTime));
+        sessionContextCache.append(session, chatMessage);
+        return chatMessage;
+    }
+    
+    private ChatMessage persistChatMessage(SessionContextCache.SessionContext session, ChatRequest request,
+                                           String aiResponse, long responseTime) {
+        // Checked before saving: the turn being saved is the conversation's first message
+        boolean firstMessage = session.isEmpty();
+        
+        // References by id, so saving the turn reads neither the conversation nor the user
+        Conversation conversation = conversationRepository.getReferenceById(session.getConversationId());
+        ChatMessage chatMessage = new ChatMessage(
+            session.getSessionId(),
+            request.getMessage(),
+            aiResponse,
+            request.getMessageType()
+        );
+        chatMessage.setConversation(conversation);
+        chatMessage.setUser(userRepository.getReferenceById(session.getUserId()));
+        
+        // Uploaded images arrive as data URLs, far larger than the column; only links are kept
+        if (request.getImageUrl() != null && request.getImageUrl().length() <= 500
+                && !request.getImageUrl().regionMatches(true, 0, "data:", 0, 5)) {
+            chatMessage.setImageUrl(request.getImageUrl());
+        }
+        
+        chatMessage.setResponseTimeMs(responseTime);
+        chatMessage.setTokensUsed(tokenizerService.countTokens(request.getMessage()) + tokenizerService.countTokens(aiResponse));
+        
+        chatMessageRepository.save(chatMessage);
+        
+        // Update conversation title if it's the first message
+        if (firstMessage) {
+            String title = generateConversationTitle(request.getMessage());
+            conversation.setTitle(title);
+            conversationRepository.save(conversation);
+        }
+        
+        return chatMessage;
+    }
+    
+    private void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; keep assembling so the turn is still persisted
+            logger.debug("Could not deliver '{}' event: {}", name, e.getMessage());
+        }
+    }
+    
     private String generateSessionId() {
         return "session_" + System.currentTimeMillis() + "_" + UUID.randomUUID().toString().substring(0, 8);
     }
@@ -226,9 +386,4 @@ public class ChatService {
         
         return title;
     }
-    
-    private int estimateTokens(String text) {
-        // Rough estimation: 1 token ≈ 4 characters
-        return text != null ? text.length() / 4 : 0;
-    }
 }
\ No newline at end of file
@@ -1,17 +1,167 @@
 package com.aibh.service;
 
 import com.aibh.model.ChatMessage;
+import com.aibh.model.ConversationEmbedding;
+import com.aibh.repository.ChatMessageRepository;
+import com.aibh.repository.ConversationEmbeddingRepository;
+import com.aibh.service.RateLimitingService.RateLimitType;
+import com.aibh.upstream.UpstreamPriority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 
 @Service
 public class ContextManagementService {
     
+    private static final Logger logger = LoggerFactory.getLogger(ContextManagementService.class);
+    
     private static final int MAX_CONTEXT_MESSAGES = 10;
     private static final int MAX_CONTEXT_TOKENS = 3000;
     
+    private final TokenizerService tokenizerService;
+    private final EmbeddingService embeddingService;
+    private final ChatMessageRepository chatMessageRepository;
+    private final ConversationEmbeddingRepository conversationEmbeddingRepository;
+    private final SessionContextCache sessionContextCache;
+    private final AsyncTaskExecutor contextEmbeddingExecutor;
+    private final Counter recencySelections;
+    private final Counter unavailableSelections;
+    private final Counter relevanceSelections;
+    private final Counter rejectedEmbeddings;
+    private final boolean relevanceEnabled;
+    private final ContextSelector.Options selection;
+    
+    public ContextManagementService(TokenizerService tokenizerService, EmbeddingService embeddingService,
+                                    ChatMessageRepository chatMessageRepository,
+                                    ConversationEmbeddingRepository conversationEmbeddingRepository,
+                                    SessionContextCache sessionContextCache, AsyncTaskExecutor contextEmbeddingExecutor,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${aibh.context.relevance.enabled:true}") boolean relevanceEnabled,
+                                    @Value("${aibh.context.relevance.always-recent-turns:2}") int alwaysRecentTurns,
+                                    @Value("${aibh.context.relevance.similarity-weight:0.7}") double similarityWeight,
+                                    @Value("${aibh.context.relevance.recency-half-life:4}") double recencyHalfLife,
+                                    @Value("${aibh.context.relevance.min-score:0.2}") double minScore) {
+        this.tokenizerService = tokenizerService;
+        this.embeddingService = embeddingService;
+        this.chatMessageRepository = chatMessageRepository;
+        this.conversationEmbeddingRepository = conversationEmbeddingRepository;
+        this.sessionContextCache = sessionContextCache;
+        this.contextEmbeddingExecutor = contextEmbeddingExecutor;
+        this.recencySelections = outcomeCounter(meterRegistry, "recency");
+        this.unavailableSelections = outcomeCounter(meterRegistry, "unavailable");
+        this.relevanceSelections = outcomeCounter(meterRegistry, "relevance");
+        this.rejectedEmbeddings = outcomeCounter(meterRegistry, "embedding_rejected");
+        this.relevanceEnabled = relevanceEnabled;
+        this.selection = new ContextSelector.Options(Math.max(0, alwaysRecentTurns), similarityWeight,
+            recencyHalfLife, minScore, MAX_CONTEXT_MESSAGES);
+    }
+    
+    /**
+     * Chooses the history to answer {@code userMessage} from. Past turns of the session, the
+     * summarized ones included, are ranked by their similarity to this message, blended with
+     * recency, and the best that fit the token budget are sent; the newest few
+     * always are. Falls back to {@code recent}, the session's summary and the turns after it,
+     * when relevance is disabled, there is nothing to choose between or no embedding model is
+     * configured.
+     */
+    public List<ChatMessage> selectContext(String userMessage, SessionContextCache.SessionContext session,
+                                           List<ChatMessage> recent) {
+        if (!relevanceEnabled) {
+            return recent;
+        }
+        List<ContextSelector.Candidate> candidates = session.candidates(tokenizerService::countTurnTokens);
+        if (candidates.size() <= selection.alwaysRecent()) {
+            // All of them are sent anyway; no need to embed the message
+            recencySelections.increment();
+            return recent;
+        }
+        float[] query = ContextSelector.normalize(embeddingService.generateModelEmbedding(userMessage));
+        if (query == null) {
+            unavailableSelections.increment();
+            return recent;
+        }
+        
+        ChatMessage summary = !recent.isEmpty() && recent.get(0).isSummary() ? recent.get(0) : null;
+        int budget = MAX_CONTEXT_TOKENS;
+        if (summary != null) {
+            budget -= tokenizerService.countTokens(summary.getAiResponse()) + TokenizerService.TOKENS_PER_MESSAGE;
+        }
+        List<ContextSelector.Candidate> selected = ContextSelector.select(query, candidates, selection, budget);
+        
+        // Turns that have left the session's ring are read back, in one query
+        Map<Long, ChatMessage> turns = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (ContextSelector.Candidate candidate : selected) {
+            ChatMessage turn = session.turn(candidate.id());
+            if (turn != null) {
+                turns.put(candidate.id(), turn);
+            } else {
+                missing.add(candidate.id());
+            }
+        }
+        if (!missing.isEmpty()) {
+            chatMessageRepository.findAllById(missing).forEach(turn -> turns.put(turn.getId(), turn));
+        }
+        
+        List<ChatMessage> context = new ArrayList<>(selected.size() + 1);
+        if (summary != null) {
+            context.add(summary);
+        }
+        for (ContextSelector.Candidate candidate : selected) {
+            ChatMessage turn = turns.get(candidate.id());
+            if (turn != null) {
+                context.add(turn);
+            }
+        }
+        relevanceSelections.increment();
+        return context;
+    }
+    
+    /**
+     * Embeds a saved turn, its message together with its answer, and stores the embedding in
+     * {@code conversation_embeddings} and the session. Runs in the background at the lowest
+     * upstream priority; a turn that could not be embedded competes on recency alone.
+     */
+    public void remember(SessionContextCache.SessionContext session, ChatMessage saved) {
+        if (!relevanceEnabled) {
+            return;
+        }
+        int tokens = tokenizerService.countTurnTokens(saved);
+        String text = ContextSelector.turnText(saved.getUserMessage(), saved.getAiResponse());
+        try {
+            contextEmbeddingExecutor.execute(() -> {
+                try {
+                    float[] vector = ContextSelector.normalize(UpstreamPriority.call(
+                        RateLimitType.ANONYMOUS, () -> embeddingService.generateModelEmbedding(text)));
+                    if (vector == null) {
+                        return;
+                    }
+                    conversationEmbeddingRepository.save(new ConversationEmbedding(session.getConversationId(),
+                        session.getUserId(), saved.getId(), text, vector, tokens));
+                    sessionContextCache.embedded(session, saved.getId(), tokens, vector);
+                } catch (Exception e) {
+                    logger.warn("Could not store the embedding of message {}: {}", saved.getId(), e.getMessage());
+                }
+            });
+        } catch (TaskRejectedException e) {
+            rejectedEmbeddings.increment();
+        }
+    }
+    
+    /**
+     * Keeps the most recent turns that fit the token budget, in order. A rolling summary of
+     * older turns leads the history when there is one and is always kept.
+     */
     public List<ChatMessage> optimizeContext(List<ChatMessage> conversationHistory) {
         if (conversationHistory == null || conversationHistory.isEmpty()) {
             return new ArrayList<>();
@@ -22,10 +172,17 @@ public class ContextManagementService {
         int tokenCount = 0;
         int messageCount = 0;
         
+        ChatMessage summary = conversationHistory.get(0).isSummary() ? conversationHistory.get(0) : null;
+        int oldest = 0;
+        if (summary != null) {
+            tokenCount += tokenizerService.countTokens(summary.getAiResponse()) + TokenizerService.TOKENS_PER_MESSAGE;
+            oldest = 1;
+        }
+        
         // Start from the most recent messages
-        for (int i = conversationHistory.size() - 1; i >= 0 && messageCount < MAX_CONTEXT_MESSAGES; i--) {
+        for (int i = conversationHistory.size() - 1; i >= oldest && messageCount < MAX_CONTEXT_MESSAGES; i--) {
             ChatMessage message = conversationHistory.get(i);
-            int messageTokens = estimateTokens(message.getUserMessage()) + estimateTokens(message.getAiResponse());
+            int messageTokens = tokenizerService.countTurnTokens(message);
             
             if (tokenCount + messageTokens > MAX_CONTEXT_TOKENS) {
                 break;
@@ -36,6 +193,9 @@ public class ContextManagementService {
             messageCount++;
         }
         
+        if (summary != null) {
+            optimizedContext.add(0, summary);
+        }
         return optimizedContext;
     }
     
@@ -43,40 +203,10 @@ public class ContextManagementService {
         return conversationHistory != null && !conversationHistory.isEmpty();
     }
     
-    public String summarizeContext(List<ChatMessage> conversationHistory) {
-        if (conversationHistory == null || conversationHistory.isEmpty()) {
-            return "";
-        }
-        
-        StringBuilder summary = new StringBuilder();
-        summary.append("Previous conversation context:\n");
-        
-        for (ChatMessage message : conversationHistory) {
-            if (message.getUserMessage() != null && !message.getUserMessage().trim().isEmpty()) {
-                summary.append("user: ")
-                       .append(truncateMessage(message.getUserMessage(), 100))
-                       .append("\n");
-            }
-            if (message.getAiResponse() != null && !message.getAiResponse().trim().isEmpty()) {
-                summary.append("assistant: ")
-                       .append(truncateMessage(message.getAiResponse(), 100))
-                       .append("\n");
-            }
-        }
-        
-        return summary.toString();
-    }
-    
-    private int estimateTokens(String text) {
-        if (text == null) return 0;
-        // Rough estimation: 1 token ≈ 4 characters
-        return text.length() / 4;
-    }
-    
-    private String truncateMessage(String message, int maxLength) {
-        if (message.length() <= maxLength) {
-            return message;
-        }
-        return message.substring(0, maxLength) + "...";
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("context_selections_total")
+            .tag("outcome", outcome)
+            .description("Context selections and embedding writes, by outcome")
+            .register(meterRegistry);
     }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.aibh.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the past turns to send with a new message. The newest few are always kept; older ones
+ * compete on a score blending their similarity to the message with a recency decay, and the
+ * best are packed into the token budget. Without a message embedding every turn scores on
+ * recency alone.
+ * <p>
+ * Embeddings are unit length and held quantized to one signed byte per dimension, a quarter of
+ * the memory of floats for a similarity error well below what the ranking can notice.
+ */
+final class ContextSelector {
+    
+    private static final float QUANTUM = 127f;
+    
+    // Enough of a turn to place its topic; embedding inputs are billed by the token
+    private static final int MAX_TURN_TEXT = 4000;
+    
+    /**
+     * A past turn: its id, its age in turns (0 for the newest), its prompt tokens and its
+     * quantized embedding, or null when it has none.
+     */
+    record Candidate(long id, int age, int tokens, byte[] embedding) {}
+    
+    /**
+     * @param alwaysRecent     newest turns kept whatever their score, as long as they fit
+     * @param similarityWeight share of the score given to similarity, the rest to recency
+     * @param recencyHalfLife  age in turns at which the recency term has halved
+     * @param minScore         score below which an older turn is not sent at all
+     * @param maxTurns         most turns selected, the recent ones included
+     */
+    record Options(int alwaysRecent, double similarityWeight, double recencyHalfLife, double minScore, int maxTurns) {
+        
+        /**
+         * Newest first until the budget or {@code maxTurns} is reached, as the context was
+         * chosen before relevance was taken into account.
+         */
+        static Options recency(int maxTurns) {
+            return new Options(maxTurns, 0, 1, 0, maxTurns);
+        }
+    }
+    
+    private ContextSelector() {}
+    
+    /**
+     * Selects from {@code candidates} within {@code budgetTokens}; the result is oldest first.
+     */
+    static List<Candidate> select(float[] query, List<Candidate> candidates, Options options, int budgetTokens) {
+        List<Candidate> byAge = new ArrayList<>(candidates);
+        byAge.sort(Comparator.comparingInt(Candidate::age));
+        
+        List<Candidate> selected = new ArrayList<>();
+        int tokens = 0;
+        int recent = Math.min(options.alwaysRecent(), byAge.size());
+        for (int i = 0; i < recent && selected.size() < options.maxTurns(); i++) {
+            Candidate candidate = byAge.get(i);
+            if (tokens + candidate.tokens() > budgetTokens) {
+                // Like the recency window: nothing older than a turn that did not fit
+                recent = byAge.size();
+                break;
+            }
+            selected.add(candidate);
+            tokens += candidate.tokens();
+        }
+        
+        List<Candidate> older = byAge.subList(recent, byAge.size());
+        double[] scores = new double[older.size()];
+        List<Integer> ranked = new ArrayList<>(older.size());
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score(query, older.get(i), options);
+            if (scores[i] >= options.minScore()) {
+                ranked.add(i);
+            }
+        }
+        ranked.sort((a, b) -> Double.compare(scores[b], scores[a]));
+        for (int i : ranked) {
+            if (selected.size() >= options.maxTurns()) {
+                break;
+            }
+            Candidate candidate = older.get(i);
+            // Greedy by score; a long turn that does not fit leaves room for shorter ones
+            if (tokens + candidate.tokens() <= budgetTokens) {
+                selected.add(candidate);
+                tokens += candidate.tokens();
+            }
+        }
+        
+        selected.sort(Comparator.comparingLong(Candidate::id));
+        return selected;
+    }
+    
+    static double score(float[] query, Candidate candidate, Options options) {
+        double recency = Math.pow(0.5, candidate.age() / options.recencyHalfLife());
+        double similarity = query != null && candidate.embedding() != null ? similarity(query, candidate.embedding()) : 0;
+        return options.similarityWeight() * similarity + (1 - options.similarityWeight()) * recency;
+    }
+    
+    /**
+     * Cosine similarity of a unit-length query and a quantized unit-length embedding.
+     */
+    static double similarity(float[] query, byte[] embedding) {
+        if (query.length != embedding.length) {
+            return 0;
+        }
+        float dot = 0;
+        for (int i = 0; i < query.length; i++) {
+            dot += query[i] * embedding[i];
+        }
+        return dot / QUANTUM;
+    }
+    
+    /**
+     * Scales {@code embedding} to unit length in place; null for a zero or missing vector.
+     */
+    static float[] normalize(float[] embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        double norm = 0;
+        for (float value : embedding) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] *= scale;
+        }
+        return embedding;
+    }
+    
+    /**
+     * The text a saved turn is embedded from: the message and the start of its answer, which
+     * names the topic more reliably than a short follow-up question does.
+     */
+    static String turnText(String userMessage, String aiResponse) {
+        String text = aiResponse != null ? userMessage + "\n\n" + aiResponse : userMessage;
+        return text.length() > MAX_TURN_TEXT ? text.substring(0, MAX_TURN_TEXT) : text;
+    }
+    
+    static byte[] quantize(float[] unit) {
+        byte[] quantized = new byte[unit.length];
+        for (int i = 0; i < unit.length; i++) {
+            quantized[i] = (byte) Math.round(Math.max(-1f, Math.min(1f, unit[i])) * QUANTUM);
+        }
+        return quantized;
+    }
+}
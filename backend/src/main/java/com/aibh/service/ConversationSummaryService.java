@@ -0,0 +1,176 @@
+package com.aibh.service;
+
+import com.aibh.model.ChatMessage;
+import com.aibh.model.MemoryContext;
+import com.aibh.repository.ChatMessageRepository;
+import com.aibh.repository.MemoryContextRepository;
+import com.aibh.repository.UserRepository;
+import com.aibh.service.RateLimitingService.RateLimitType;
+import com.aibh.upstream.UpstreamPriority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rolling summaries of long conversations, kept in {@code memory_contexts}. Once a session's
+ * unsummarized turns exceed the token trigger or fill the history window, the older ones are
+ * folded into the summary in the background and only the most recent turns stay verbatim.
+ * Prompts then carry the summary followed by those turns, so their size stays bounded however
+ * long the conversation runs.
+ * <p>
+ * Folds run one at a time per session, at the lowest upstream priority. Until a fold has
+ * finished, or when it fails, prompts simply carry more raw turns, as they did before.
+ */
+@Service
+public class ConversationSummaryService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummaryService.class);
+    
+    private final ChatMessageRepository chatMessageRepository;
+    private final MemoryContextRepository memoryContextRepository;
+    private final UserRepository userRepository;
+    private final SessionContextCache sessionContextCache;
+    private final AiService aiService;
+    private final TokenizerService tokenizerService;
+    private final AsyncTaskExecutor summaryExecutor;
+    private final boolean enabled;
+    private final int historyTurns;
+    private final int triggerTokens;
+    private final int keepRecentTurns;
+    private final int maxFoldTokens;
+    private final Set<String> folding = ConcurrentHashMap.newKeySet();
+    private final Counter foldedSummaries;
+    private final Counter failedSummaries;
+    private final Counter rejectedSummaries;
+    private final Counter unavailableSummaries;
+    private final Counter foldedTurns;
+    
+    public ConversationSummaryService(ChatMessageRepository chatMessageRepository,
+                                      MemoryContextRepository memoryContextRepository,
+                                      UserRepository userRepository, SessionContextCache sessionContextCache,
+                                      AiService aiService, TokenizerService tokenizerService,
+                                      AsyncTaskExecutor summaryExecutor, MeterRegistry meterRegistry,
+                                      @Value("${aibh.summary.enabled:true}") boolean enabled,
+                                      @Value("${aibh.summary.history-turns:10}") int historyTurns,
+                                      @Value("${aibh.summary.trigger-tokens:1500}") int triggerTokens,
+                                      @Value("${aibh.summary.keep-recent-turns:4}") int keepRecentTurns,
+                                      @Value("${aibh.summary.max-fold-tokens:6000}") int maxFoldTokens) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.memoryContextRepository = memoryContextRepository;
+        this.userRepository = userRepository;
+        this.sessionContextCache = sessionContextCache;
+        this.aiService = aiService;
+        this.tokenizerService = tokenizerService;
+        this.summaryExecutor = summaryExecutor;
+        this.enabled = enabled;
+        this.historyTurns = historyTurns;
+        this.triggerTokens = triggerTokens;
+        this.keepRecentTurns = Math.max(0, Math.min(keepRecentTurns, historyTurns - 1));
+        this.maxFoldTokens = maxFoldTokens;
+        this.foldedSummaries = outcomeCounter(meterRegistry, "folded");
+        this.failedSummaries = outcomeCounter(meterRegistry, "failed");
+        this.rejectedSummaries = outcomeCounter(meterRegistry, "rejected");
+        this.unavailableSummaries = outcomeCounter(meterRegistry, "unavailable");
+        this.foldedTurns = Counter.builder("conversation_summary_turns_folded_total")
+            .description("Chat turns folded into rolling conversation summaries")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Called once a turn has been saved, with the history it was answered from. Schedules a fold
+     * when the raw turns, the new one included, exceed the token trigger or fill the window.
+     */
+    public void afterTurn(Long userId, String sessionId, List<ChatMessage> context, ChatMessage saved) {
+        if (!enabled) {
+            return;
+        }
+        int rawTurns = 1;
+        long rawTokens = tokenizerService.countTurnTokens(saved);
+        for (ChatMessage message : context) {
+            if (!message.isSummary()) {
+                rawTurns++;
+                rawTokens += tokenizerService.countTurnTokens(message);
+            }
+        }
+        if (rawTurns <= keepRecentTurns || (rawTokens <= triggerTokens && rawTurns < historyTurns)) {
+            return;
+        }
+        if (!folding.add(sessionId)) {
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    fold(userId, sessionId);
+                } catch (Exception e) {
+                    failedSummaries.increment();
+                    logger.warn("Could not update the summary of session {}: {}", sessionId, e.getMessage());
+                } finally {
+                    folding.remove(sessionId);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            // Busy; the next turn of the session tries again
+            folding.remove(sessionId);
+            rejectedSummaries.increment();
+        }
+    }
+    
+    @Transactional
+    public void forget(String sessionId) {
+        memoryContextRepository.deleteBySessionId(sessionId);
+        sessionContextCache.invalidate(sessionId);
+    }
+    
+    private void fold(Long userId, String sessionId) {
+        MemoryContext memory = memoryContextRepository.findBySessionId(sessionId)
+            .orElseGet(() -> new MemoryContext(userRepository.getReferenceById(userId), sessionId));
+        long summarizedThrough = memory.getSummarizedMessageId() != null ? memory.getSummarizedMessageId() : 0;
+        List<ChatMessage> pending = chatMessageRepository.findBySessionIdAndIdGreaterThanOrderByIdAsc(sessionId, summarizedThrough);
+        
+        int end = pending.size() - keepRecentTurns;
+        int start = 0;
+        while (start < end) {
+            // Each call folds what fits the input bound; a long backlog takes several
+            int stop = start;
+            long tokens = 0;
+            while (stop < end && (stop == start || tokens + tokenizerService.countTurnTokens(pending.get(stop)) <= maxFoldTokens)) {
+                tokens += tokenizerService.countTurnTokens(pending.get(stop++));
+            }
+            List<ChatMessage> turns = pending.subList(start, stop);
+            String previous = memory.getContextSummary();
+            String summary = UpstreamPriority.call(RateLimitType.ANONYMOUS, () -> aiService.summarize(previous, turns));
+            if (summary == null) {
+                unavailableSummaries.increment();
+                return;
+            }
+        
+            memory.setContextSummary(summary);
+            memory.setSummarizedMessageId(pending.get(stop - 1).getId());
+            memory.setSummaryTokens(tokenizerService.countTokens(summary));
+            memory = memoryContextRepository.save(memory);
+            sessionContextCache.summarized(sessionId, summary, memory.getSummarizedMessageId());
+            foldedSummaries.increment();
+            foldedTurns.increment(turns.size());
+            logger.debug("Folded {} turns of session {} into a {} token summary", turns.size(), sessionId, memory.getSummaryTokens());
+            start = stop;
+        }
+    }
+    
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("conversation_summaries_total")
+            .tag("outcome", outcome)
+            .description("Rolling summary updates, by outcome")
+            .register(meterRegistry);
+    }
+}
@@ -1,16 +1,22 @@
 package com.aibh.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.aibh.service.TextClassifier.Group;
+import com.aibh.upstream.LlmProvider;
+import com.aibh.upstream.UpstreamInvoker;
+import com.aibh.upstream.UpstreamLoadBalancer;
+import com.aibh.upstream.UpstreamQuotaPacer;
+import com.aibh.upstream.UpstreamRequestBody;
+import com.aibh.upstream.UpstreamRequestWriter;
+import com.aibh.upstream.UpstreamResponseReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.List;
-import java.util.Map;
 
 /**
  * Enterprise Embedding Service for AI Memory System
@@ -21,21 +27,30 @@ public class EmbeddingService {
     
     private static final Logger logger = LoggerFactory.getLogger(EmbeddingService.class);
     
-    @Value("${openai.api.key:}")
-    private String openaiApiKey;
-    
-    @Value("${openai.embedding.url:https://api.openai.com/v1/embeddings}")
-    private String embeddingUrl;
-    
     @Value("${openai.embedding.model:text-embedding-3-small}")
     private String embeddingModel;
     
     private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper;
+    private final UpstreamInvoker upstreamInvoker;
+    private final UpstreamRequestWriter requestWriter;
+    private final UpstreamResponseReader responseReader;
+    private final UpstreamLoadBalancer upstreamLoadBalancer;
+    private final UpstreamQuotaPacer quotaPacer;
+    private final TextClassifier textClassifier;
+    private final TokenizerService tokenizerService;
     
-    public EmbeddingService(RestTemplate restTemplate, ObjectMapper objectMapper) {
-        this.restTemplate = restTemplate;
-        this.objectMapper = objectMapper;
+    public EmbeddingService(RestTemplate upstreamRestTemplate, UpstreamInvoker upstreamInvoker,
+                            UpstreamRequestWriter requestWriter, UpstreamResponseReader responseReader,
+                            UpstreamLoadBalancer upstreamLoadBalancer, UpstreamQuotaPacer quotaPacer,
+                            TextClassifier textClassifier, TokenizerService tokenizerService) {
+        this.restTemplate = upstreamRestTemplate;
+        this.upstreamInvoker = upstreamInvoker;
+        this.requestWriter = requestWriter;
+        this.responseReader = responseReader;
+        this.upstreamLoadBalancer = upstreamLoadBalancer;
+        this.quotaPacer = quotaPacer;
+        this.textClassifier = textClassifier;
+        this.tokenizerService = tokenizerService;
     }
     
     /**
@@ -48,10 +63,10 @@ public class EmbeddingService {
         }
         
         try {
-            if (openaiApiKey != null && !openaiApiKey.isEmpty()) {
+            if (upstreamLoadBalancer.isAvailable(LlmProvider.Capability.EMBEDDINGS)) {
                 return generateOpenAIEmbedding(text);
             } else {
-                logger.warn("OpenAI API key not configured, using fallback embeddings");
+                logger.warn("No embedding provider configured, using fallback embeddings");
                 return generateFallbackEmbedding(text);
             }
         } catch (Exception e) {
@@ -60,37 +75,53 @@ public class EmbeddingService {
         }
     }
     
+    /**
+     * Generate an embedding from the OpenAI model only, without the local fallback.
+     * Returns null when the API is not configured or the call fails, for callers that
+     * compare embeddings and cannot tolerate the coarse fallback vectors.
+     */
+    public float[] generateModelEmbedding(String text) {
+        if (text == null || text.trim().isEmpty() || !upstreamLoadBalancer.isAvailable(LlmProvider.Capability.EMBEDDINGS)) {
+            return null;
+        }
+        try {
+            return generateOpenAIEmbedding(text);
+        } catch (Exception e) {
+            logger.warn("Model embedding unavailable: {}", e.getMessage());
+            return null;
+        }
+    }
+    
     /**
      * Generate embeddings using OpenAI API
      */
-    private float[] generateOpenAIEmbedding(String text) throws Exception {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(openaiApiKey);
-        
-        Map<String, Object> requestBody = Map.of(
-            "input", text,
-            "model", embeddingModel
-        );
-        
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-        
-        ResponseEntity<String> response = restTemplate.postForEntity(embeddingUrl, request, String.class);
-        
-        if (response.getStatusCode() == HttpStatus.OK) {
-            JsonNode jsonResponse = objectMapper.readTree(response.getBody());
-            JsonNode embeddingArray = jsonResponse.path("data").get(0).path("embedding");
-            
-            float[] embedding = new float[embeddingArray.size()];
-            for (int i = 0; i < embeddingArray.size(); i++) {
-                embedding[i] = (float) embeddingArray.get(i).asDouble();
+    private float[] generateOpenAIEmbedding(String text) {
+        UpstreamRequestBody requestBody = requestWriter.embedding(embeddingModel, text);
+        
+        float[] embedding = upstreamLoadBalancer.execute(embeddingModel, LlmProvider.Capability.EMBEDDINGS, provider -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            if (StringUtils.hasText(provider.getApiKey())) {
+                headers.setBearerAuth(provider.getApiKey());
             }
+            HttpEntity<UpstreamRequestBody> request = new HttpEntity<>(requestBody, headers);
             
-            logger.debug("Generated OpenAI embedding with {} dimensions", embedding.length);
-            return embedding;
-        } else {
-            throw new RuntimeException("OpenAI API returned status: " + response.getStatusCode());
-        }
+            UpstreamQuotaPacer.Reservation reservation = quotaPacer.reserve(provider, embeddingModel, tokenizerService.countTokens(text) + 1);
+            return upstreamInvoker.execute(embeddingModel, provider.getEmbeddingUrl(), () -> reservation.attempt(() ->
+                restTemplate.execute(
+                    provider.getEmbeddingUrl(),
+                    HttpMethod.POST,
+                    restTemplate.httpEntityCallback(request),
+                    response -> {
+                        reservation.observe(response.getHeaders());
+                        return responseReader.readEmbedding(response.getBody());
+                    }
+                )
+            ));
+        });
+        
+        logger.debug("Generated OpenAI embedding with {} dimensions", embedding.length);
+        return embedding;
     }
     
     /**
@@ -100,22 +131,20 @@ public class EmbeddingService {
     private float[] generateFallbackEmbedding(String text) {
         float[] embedding = new float[1536];
         
-        // Normalize text
-        String normalizedText = text.toLowerCase().trim();
-        
-        // Feature extraction
-        int textLength = normalizedText.length();
-        int wordCount = normalizedText.split("\\s+").length;
-        int uniqueChars = (int) normalizedText.chars().distinct().count();
+        // Normalization and feature extraction in one pass
+        TextClassifier.Features features = textClassifier.classify(text);
+        int textLength = features.length();
+        int wordCount = features.wordCount();
+        int uniqueChars = features.uniqueChars();
         
         // Programming language detection
-        boolean hasJava = normalizedText.contains("java") || normalizedText.contains("spring");
-        boolean hasPython = normalizedText.contains("python") || normalizedText.contains("django");
-        boolean hasJavaScript = normalizedText.contains("javascript") || normalizedText.contains("react");
+        boolean hasJava = features.hasAny(Group.JAVA, Group.SPRING);
+        boolean hasPython = features.hasAny(Group.PYTHON, Group.DJANGO);
+        boolean hasJavaScript = features.hasAny(Group.JAVASCRIPT, Group.REACT);
         
         // Topic detection
-        boolean isTechnical = normalizedText.matches(".*\\b(code|function|class|method|api|database)\\b.*");
-        boolean isQuestion = normalizedText.contains("?") || normalizedText.startsWith("how") || normalizedText.startsWith("what");
+        boolean isTechnical = features.has(Group.TECHNICAL);
+        boolean isQuestion = features.has(Group.QUESTION_MARK) || features.hasAny(Group.HOW_PREFIX, Group.WHAT_PREFIX);
         
         // Fill embedding vector with features
         embedding[0] = Math.min(textLength / 1000.0f, 1.0f); // Text length feature
@@ -132,7 +161,7 @@ public class EmbeddingService {
         embedding[21] = isQuestion ? 1.0f : 0.0f;
         
         // Hash-based features for semantic similarity
-        int hash = normalizedText.hashCode();
+        int hash = features.hash();
         for (int i = 50; i < 100; i++) {
             embedding[i] = ((hash >> (i - 50)) & 1) == 1 ? 0.1f : -0.1f;
         }
@@ -0,0 +1,464 @@
+package com.aibh.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares images for the vision model. The image is fetched once (or decoded from a
+ * {@code data:} URL), downscaled to the largest size the model actually looks at, and kept as a
+ * compact data URL keyed by the SHA-256 of its original bytes, so the same screenshot sent again,
+ * by URL or by upload, costs neither a download nor a resize. When the image cannot be fetched
+ * or decoded the original URL is passed through and the upstream fetches it itself.
+ * <p>
+ * Only public hosts are fetched unless {@code aibh.image.allow-private-hosts} is set, so a
+ * client cannot use the backend to reach internal addresses. The request goes to the addresses
+ * that were checked, not to a second lookup of the host name.
+ */
+@Service
+public class ImagePipelineService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ImagePipelineService.class);
+    
+    private static final int MAX_REDIRECTS = 3;
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    
+    /**
+     * The image URL to send upstream and, when the image was read, the hash of its content.
+     */
+    public record PreparedImage(String url, String contentHash) {}
+    
+    private record Processed(String dataUrl, long originalBytes, long imageBytes) {}
+    
+    @Value("${aibh.image.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${aibh.image.max-long-side:2048}")
+    private int maxLongSide;
+    
+    @Value("${aibh.image.max-short-side:768}")
+    private int maxShortSide;
+    
+    @Value("${aibh.image.max-pixels:50000000}")
+    private long maxPixels;
+    
+    @Value("${aibh.image.jpeg-quality:0.85}")
+    private float jpegQuality;
+    
+    @Value("${aibh.image.max-download-bytes:20971520}")
+    private long maxDownloadBytes;
+    
+    @Value("${aibh.image.fetch.timeout-ms:5000}")
+    private long fetchTimeoutMs;
+    
+    @Value("${aibh.image.fetch.max-attempts:2}")
+    private int fetchMaxAttempts;
+    
+    @Value("${aibh.image.allow-private-hosts:false}")
+    private boolean allowPrivateHosts;
+    
+    private final Cache<String, Processed> imagesByHash;
+    private final Cache<String, String> hashesByUrl;
+    
+    private final Counter cachedImages;
+    private final Counter processedImages;
+    private final Counter passedThroughImages;
+    private final Counter originalBytes;
+    private final Counter sentBytes;
+    private final Timer fetchTime;
+    private final Timer processTime;
+    
+    public ImagePipelineService(MeterRegistry meterRegistry,
+                                @Value("${aibh.image.cache.max-bytes:67108864}") long maxCacheBytes,
+                                @Value("${aibh.image.cache.url-ttl-minutes:60}") long urlTtlMinutes) {
+        this.imagesByHash = Caffeine.newBuilder()
+            .maximumWeight(maxCacheBytes)
+            .weigher((String hash, Processed image) -> hash.length() + image.dataUrl().length())
+            .recordStats()
+            .build();
+        this.hashesByUrl = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(urlTtlMinutes))
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, imagesByHash, "image_cache");
+        
+        this.cachedImages = outcomeCounter(meterRegistry, "cached");
+        this.processedImages = outcomeCounter(meterRegistry, "processed");
+        this.passedThroughImages = outcomeCounter(meterRegistry, "passthrough");
+        this.originalBytes = Counter.builder("image_pipeline_bytes_total")
+            .tag("stage", "original")
+            .description("Size of the images as provided by the client")
+            .register(meterRegistry);
+        this.sentBytes = Counter.builder("image_pipeline_bytes_total")
+            .tag("stage", "sent")
+            .description("Size of the images as sent upstream, before base64 encoding")
+            .register(meterRegistry);
+        this.fetchTime = Timer.builder("image_pipeline_fetch")
+            .description("Time spent downloading images")
+            .register(meterRegistry);
+        this.processTime = Timer.builder("image_pipeline_process")
+            .description("Time spent decoding, downscaling and encoding images")
+            .register(meterRegistry);
+    }
+    
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("image_pipeline_requests_total")
+            .tag("outcome", outcome)
+            .description("Images prepared for the vision model, by outcome")
+            .register(meterRegistry);
+    }
+    
+    public PreparedImage prepare(String imageUrl) {
+        if (!enabled) {
+            return new PreparedImage(imageUrl, null);
+        }
+        boolean inline = imageUrl.regionMatches(true, 0, "data:", 0, 5);
+        try {
+            if (!inline) {
+                String knownHash = hashesByUrl.getIfPresent(imageUrl);
+                Processed known = knownHash != null ? imagesByHash.getIfPresent(knownHash) : null;
+                if (known != null) {
+                    return cached(knownHash, known);
+                }
+            }
+        
+            byte[] original = inline ? decodeDataUrl(imageUrl) : fetch(imageUrl);
+            if (original == null) {
+                return passThrough(imageUrl);
+            }
+            String hash = sha256(original);
+            if (!inline) {
+                hashesByUrl.put(imageUrl, hash);
+            }
+            Processed existing = imagesByHash.getIfPresent(hash);
+            if (existing != null) {
+                return cached(hash, existing);
+            }
+        
+            long start = System.nanoTime();
+            Processed processed = downscale(original);
+            processTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (processed == null) {
+                return passThrough(imageUrl);
+            }
+            imagesByHash.put(hash, processed);
+            processedImages.increment();
+            originalBytes.increment(processed.originalBytes());
+            sentBytes.increment(processed.imageBytes());
+            return new PreparedImage(processed.dataUrl(), hash);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not prepare image, passing the URL through: {}", e.getMessage());
+            return passThrough(imageUrl);
+        }
+    }
+    
+    private PreparedImage cached(String hash, Processed image) {
+        cachedImages.increment();
+        originalBytes.increment(image.originalBytes());
+        sentBytes.increment(image.imageBytes());
+        return new PreparedImage(image.dataUrl(), hash);
+    }
+    
+    private PreparedImage passThrough(String imageUrl) {
+        passedThroughImages.increment();
+        return new PreparedImage(imageUrl, null);
+    }
+    
+    private byte[] decodeDataUrl(String dataUrl) {
+        int comma = dataUrl.indexOf(',');
+        if (comma < 0 || !dataUrl.substring(0, comma).toLowerCase(Locale.ROOT).endsWith(";base64")) {
+            return null;
+        }
+        return Base64.getMimeDecoder().decode(dataUrl.substring(comma + 1));
+    }
+    
+    /**
+     * Downloads the image, retrying transient failures. Returns null when the URL is not
+     * fetchable from here (scheme, private host, size, or persistent failure). The fetch timeout
+     * bounds the whole download, retries and redirects included, not each read, so a host that
+     * trickles bytes cannot hold the caller for long.
+     */
+    private byte[] fetch(String imageUrl) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(fetchTimeoutMs);
+        try {
+            IOException lastFailure = null;
+            for (int attempt = 1; attempt <= Math.max(1, fetchMaxAttempts); attempt++) {
+                try {
+                    return fetchFollowingRedirects(URI.create(imageUrl), deadline);
+                } catch (IOException e) {
+                    lastFailure = e;
+                }
+                long backoffNanos = TimeUnit.MILLISECONDS.toNanos(200L * attempt);
+                if (attempt >= fetchMaxAttempts || deadline - System.nanoTime() <= backoffNanos) {
+                    break;
+                }
+                Thread.sleep(200L * attempt);
+            }
+            throw lastFailure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            fetchTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    // Redirects are followed by hand so every hop passes the host check
+    private byte[] fetchFollowingRedirects(URI uri, long deadline) throws IOException {
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            List<InetAddress> addresses = fetchableAddresses(uri);
+            if (addresses.isEmpty()) {
+                return null;
+            }
+            // Connecting, the handshake and every read wait at most for what is left
+            int remainingMs = remainingMillis(deadline);
+            try (PinnedHttpRequest response = PinnedHttpRequest.get(uri, addresses, "image/*",
+                    Math.min(CONNECT_TIMEOUT_MS, remainingMs), remainingMs)) {
+                int status = response.status();
+                if (status / 100 == 3) {
+                    if (response.location() == null) {
+                        return null;
+                    }
+                    uri = uri.resolve(response.location());
+                    continue;
+                }
+                if (status >= 500) {
+                    throw new IOException("Image host answered " + status);
+                }
+                if (status != 200) {
+                    return null;
+                }
+                return readLimited(response, deadline);
+            }
+        }
+        return null;
+    }
+    
+    private byte[] readLimited(PinnedHttpRequest response, long deadline) throws IOException {
+        InputStream body = response.body();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        long total = 0;
+        int read;
+        do {
+            response.setReadTimeout(remainingMillis(deadline));
+            read = body.read(chunk);
+            if (read > 0) {
+                total += read;
+                if (total > maxDownloadBytes) {
+                    return null;
+                }
+                buffer.write(chunk, 0, read);
+            }
+        } while (read != -1);
+        return buffer.toByteArray();
+    }
+    
+    private int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Image fetch took longer than " + fetchTimeoutMs + "ms");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+    
+    /**
+     * The addresses to connect to for {@code uri}, or none when it is not fetchable from here:
+     * not http(s), or a host with any address that is not public.
+     */
+    private List<InetAddress> fetchableAddresses(URI uri) throws IOException {
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "";
+        if (!scheme.equals("http") && !scheme.equals("https") || uri.getHost() == null) {
+            return List.of();
+        }
+        List<InetAddress> addresses = List.of(InetAddress.getAllByName(uri.getHost()));
+        if (!allowPrivateHosts && !addresses.stream().allMatch(ImagePipelineService::isPublic)) {
+            return List.of();
+        }
+        return addresses;
+    }
+    
+    private static boolean isPublic(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isSiteLocalAddress() || address.isLinkLocalAddress()
+                || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            // 0.0.0.0/8 and the carrier-grade NAT range 100.64.0.0/10
+            return bytes[0] != 0 && !(bytes[0] == 100 && (bytes[1] & 0xC0) == 64);
+        }
+        if (address instanceof Inet6Address) {
+            // Unique local fc00::/7, the IPv6 private range
+            return (bytes[0] & 0xFE) != 0xFC;
+        }
+        return true;
+    }
+    
+    /**
+     * Scales the image to fit the model's limits and encodes it as a data URL, or returns null
+     * when the format cannot be decoded or the image has more than {@code aibh.image.max-pixels}
+     * pixels. Images already within the limits keep their original encoding when that is one the
+     * model accepts and smaller than a re-encode.
+     * <p>
+     * The dimensions are read from the header before anything is decoded, so a small file
+     * declaring a huge image is refused without allocating its raster, and a large image is
+     * decoded subsampled, every n-th pixel, down to about twice the target size.
+     */
+    private Processed downscale(byte[] original) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(original))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return downscale(original, reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    private Processed downscale(byte[] original, ImageReader reader) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if (width <= 0 || height <= 0 || (long) width * height > maxPixels) {
+            logger.warn("Not decoding a {}x{} image, over the {} pixel limit", width, height, maxPixels);
+            return null;
+        }
+        double scale = Math.min(1.0, Math.min(
+            (double) maxLongSide / Math.max(width, height),
+            (double) maxShortSide / Math.min(width, height)));
+        
+        String originalType = sniffType(original);
+        if (scale >= 1.0 && originalType != null && original.length <= 256 * 1024) {
+            return encoded(originalType, original, original.length);
+        }
+        
+        // Skipping pixels aliases, so leave the last halving to the resize
+        ImageReadParam param = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, (int) (0.5 / scale));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        BufferedImage image = reader.read(0, param);
+        
+        BufferedImage scaled = scale < 1.0 ?
+            resize(image, Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale))) : image;
+        boolean alpha = scaled.getColorModel().hasAlpha();
+        byte[] encoded = alpha ? encodePng(scaled) : encodeJpeg(scaled);
+        if (scale >= 1.0 && originalType != null && original.length <= encoded.length) {
+            return encoded(originalType, original, original.length);
+        }
+        return encoded(alpha ? "image/png" : "image/jpeg", encoded, original.length);
+    }
+    
+    // Halves in steps first: one large bilinear step would skip most source pixels
+    private BufferedImage resize(BufferedImage image, int targetWidth, int targetHeight) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage step = new BufferedImage(width, height, type);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+    
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+    
+    private byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+    
+    // Formats the vision endpoint accepts, recognized by their magic bytes
+    private static String sniffType(byte[] bytes) {
+        if (bytes.length >= 3 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8 && (bytes[2] & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        }
+        if (bytes.length >= 8 && (bytes[0] & 0xFF) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+            return "image/png";
+        }
+        if (bytes.length >= 6 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F') {
+            return "image/gif";
+        }
+        return null;
+    }
+    
+    private static Processed encoded(String mediaType, byte[] bytes, long originalBytes) {
+        return new Processed("data:" + mediaType + ";base64," + Base64.getEncoder().encodeToString(bytes), originalBytes, bytes.length);
+    }
+    
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
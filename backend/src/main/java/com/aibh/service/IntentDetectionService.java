@@ -1,31 +1,127 @@
 package com.aibh.service;
 
 import com.aibh.model.Intent;
+import com.aibh.service.TextClassifier.Features;
+import com.aibh.service.TextClassifier.Group;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Detects the intent of a message. When an {@link IntentModel} is configured its prediction is
+ * used if confident enough; otherwise, and without a model, the keyword rules decide.
+ */
 @Service
 public class IntentDetectionService {
     
+    private static final Logger logger = LoggerFactory.getLogger(IntentDetectionService.class);
+    
+    private final TextClassifier textClassifier;
+    private final IntentModel model;
+    private final double minConfidence;
+    private final Counter modelDetections;
+    private final Counter ruleDetections;
+    
+    @Autowired
+    public IntentDetectionService(TextClassifier textClassifier, MeterRegistry meterRegistry, ResourceLoader resourceLoader,
+                                  @Value("${aibh.intent.model-location:}") String modelLocation,
+                                  @Value("${aibh.intent.min-confidence:0.6}") double minConfidence) {
+        this.textClassifier = textClassifier;
+        this.minConfidence = minConfidence;
+        this.modelDetections = detectionCounter(meterRegistry, "model");
+        this.ruleDetections = detectionCounter(meterRegistry, "rules");
+        
+        if (StringUtils.hasText(modelLocation)) {
+            // A model that was asked for but cannot be read is a configuration error
+            Resource resource = resourceLoader.getResource(modelLocation);
+            try (InputStream in = resource.getInputStream()) {
+                this.model = IntentModel.read(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read intent model " + modelLocation + ": " + e.getMessage(), e);
+            }
+            logger.info("Loaded intent model from {} ({} intents, 2^{} buckets)", modelLocation, model.types.length, model.bucketBits);
+        } else {
+            this.model = null;
+        }
+    }
+    
+    /**
+     * Rules only, for tools and benchmarks outside the application context.
+     */
+    public IntentDetectionService(TextClassifier textClassifier) {
+        this(textClassifier, new SimpleMeterRegistry(), new DefaultResourceLoader(), "", 1);
+    }
+    
     public Intent detectIntent(String userMessage) {
+        Intent predicted = predict(userMessage);
+        if (predicted != null) {
+            return predicted;
+        }
+        ruleDetections.increment();
+        return detectIntent(textClassifier.classify(userMessage));
+    }
+    
+    /**
+     * As {@link #detectIntent(String)}, for a message whose features the caller already has.
+     */
+    public Intent detectIntent(String userMessage, Features features) {
+        Intent predicted = predict(userMessage);
+        if (predicted != null) {
+            return predicted;
+        }
+        ruleDetections.increment();
+        return detectIntent(features);
+    }
+    
+    /**
+     * Detects the intent with the keyword rules from a message already classified, so callers
+     * that also need the features for something else scan the message only once.
+     */
+    public Intent detectIntent(Features features) {
         // Simple intent detection logic
-        String lowerMessage = userMessage.toLowerCase().trim();
-        
-        if (lowerMessage.contains("python") || lowerMessage.contains("java") || lowerMessage.contains("javascript")) {
+        if (features.has(Group.PYTHON) || features.hasAny(Group.JAVA, Group.JAVASCRIPT)) {
             return new Intent("programming", 0.9, "technical");
-        } else if (lowerMessage.contains("math") || lowerMessage.contains("calculus") || lowerMessage.contains("physics")) {
+        } else if (features.has(Group.MATH) || features.hasAny(Group.CALCULUS, Group.PHYSICS)) {
             return new Intent("academic", 0.8, "science");
-        } else if (lowerMessage.matches("^(hello|hi|hey|good morning|good afternoon|good evening)!?$")) {
+        } else if (features.has(Group.GREETING)) {
             return new Intent("greeting", 0.95, "social");
-        } else if (lowerMessage.startsWith("what is") || lowerMessage.startsWith("what are")) {
+        } else if (features.has(Group.DEFINITION_PREFIX)) {
             return new Intent("question", 0.85, "informational");
-        } else if (lowerMessage.startsWith("how to") || lowerMessage.startsWith("how do")) {
+        } else if (features.has(Group.INSTRUCTION_PREFIX)) {
             return new Intent("instruction", 0.8, "procedural");
         } else {
             return new Intent("general", 0.5, "conversational");
         }
     }
     
+    private Intent predict(String userMessage) {
+        Intent predicted = model != null ? model.predict(userMessage, minConfidence) : null;
+        if (predicted != null) {
+            modelDetections.increment();
+        }
+        return predicted;
+    }
+    
     public boolean isHighConfidence(Intent intent) {
         return intent.getConfidence() > 0.7;
     }
+    
+    private static Counter detectionCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("intent_detections_total")
+            .tag("source", source)
+            .description("Detected intents by whether the model or the keyword rules decided")
+            .register(meterRegistry);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package com.aibh.service;
+
+import com.aibh.model.Intent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Multinomial logistic regression over hashed character and word n-grams, as trained by
+ * {@code IntentModelTrainer}. Features are never materialized: each n-gram is hashed into one
+ * of {@code 2^bucketBits} buckets as the message is scanned and its weights are added to the
+ * class scores straight away, so a prediction costs one pass over the message plus a softmax.
+ * <p>
+ * The file is gzipped: a header with the feature settings and the intent types and categories,
+ * then the biases and the weights, bucket-major, as floats.
+ */
+final class IntentModel {
+    
+    private static final int MAGIC = 0x41494E54; // "AINT"
+    private static final int VERSION = 1;
+    private static final int MAX_NGRAM = 4; // Char n-grams are packed into one long
+    
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final long WORD_TAG = 0x100;
+    private static final long BIGRAM_TAG = 0x200;
+    
+    /**
+     * Receives the bucket of every feature of a message, duplicates included.
+     */
+    interface FeatureSink {
+        void accept(int bucket);
+    }
+    
+    final String[] types;
+    final String[] categories;
+    final int bucketBits;
+    final int minNgram;
+    final int maxNgram;
+    final float[] bias;
+    final float[] weights;
+    
+    IntentModel(String[] types, String[] categories, int bucketBits, int minNgram, int maxNgram) {
+        if (types.length < 2 || types.length > 255 || types.length != categories.length) {
+            throw new IllegalArgumentException("An intent model needs 2 to 255 intents, each with a category");
+        }
+        if (bucketBits < 8 || bucketBits > 24) {
+            throw new IllegalArgumentException("bucketBits must lie in [8, 24]: " + bucketBits);
+        }
+        if (minNgram < 1 || minNgram > maxNgram || maxNgram > MAX_NGRAM) {
+            throw new IllegalArgumentException("Character n-gram sizes must satisfy 1 <= min <= max <= " + MAX_NGRAM);
+        }
+        this.types = types;
+        this.categories = categories;
+        this.bucketBits = bucketBits;
+        this.minNgram = minNgram;
+        this.maxNgram = maxNgram;
+        this.bias = new float[types.length];
+        this.weights = new float[(1 << bucketBits) * types.length];
+    }
+    
+    /**
+     * The most likely intent with its probability as confidence, or null when that probability
+     * is below {@code minConfidence}.
+     */
+    Intent predict(String text, double minConfidence) {
+        int classes = types.length;
+        float[] scores = new float[classes];
+        int features = extract(text, bucket -> {
+            int offset = bucket * classes;
+            for (int c = 0; c < classes; c++) {
+                scores[c] += weights[offset + c];
+            }
+        });
+        
+        int best = 0;
+        float scale = features > 0 ? (float) (1 / Math.sqrt(features)) : 0;
+        for (int c = 0; c < classes; c++) {
+            scores[c] = bias[c] + scores[c] * scale;
+            if (scores[c] > scores[best]) {
+                best = c;
+            }
+        }
+        double sum = 0;
+        for (int c = 0; c < classes; c++) {
+            sum += Math.exp(scores[c] - scores[best]);
+        }
+        double probability = 1 / sum;
+        return probability >= minConfidence ? new Intent(types[best], probability, categories[best]) : null;
+    }
+    
+    /**
+     * Hashes the lowercased message into character n-grams, with a space marking each end and
+     * runs of whitespace collapsed, and into words and word bigrams. Returns the feature count.
+     */
+    int extract(String text, FeatureSink sink) {
+        int features = 0;
+        long window = ' ';
+        int filled = 1;
+        long word = FNV_OFFSET;
+        long previousWord = 0;
+        boolean inWord = false;
+        boolean lastSpace = true;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? KeywordAutomaton.toLowerCase(text.charAt(i)) : ' ';
+            boolean space = Character.isWhitespace(c);
+            if (space && lastSpace) {
+                continue;
+            }
+            if (space) {
+                c = ' ';
+            }
+            lastSpace = space;
+        
+            window = window << Character.SIZE | c;
+            filled = Math.min(filled + 1, maxNgram);
+            for (int n = minNgram; n <= filled; n++) {
+                long gram = n == MAX_NGRAM ? window : window & (1L << n * Character.SIZE) - 1;
+                sink.accept(bucket(gram, n));
+                features++;
+            }
+        
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ c) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                sink.accept(bucket(word, WORD_TAG));
+                sink.accept(bucket(previousWord * 31 + word, BIGRAM_TAG));
+                features += 2;
+                previousWord = word;
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        return features;
+    }
+    
+    private int bucket(long hash, long tag) {
+        // MurmurHash3 finalizer; the top bits are the best mixed
+        long h = hash ^ tag * 0x9E3779B97F4A7C15L;
+        h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ h >>> 33) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) (h >>> Long.SIZE - bucketBits);
+    }
+    
+    void write(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        DataOutputStream data = new DataOutputStream(gzip);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeByte(bucketBits);
+        data.writeByte(minNgram);
+        data.writeByte(maxNgram);
+        data.writeByte(types.length);
+        for (int c = 0; c < types.length; c++) {
+            data.writeUTF(types[c]);
+            data.writeUTF(categories[c]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((bias.length + weights.length) * Float.BYTES);
+        buffer.asFloatBuffer().put(bias).put(weights);
+        data.write(buffer.array());
+        data.flush();
+        gzip.finish();
+    }
+    
+    static IntentModel read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new GZIPInputStream(in, 1 << 16));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an intent model");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported intent model version " + version);
+        }
+        int bucketBits = data.readUnsignedByte();
+        int minNgram = data.readUnsignedByte();
+        int maxNgram = data.readUnsignedByte();
+        int classes = data.readUnsignedByte();
+        String[] types = new String[classes];
+        String[] categories = new String[classes];
+        for (int c = 0; c < classes; c++) {
+            types[c] = data.readUTF();
+            categories[c] = data.readUTF();
+        }
+        IntentModel model;
+        try {
+            model = new IntentModel(types, categories, bucketBits, minNgram, maxNgram);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid intent model: " + e.getMessage(), e);
+        }
+        byte[] floats = new byte[(model.bias.length + model.weights.length) * Float.BYTES];
+        data.readFully(floats);
+        ByteBuffer.wrap(floats).asFloatBuffer().get(model.bias).get(model.weights);
+        return model;
+    }
+}
@@ -0,0 +1,262 @@
+package com.aibh.service;
+
+import com.aibh.service.TextClassifier.Match;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over a fixed set of lowercase keywords, compiled to a dense transition
+ * table so scanning costs one array lookup per character whatever the number of keywords.
+ * <p>
+ * Every keyword belongs to a group (at most 64). Keywords that may match anywhere are folded
+ * into a per-state bit mask of the groups that match when the scan reaches that state; anchored
+ * keywords, whose match also depends on where it starts or ends, are listed per state and
+ * checked with {@link #matchesAt}. Instances are immutable and safe to share between threads.
+ */
+final class KeywordAutomaton {
+    
+    private static final int[] NO_PATTERNS = new int[0];
+    
+    /**
+     * A keyword, the group it reports and how it has to sit in the text.
+     */
+    record Keyword(String text, int group, Match match) {}
+    
+    /**
+     * Where a scan over several automata stands, reused from one text to the next. Group
+     * {@code g} of automaton {@code k} has the id {@code k * 64 + g}; {@link #letters} holds, per
+     * id, the letters and digits of the longest keyword that matched the group, a measure of how
+     * much of the text it accounts for.
+     */
+    static final class Matches {
+        
+        private int[] states = NO_PATTERNS;
+        private long[] groups = new long[0];
+        private int[] letters = NO_PATTERNS;
+        
+        void reset(int automata) {
+            if (states.length != automata) {
+                states = new int[automata];
+                groups = new long[automata];
+                letters = new int[automata * Long.SIZE];
+            } else {
+                Arrays.fill(states, 0);
+                Arrays.fill(groups, 0);
+                Arrays.fill(letters, 0);
+            }
+        }
+        
+        boolean has(int id) {
+            return (groups[id / Long.SIZE] & 1L << id) != 0;
+        }
+        
+        int letters(int id) {
+            return letters[id];
+        }
+    }
+    
+    // Characters that occur in no keyword share class 0
+    private final char[] charClass = new char[Character.MAX_VALUE + 1];
+    private final int classCount;
+    private final int[] transitions;
+    private final long[] groupMasks;
+    private final int[][] anchoredPatterns;
+    private final int[][] allPatterns;
+    private final int[] patternLengths;
+    private final int[] patternLetters;
+    private final int[] patternGroups;
+    private final Match[] patternMatches;
+    
+    KeywordAutomaton(List<Keyword> keywords) {
+        int classes = 1;
+        for (Keyword keyword : keywords) {
+            for (int i = 0; i < keyword.text().length(); i++) {
+                char c = keyword.text().charAt(i);
+                if (charClass[c] == 0) {
+                    charClass[c] = (char) classes++;
+                }
+            }
+        }
+        this.classCount = classes;
+        
+        // Trie
+        List<Map<Integer, Integer>> children = new ArrayList<>();
+        List<Long> masks = new ArrayList<>();
+        List<List<Integer>> anchored = new ArrayList<>();
+        List<List<Integer>> ending = new ArrayList<>();
+        children.add(new HashMap<>());
+        masks.add(0L);
+        anchored.add(new ArrayList<>());
+        ending.add(new ArrayList<>());
+        this.patternLengths = new int[keywords.size()];
+        this.patternLetters = new int[keywords.size()];
+        this.patternGroups = new int[keywords.size()];
+        this.patternMatches = new Match[keywords.size()];
+        for (int id = 0; id < keywords.size(); id++) {
+            Keyword keyword = keywords.get(id);
+            if (keyword.group() < 0 || keyword.group() >= Long.SIZE) {
+                throw new IllegalArgumentException("Keyword group out of range: " + keyword.group());
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.text().length(); i++) {
+                int c = charClass[keyword.text().charAt(i)];
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(c, next);
+                    children.add(new HashMap<>());
+                    masks.add(0L);
+                    anchored.add(new ArrayList<>());
+                    ending.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            patternLengths[id] = keyword.text().length();
+            patternLetters[id] = (int) keyword.text().chars().filter(Character::isLetterOrDigit).count();
+            patternGroups[id] = keyword.group();
+            patternMatches[id] = keyword.match();
+            ending.get(state).add(id);
+            if (keyword.match() != Match.CONTAINS) {
+                anchored.get(state).add(id);
+            } else {
+                masks.set(state, masks.get(state) | 1L << keyword.group());
+            }
+        }
+        
+        // Failure links, resolved breadth first into a complete transition table
+        int states = children.size();
+        this.transitions = new int[states * classCount];
+        this.groupMasks = new long[states];
+        this.anchoredPatterns = new int[states][];
+        this.allPatterns = new int[states][];
+        int[] failure = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        groupMasks[0] = masks.get(0);
+        anchoredPatterns[0] = toArray(anchored.get(0));
+        allPatterns[0] = toArray(ending.get(0));
+        for (int c = 0; c < classCount; c++) {
+            Integer child = children.get(0).get(c);
+            if (child != null) {
+                transitions[c] = child;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int fail = failure[state];
+            groupMasks[state] = masks.get(state) | groupMasks[fail];
+            anchoredPatterns[state] = concat(toArray(anchored.get(state)), anchoredPatterns[fail]);
+            allPatterns[state] = concat(toArray(ending.get(state)), allPatterns[fail]);
+            for (int c = 0; c < classCount; c++) {
+                Integer child = children.get(state).get(c);
+                if (child != null) {
+                    failure[child] = transitions[fail * classCount + c];
+                    transitions[state * classCount + c] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * classCount + c] = transitions[fail * classCount + c];
+                }
+            }
+        }
+    }
+    
+    int next(int state, char c) {
+        return transitions[state * classCount + charClass[c]];
+    }
+    
+    /**
+     * Groups of the unanchored keywords that end at this state.
+     */
+    long groupMask(int state) {
+        return groupMasks[state];
+    }
+    
+    /**
+     * Anchored keywords that end at this state, as pattern ids; empty for most states.
+     */
+    int[] anchoredPatterns(int state) {
+        return anchoredPatterns[state];
+    }
+    
+    int patternGroup(int pattern) {
+        return patternGroups[pattern];
+    }
+    
+    /**
+     * Whether the anchored pattern that ends at {@code last} holds within the trimmed text
+     * {@code [start, end)}.
+     */
+    boolean matchesAt(String text, int start, int end, int last, int pattern) {
+        int first = last - patternLengths[pattern] + 1;
+        return switch (patternMatches[pattern]) {
+            case PREFIX -> first == start;
+            case WHOLE -> first == start && (last == end - 1 || (last == end - 2 && text.charAt(end - 1) == '!'));
+            case WORD -> (first == start || !isWordChar(text.charAt(first - 1)))
+                && (last == end - 1 || !isWordChar(text.charAt(last + 1)));
+            case CONTAINS -> true;
+        };
+    }
+    
+    /**
+     * Feeds automaton {@code k} of {@code matches} the lowercased character {@code c} found at
+     * {@code i} of the trimmed text {@code [start, end)}, recording the groups that match there.
+     */
+    void advance(Matches matches, int k, String text, int start, int end, int i, char c) {
+        int state = next(matches.states[k], c);
+        matches.states[k] = state;
+        for (int pattern : allPatterns[state]) {
+            if (patternMatches[pattern] == Match.CONTAINS || matchesAt(text, start, end, i, pattern)) {
+                int group = patternGroups[pattern];
+                int id = k * Long.SIZE + group;
+                matches.groups[k] |= 1L << group;
+                matches.letters[id] = Math.max(matches.letters[id], patternLetters[pattern]);
+            }
+        }
+    }
+    
+    static int trimStart(String text) {
+        int start = 0;
+        while (start < text.length() && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+    
+    static int trimEnd(String text, int start) {
+        int end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+    
+    static char toLowerCase(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+    
+    // Same set as regex \w
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || (c >= 'A' && c <= 'Z');
+    }
+    
+    private static int[] toArray(List<Integer> ids) {
+        return ids.isEmpty() ? NO_PATTERNS : ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    private static int[] concat(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        int[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+}
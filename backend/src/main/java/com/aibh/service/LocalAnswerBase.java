@@ -0,0 +1,85 @@
+package com.aibh.service;
+
+import com.aibh.service.TextClassifier.Match;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Knowledge base of canned answers as loaded by {@link LocalAnswerService}. Entries are tried in
+ * file order and the first whose {@code when} conditions all hold and none of whose
+ * {@code unless} conditions does answers the message; a condition holds when any of its keywords
+ * matches. An entry without conditions matches everything, which makes it a catch-all.
+ * <p>
+ * Answers may use {@code {message}} for the message as sent and {@code {topic}} for the text
+ * after the entry's {@code PREFIX} keyword. Only entries with a {@code minConfidence} may answer
+ * ahead of the upstream model; the rest serve as the fallback when no model is reachable.
+ */
+public record LocalAnswerBase(List<Entry> entries) {
+    
+    public record Condition(Match match, List<String> keywords) {
+        
+        Condition normalized() {
+            List<String> normalized = new ArrayList<>();
+            for (String keyword : keywords) {
+                // Only lowercased: a trailing space, as in "java ", is part of the keyword
+                String text = keyword.toLowerCase(Locale.ROOT);
+                if (text.isBlank()) {
+                    throw new IllegalArgumentException("Blank keyword");
+                }
+                normalized.add(text);
+            }
+            return new Condition(match, List.copyOf(normalized));
+        }
+    }
+    
+    /**
+     * One answer. {@code intent}, when set, limits the fast path to messages detected as that
+     * intent type; {@code minConfidence} is the share of the message's letters and digits the
+     * matched {@code when} keywords must cover for the fast path.
+     */
+    public record Entry(String id, String intent, List<Condition> when, List<Condition> unless,
+                        String answer, Double minConfidence) {}
+    
+    /**
+     * Checks the knowledge base and normalizes its keywords.
+     */
+    LocalAnswerBase resolve() {
+        if (entries == null || entries.isEmpty()) {
+            throw new IllegalArgumentException("Local answers must list at least one entry");
+        }
+        Set<String> ids = new HashSet<>();
+        List<Entry> resolved = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.id() == null || entry.id().isBlank() || !ids.add(entry.id())) {
+                throw new IllegalArgumentException("Local answer ids must be present and unique: " + entry.id());
+            }
+            if (entry.answer() == null || entry.answer().isBlank()) {
+                throw new IllegalArgumentException("Local answer " + entry.id() + " has no answer");
+            }
+            if (entry.minConfidence() != null && (entry.minConfidence() < 0 || entry.minConfidence() > 1)) {
+                throw new IllegalArgumentException("Local answer " + entry.id() + " minConfidence must lie in [0, 1]");
+            }
+            resolved.add(new Entry(entry.id(), entry.intent(), normalize(entry.id(), entry.when()),
+                normalize(entry.id(), entry.unless()), entry.answer(), entry.minConfidence()));
+        }
+        return new LocalAnswerBase(List.copyOf(resolved));
+    }
+    
+    private static List<Condition> normalize(String id, List<Condition> conditions) {
+        if (conditions == null) {
+            return List.of();
+        }
+        List<Condition> normalized = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (condition.match() == null || condition.keywords() == null || condition.keywords().isEmpty()) {
+                throw new IllegalArgumentException("Local answer " + id + " has a condition without match or keywords");
+            }
+            normalized.add(condition.normalized());
+        }
+        return List.copyOf(normalized);
+    }
+}
@@ -0,0 +1,351 @@
+package com.aibh.service;
+
+import com.aibh.model.Intent;
+import com.aibh.service.LocalAnswerBase.Condition;
+import com.aibh.service.LocalAnswerBase.Entry;
+import com.aibh.service.TextClassifier.Match;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Answers trivial messages in-process from a {@link LocalAnswerBase}. The conditions of all
+ * entries are compiled into {@link KeywordAutomaton}s that {@link TextClassifier} runs in the
+ * same pass as its own, so {@link #scan} reads the message once for both intent detection and
+ * the lookup, whatever the size of the knowledge base.
+ * <p>
+ * {@link #fastPath} answers ahead of the upstream model, but only when the first matching entry
+ * is confident enough; {@link #fallback} always answers and stands in when no model is
+ * reachable. The knowledge base file is re-read when it changes, without a restart; until it
+ * exists, the knowledge base bundled in the jar is used.
+ */
+@Service
+public class LocalAnswerService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LocalAnswerService.class);
+    
+    private static final Pattern TOPIC_PUNCTUATION = Pattern.compile("[?!.]");
+    private static final String DEFAULT_TOPIC = "this topic";
+    private static final String BUNDLED_ANSWERS = "classpath:local-answers.json";
+    
+    // Sized for the current index on first use and reused by the thread's later scans
+    private static final ThreadLocal<KeywordAutomaton.Matches> MATCHES = ThreadLocal.withInitial(KeywordAutomaton.Matches::new);
+    
+    private final TextClassifier textClassifier;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Resource answersResource;
+    private final Resource bundledAnswers;
+    private final boolean fastPathEnabled;
+    private final long reloadIntervalNanos;
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+    private final Counter reloadsSucceeded;
+    private final Counter reloadsFailed;
+    private final Counter lookupsHit;
+    private final Counter lookupsBelowThreshold;
+    private final Counter lookupsIntentMismatch;
+    private final Counter lookupsMiss;
+    
+    private volatile Index index;
+    private volatile long answersLastModified;
+    
+    public LocalAnswerService(TextClassifier textClassifier, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                              ResourceLoader resourceLoader,
+                              @Value("${aibh.local-answers.location:file:config/local-answers.json}") String answersLocation,
+                              @Value("${aibh.local-answers.fast-path-enabled:true}") boolean fastPathEnabled,
+                              @Value("${aibh.local-answers.reload-interval-ms:10000}") long reloadIntervalMs) {
+        this.textClassifier = textClassifier;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.answersResource = resourceLoader.getResource(answersLocation);
+        this.bundledAnswers = resourceLoader.getResource(BUNDLED_ANSWERS);
+        this.fastPathEnabled = fastPathEnabled;
+        this.reloadIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reloadIntervalMs);
+        this.reloadsSucceeded = reloadCounter("success");
+        this.reloadsFailed = reloadCounter("failure");
+        this.lookupsHit = lookupCounter("hit");
+        this.lookupsBelowThreshold = lookupCounter("below_threshold");
+        this.lookupsIntentMismatch = lookupCounter("intent_mismatch");
+        this.lookupsMiss = lookupCounter("miss");
+        
+        // A broken knowledge base at startup is a configuration error
+        this.index = loadIndex();
+        this.answersLastModified = lastModified();
+        this.nextReloadCheck.set(System.nanoTime() + reloadIntervalNanos);
+        reloadsSucceeded.increment();
+        if (answersResource.exists()) {
+            logger.info("Loaded {} local answers from {}", index.entries().size(), answersLocation);
+        } else {
+            logger.info("No local answers at {}, using the {} bundled ones until that file is created",
+                answersLocation, index.entries().size());
+        }
+    }
+    
+    /**
+     * Classifies the message and looks it up in the knowledge base, in a single pass. The
+     * result serves intent detection, {@link #fastPath} and {@link #fallback} for the message.
+     */
+    public Scan scan(String userMessage) {
+        Index current = currentIndex();
+        KeywordAutomaton.Matches matches = MATCHES.get();
+        TextClassifier.Features features = textClassifier.classify(userMessage, current.automata(), matches);
+        return new Scan(features, current.match(features, matches));
+    }
+    
+    /**
+     * The local answer for a message the upstream model need not see, or null. The first
+     * matching entry decides: it must allow the fast path, cover enough of the message and,
+     * if it names an intent, agree with the detected one.
+     */
+    public String fastPath(String userMessage, Scan scan, Intent intent) {
+        if (!fastPathEnabled) {
+            return null;
+        }
+        Lookup lookup = scan.lookup;
+        if (lookup == null || lookup.entry().source().minConfidence() == null) {
+            lookupsMiss.increment();
+            return null;
+        }
+        CompiledEntry entry = lookup.entry();
+        if (lookup.confidence() < entry.source().minConfidence()) {
+            lookupsBelowThreshold.increment();
+            return null;
+        }
+        if (entry.source().intent() != null && (intent == null || !entry.source().intent().equals(intent.getType()))) {
+            lookupsIntentMismatch.increment();
+            return null;
+        }
+        lookupsHit.increment();
+        entry.fastPathAnswers().increment();
+        return render(entry.source(), userMessage);
+    }
+    
+    /**
+     * The best local answer whatever its confidence, for when no model can answer.
+     */
+    public String fallback(String userMessage) {
+        return fallback(userMessage, scan(userMessage));
+    }
+    
+    public String fallback(String userMessage, Scan scan) {
+        Lookup lookup = scan.lookup;
+        if (lookup == null) {
+            return "I can help with " + userMessage + ". What specific information do you need?";
+        }
+        lookup.entry().fallbackAnswers().increment();
+        return render(lookup.entry().source(), userMessage);
+    }
+    
+    private String render(Entry entry, String userMessage) {
+        String answer = entry.answer();
+        if (answer.contains("{topic}")) {
+            answer = answer.replace("{topic}", topic(entry, userMessage));
+        }
+        return answer.replace("{message}", userMessage);
+    }
+    
+    // The text after the longest PREFIX keyword the message starts with, without punctuation
+    private static String topic(Entry entry, String userMessage) {
+        String trimmed = userMessage.strip();
+        String lower = trimmed.toLowerCase(Locale.ROOT);
+        int prefixLength = -1;
+        for (Condition condition : entry.when()) {
+            if (condition.match() != Match.PREFIX) {
+                continue;
+            }
+            for (String keyword : condition.keywords()) {
+                if (lower.startsWith(keyword) && keyword.length() > prefixLength) {
+                    prefixLength = keyword.length();
+                }
+            }
+        }
+        if (prefixLength < 0 || prefixLength > trimmed.length()) {
+            return DEFAULT_TOPIC;
+        }
+        String topic = TOPIC_PUNCTUATION.matcher(trimmed.substring(prefixLength)).replaceAll("").trim();
+        return topic.isEmpty() ? DEFAULT_TOPIC : topic;
+    }
+    
+    private Index currentIndex() {
+        long now = System.nanoTime();
+        long next = nextReloadCheck.get();
+        if (now - next >= 0 && nextReloadCheck.compareAndSet(next, now + reloadIntervalNanos)) {
+            reloadIfChanged();
+        }
+        return index;
+    }
+    
+    private void reloadIfChanged() {
+        long modified = lastModified();
+        if (modified <= 0 || modified == answersLastModified) {
+            return;
+        }
+        try {
+            index = loadIndex();
+            answersLastModified = modified;
+            reloadsSucceeded.increment();
+            logger.info("Reloaded {} local answers from {}", index.entries().size(), answersResource);
+        } catch (RuntimeException e) {
+            // Keep serving the last good knowledge base; the next change is tried again
+            answersLastModified = modified;
+            reloadsFailed.increment();
+            logger.error("Ignoring invalid local answers {}: {}", answersResource, e.getMessage());
+        }
+    }
+    
+    private Index loadIndex() {
+        Resource source = answersResource.exists() ? answersResource : bundledAnswers;
+        LocalAnswerBase base;
+        try (InputStream in = source.getInputStream()) {
+            base = objectMapper.readValue(in, LocalAnswerBase.class).resolve();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read local answers " + source + ": " + e.getMessage(), e);
+        }
+        
+        // Identical conditions share one group; each automaton holds up to 64 groups
+        Map<Condition, Integer> groups = new HashMap<>();
+        List<List<KeywordAutomaton.Keyword>> keywords = new ArrayList<>();
+        List<CompiledEntry> entries = new ArrayList<>();
+        for (Entry entry : base.entries()) {
+            entries.add(new CompiledEntry(entry,
+                groupsOf(entry.when(), groups, keywords),
+                groupsOf(entry.unless(), groups, keywords),
+                answerCounter(entry.id(), "fast_path"),
+                answerCounter(entry.id(), "fallback")));
+        }
+        KeywordAutomaton[] automata = keywords.stream().map(KeywordAutomaton::new).toArray(KeywordAutomaton[]::new);
+        return new Index(List.copyOf(entries), automata);
+    }
+    
+    private static int[] groupsOf(List<Condition> conditions, Map<Condition, Integer> groups,
+                                  List<List<KeywordAutomaton.Keyword>> keywords) {
+        int[] ids = new int[conditions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Condition condition = conditions.get(i);
+            ids[i] = groups.computeIfAbsent(condition, c -> {
+                int id = groups.size();
+                if (id % Long.SIZE == 0) {
+                    keywords.add(new ArrayList<>());
+                }
+                for (String keyword : c.keywords()) {
+                    keywords.get(id / Long.SIZE).add(new KeywordAutomaton.Keyword(keyword, id % Long.SIZE, c.match()));
+                }
+                return id;
+            });
+        }
+        return ids;
+    }
+    
+    // Zero when the resource has no modification time, e.g. inside a packaged jar, or is missing
+    private long lastModified() {
+        try {
+            return answersResource.isFile() ? answersResource.lastModified() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    
+    private Counter reloadCounter(String outcome) {
+        return Counter.builder("local_answers_reloads_total")
+            .tag("outcome", outcome)
+            .description("Local answer knowledge base loads")
+            .register(meterRegistry);
+    }
+    
+    private Counter lookupCounter(String outcome) {
+        return Counter.builder("local_answer_lookups_total")
+            .tag("outcome", outcome)
+            .description("Fast path lookups; hits are requests that never went upstream")
+            .register(meterRegistry);
+    }
+    
+    private Counter answerCounter(String entry, String mode) {
+        return Counter.builder("local_answers_total")
+            .tag("entry", entry)
+            .tag("mode", mode)
+            .description("Messages answered locally, by knowledge base entry and path")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * One pass over a message: its classifier features and the knowledge base entry it matched.
+     */
+    public static final class Scan {
+        
+        private final TextClassifier.Features features;
+        private final Lookup lookup;
+        
+        private Scan(TextClassifier.Features features, Lookup lookup) {
+            this.features = features;
+            this.lookup = lookup;
+        }
+        
+        public TextClassifier.Features features() {
+            return features;
+        }
+    }
+    
+    private record CompiledEntry(Entry source, int[] when, int[] unless, Counter fastPathAnswers, Counter fallbackAnswers) {}
+    
+    private record Lookup(CompiledEntry entry, double confidence) {}
+    
+    private record Index(List<CompiledEntry> entries, KeywordAutomaton[] automata) {
+        
+        // The matches are the scan's for this index's automata
+        Lookup match(TextClassifier.Features features, KeywordAutomaton.Matches matches) {
+            for (CompiledEntry entry : entries) {
+                if (all(entry.when(), matches) && none(entry.unless(), matches)) {
+                    return new Lookup(entry, confidence(features, entry.when(), matches));
+                }
+            }
+            return null;
+        }
+        
+        private static boolean all(int[] ids, KeywordAutomaton.Matches matches) {
+            for (int id : ids) {
+                if (!matches.has(id)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private static boolean none(int[] ids, KeywordAutomaton.Matches matches) {
+            for (int id : ids) {
+                if (matches.has(id)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        // Share of the message's letters and digits covered by the matched keywords
+        private static double confidence(TextClassifier.Features features, int[] when, KeywordAutomaton.Matches matches) {
+            if (features.lettersOrDigits() == 0) {
+                return 0;
+            }
+            int matched = 0;
+            for (int id : when) {
+                matched += matches.letters(id);
+            }
+            return Math.min(1.0, (double) matched / features.lettersOrDigits());
+        }
+    }
+}
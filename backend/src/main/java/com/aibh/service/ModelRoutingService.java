@@ -1,56 +1,300 @@
 package com.aibh.service;
 
+import com.aibh.metrics.LatencyWindow;
 import com.aibh.model.Intent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the model and request parameters for each intent from a {@link RoutingPolicy}.
+ * Completed calls are recorded per (intent, model): recent latencies, an average of completion
+ * tokens and an error rate. Among an intent's candidates that meet its latency SLO at the
+ * policy percentile and stay under the error limit, the cheapest (by expected completion cost)
+ * or fastest is chosen; a small share of requests explores another candidate so the statistics
+ * stay current. The policy file is re-read when it changes, without a restart; until it exists,
+ * the policy bundled in the jar is used.
+ */
 @Service
 public class ModelRoutingService {
     
+    private static final Logger logger = LoggerFactory.getLogger(ModelRoutingService.class);
+    
+    private static final int LATENCY_WINDOW_SIZE = 256;
+    private static final double STATS_ALPHA = 0.05;
+    private static final String BUNDLED_POLICY = "classpath:routing-policy.json";
+    
+    private final ConcurrentMap<String, LatencyWindow> latencyByModel = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RouteStats> routeStats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> decisions = new ConcurrentHashMap<>();
+    
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Resource policyResource;
+    private final Resource bundledPolicy;
+    private final long reloadIntervalNanos;
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+    private final Counter reloadsSucceeded;
+    private final Counter reloadsFailed;
+    
+    private volatile RoutingPolicy policy;
+    private volatile long policyLastModified;
+    
+    public ModelRoutingService(ObjectMapper objectMapper, MeterRegistry meterRegistry, ResourceLoader resourceLoader,
+                               @Value("${aibh.routing.policy-location:file:config/routing-policy.json}") String policyLocation,
+                               @Value("${aibh.routing.reload-interval-ms:10000}") long reloadIntervalMs) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.policyResource = resourceLoader.getResource(policyLocation);
+        this.bundledPolicy = resourceLoader.getResource(BUNDLED_POLICY);
+        this.reloadIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reloadIntervalMs);
+        this.reloadsSucceeded = Counter.builder("model_routing_policy_reloads_total")
+            .tag("outcome", "success")
+            .description("Routing policy loads")
+            .register(meterRegistry);
+        this.reloadsFailed = Counter.builder("model_routing_policy_reloads_total")
+            .tag("outcome", "failure")
+            .description("Routing policy loads")
+            .register(meterRegistry);
+        
+        // A broken policy at startup is a configuration error, not something to route around
+        this.policy = loadPolicy();
+        this.policyLastModified = lastModified();
+        this.nextReloadCheck.set(System.nanoTime() + reloadIntervalNanos);
+        reloadsSucceeded.increment();
+        if (policyResource.exists()) {
+            logger.info("Loaded routing policy from {}", policyLocation);
+        } else {
+            logger.info("No routing policy at {}, using the bundled one until that file is created", policyLocation);
+        }
+    }
+    
     public String selectModel(Intent intent, boolean hasImage) {
+        RoutingPolicy current = currentPolicy();
         if (hasImage) {
-            return "gpt-4-vision-preview";
+            return current.visionModel();
+        }
+        
+        String intentType = intentType(intent);
+        RoutingPolicy.Route route = current.route(intentType);
+        List<String> candidates = route.models();
+        if (candidates.size() == 1) {
+            return decide(intentType, candidates.get(0), "single");
+        }
+        
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < current.explorationRatio()) {
+            return decide(intentType, candidates.get(random.nextInt(candidates.size())), "explore");
+        }
+        
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+        String fastest = null;
+        long fastestLatency = Long.MAX_VALUE;
+        String unmeasured = null;
+        long sloNanos = TimeUnit.MILLISECONDS.toNanos(route.latencySloMs());
+        for (String model : candidates) {
+            RouteStats stats = routeStats.get(statsKey(intentType, model));
+            // Failed calls record no latency, so a failing model is excluded before it could
+            // pass for one that has not been measured yet
+            if (stats != null && stats.errorRate() > current.maxErrorRate()) {
+                continue;
+            }
+            if (stats == null || stats.latency.size() < current.minSamples()) {
+                if (unmeasured == null) {
+                    unmeasured = model;
+                }
+                continue;
+            }
+            long latency = stats.latency.percentile(current.latencyPercentile());
+            if (latency < fastestLatency) {
+                fastestLatency = latency;
+                fastest = model;
+            }
+            if (latency > sloNanos) {
+                continue;
+            }
+            double score = route.objective() == RoutingPolicy.Objective.FASTEST ?
+                latency :
+                current.costPer1kTokens(model) * stats.completionTokens(route.maxTokens()) / 1000.0;
+            if (score < bestScore) {
+                bestScore = score;
+                best = model;
+            }
         }
         
-        switch (intent.getType()) {
-            case "programming":
-                return "gpt-4o-mini"; // Good for code
-            case "academic":
-                return "gpt-4o-mini"; // Good for math/science
-            case "greeting":
-                return "gpt-3.5-turbo"; // Simple responses
-            case "question":
-            case "instruction":
-                return "gpt-4o-mini"; // Detailed explanations
-            default:
-                return "gpt-4o-mini"; // Default model
+        if (best != null) {
+            return decide(intentType, best, "slo");
+        }
+        if (unmeasured != null) {
+            // Nothing measured meets the SLO yet, so try the next candidate in policy order
+            return decide(intentType, unmeasured, "unmeasured");
         }
+        if (fastest != null) {
+            // Nothing meets the SLO: the least slow model is the best remaining choice
+            return decide(intentType, fastest, "fallback");
+        }
+        return decide(intentType, candidates.get(0), "default");
     }
     
     public int getMaxTokens(Intent intent) {
-        switch (intent.getType()) {
-            case "programming":
-                return 1500; // More tokens for code examples
-            case "academic":
-                return 1200; // Detailed explanations
-            case "greeting":
-                return 100; // Short responses
-            case "instruction":
-                return 1000; // Step-by-step guides
-            default:
-                return 1000; // Default
-        }
+        return currentPolicy().route(intent.getType()).maxTokens();
     }
     
     public double getTemperature(Intent intent) {
-        switch (intent.getType()) {
-            case "programming":
-                return 0.3; // More deterministic for code
-            case "academic":
-                return 0.5; // Balanced for science
-            case "greeting":
-                return 0.8; // More creative for social
-            default:
-                return 0.7; // Default
-        }
-    }
-}
\ No newline at end of file
+        return currentPolicy().route(intent.getType()).temperature();
+    }
+    
+    /**
+     * Records the outcome of a completion routed for the intent. {@code latencyNanos} below zero
+     * skips the latency sample (streamed calls, whose duration reflects the answer length), and
+     * {@code completionTokens} below zero skips the token average.
+     */
+    public void recordOutcome(Intent intent, String model, long latencyNanos, int completionTokens, boolean success) {
+        String intentType = intentType(intent);
+        RouteStats stats = routeStats.computeIfAbsent(statsKey(intentType, model), key -> new RouteStats(intentType, model));
+        stats.record(success ? latencyNanos : -1, completionTokens, success);
+    }
+    
+    public void recordLatency(String model, long nanos) {
+        latencyByModel.computeIfAbsent(model, m -> new LatencyWindow(LATENCY_WINDOW_SIZE)).record(nanos);
+    }
+    
+    /**
+     * Recent upstream latency for a model at the given percentile, in nanoseconds.
+     * Returns -1 until at least {@code minSamples} calls have completed.
+     */
+    public long getLatencyPercentile(String model, double percentile, int minSamples) {
+        LatencyWindow window = latencyByModel.get(model);
+        if (window == null || window.size() < minSamples) {
+            return -1;
+        }
+        return window.percentile(percentile);
+    }
+    
+    private String decide(String intentType, String model, String reason) {
+        decisions.computeIfAbsent(intentType + '|' + model + '|' + reason, key ->
+            Counter.builder("model_routing_decisions_total")
+                .tag("intent", intentType)
+                .tag("model", model)
+                .tag("reason", reason)
+                .description("Model routing decisions by intent, chosen model and reason")
+                .register(meterRegistry)
+        ).increment();
+        return model;
+    }
+    
+    private RoutingPolicy currentPolicy() {
+        long now = System.nanoTime();
+        long next = nextReloadCheck.get();
+        if (now - next >= 0 && nextReloadCheck.compareAndSet(next, now + reloadIntervalNanos)) {
+            reloadIfChanged();
+        }
+        return policy;
+    }
+    
+    private void reloadIfChanged() {
+        long modified = lastModified();
+        if (modified <= 0 || modified == policyLastModified) {
+            return;
+        }
+        try {
+            policy = loadPolicy();
+            policyLastModified = modified;
+            reloadsSucceeded.increment();
+            logger.info("Reloaded routing policy from {}", policyResource);
+        } catch (RuntimeException e) {
+            // Keep serving the last good policy; the next change is tried again
+            policyLastModified = modified;
+            reloadsFailed.increment();
+            logger.error("Ignoring invalid routing policy {}: {}", policyResource, e.getMessage());
+        }
+    }
+    
+    private RoutingPolicy loadPolicy() {
+        Resource source = policyResource.exists() ? policyResource : bundledPolicy;
+        try (InputStream in = source.getInputStream()) {
+            return objectMapper.readValue(in, RoutingPolicy.class).resolve();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read routing policy " + source + ": " + e.getMessage(), e);
+        }
+    }
+    
+    // Zero when the resource has no modification time, e.g. inside a packaged jar, or is missing
+    private long lastModified() {
+        try {
+            return policyResource.isFile() ? policyResource.lastModified() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    
+    private static String intentType(Intent intent) {
+        return intent.getType() != null ? intent.getType() : "general";
+    }
+    
+    private static String statsKey(String intentType, String model) {
+        return intentType + '|' + model;
+    }
+    
+    private final class RouteStats {
+        
+        private final LatencyWindow latency = new LatencyWindow(LATENCY_WINDOW_SIZE);
+        
+        // Guarded by this
+        private double completionTokens = -1;
+        private double errorRate;
+        
+        RouteStats(String intentType, String model) {
+            Gauge.builder("model_routing_latency_seconds", this, RouteStats::latencySeconds)
+                .tag("intent", intentType)
+                .tag("model", model)
+                .description("Recent completion latency per intent and model at the routing policy percentile")
+                .register(meterRegistry);
+            Gauge.builder("model_routing_error_rate", this, RouteStats::errorRate)
+                .tag("intent", intentType)
+                .tag("model", model)
+                .description("Moving average of failed completions per intent and model")
+                .register(meterRegistry);
+        }
+        
+        synchronized void record(long latencyNanos, int tokens, boolean success) {
+            if (latencyNanos >= 0) {
+                latency.record(latencyNanos);
+            }
+            if (tokens >= 0) {
+                completionTokens = completionTokens < 0 ? tokens : completionTokens + STATS_ALPHA * (tokens - completionTokens);
+            }
+            errorRate += STATS_ALPHA * ((success ? 0 : 1) - errorRate);
+        }
+        
+        double latencySeconds() {
+            return latency.size() > 0 ? latency.percentile(policy.latencyPercentile()) / 1e9 : Double.NaN;
+        }
+        
+        synchronized double errorRate() {
+            return errorRate;
+        }
+        
+        // Until usage has been seen the route's token limit stands in as the worst case
+        synchronized double completionTokens(int maxTokens) {
+            return completionTokens < 0 ? maxTokens : completionTokens;
+        }
+    }
+}
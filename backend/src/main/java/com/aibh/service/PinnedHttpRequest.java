@@ -0,0 +1,227 @@
+package com.aibh.service;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A single HTTP/1.1 GET sent to addresses the caller has already resolved and vetted. Clients
+ * that take a host name resolve it again when they connect, and a DNS answer that changes in
+ * between (rebinding) would send the request somewhere that was never checked. TLS still
+ * verifies the certificate against the host name, which is also sent as SNI and in the
+ * {@code Host} header.
+ * <p>
+ * Each request has its own connection and asks the server to close it, so a body that is not
+ * chunked simply ends when the connection does.
+ */
+final class PinnedHttpRequest implements Closeable {
+    
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    
+    private final Socket socket;
+    private final InputStream in;
+    private final int status;
+    private final String location;
+    private final InputStream body;
+    
+    private PinnedHttpRequest(Socket socket, InputStream in, int status, String location, boolean chunked) {
+        this.socket = socket;
+        this.in = in;
+        this.status = status;
+        this.location = location;
+        this.body = chunked ? new ChunkedInputStream(in) : in;
+    }
+    
+    /**
+     * Sends the request to the first of {@code addresses} that accepts a connection and reads
+     * the response headers.
+     */
+    static PinnedHttpRequest get(URI uri, List<InetAddress> addresses, String accept,
+                                 int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        boolean tls = uri.getScheme().equalsIgnoreCase("https");
+        int port = uri.getPort() != -1 ? uri.getPort() : tls ? 443 : 80;
+        Socket socket = connect(addresses, port, connectTimeoutMs);
+        try {
+            socket.setSoTimeout(readTimeoutMs);
+            if (tls) {
+                socket = secure(socket, uri.getHost(), port);
+            }
+            String target = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath())
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            String host = uri.getPort() != -1 ? uri.getHost() + ":" + port : uri.getHost();
+            String request = "GET " + target + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Accept: " + accept + "\r\n"
+                + "User-Agent: ai-bh-backend\r\n"
+                + "Connection: close\r\n\r\n";
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String statusLine = readLine(in);
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/") || !parts[1].matches("\\d{3}")) {
+                throw new IOException("Not an HTTP response: " + statusLine);
+            }
+            int status = Integer.parseInt(parts[1]);
+            String location = null;
+            boolean chunked = false;
+            int headerBytes = statusLine.length();
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                headerBytes += line.length();
+                if (headerBytes > MAX_HEADER_BYTES) {
+                    throw new IOException("Response headers too large");
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("location")) {
+                    location = value;
+                } else if (name.equals("transfer-encoding")) {
+                    chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                }
+            }
+            return new PinnedHttpRequest(socket, in, status, location, chunked);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    int status() {
+        return status;
+    }
+    
+    String location() {
+        return location;
+    }
+    
+    InputStream body() {
+        return body;
+    }
+    
+    /**
+     * Bounds each further read of the body, for callers that enforce an overall deadline.
+     */
+    void setReadTimeout(int readTimeoutMs) throws IOException {
+        socket.setSoTimeout(readTimeoutMs);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            socket.close();
+        }
+    }
+    
+    private static Socket connect(List<InetAddress> addresses, int port, int connectTimeoutMs) throws IOException {
+        IOException lastFailure = null;
+        for (InetAddress address : addresses) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address, port), connectTimeoutMs);
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                lastFailure = e;
+            }
+        }
+        throw lastFailure != null ? lastFailure : new IOException("No address to connect to");
+    }
+    
+    private static Socket secure(Socket socket, String host, int port) throws IOException {
+        SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+        SSLParameters parameters = ssl.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        ssl.setSSLParameters(parameters);
+        ssl.startHandshake();
+        return ssl;
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed before the end of a line");
+            }
+            if (line.size() >= MAX_HEADER_BYTES) {
+                throw new IOException("Response header line too long");
+            }
+            line.write(b);
+        }
+        String text = line.toString(StandardCharsets.ISO_8859_1);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+    
+    /**
+     * Decodes a chunked body; trailers are left unread since the connection is closed after.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        
+        private final InputStream in;
+        private long remaining;
+        private boolean started;
+        private boolean finished;
+        
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (remaining == 0) {
+                if (started) {
+                    readLine(in);
+                }
+                started = true;
+                String size = readLine(in);
+                int extension = size.indexOf(';');
+                try {
+                    remaining = Long.parseLong((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + size, e);
+                }
+                if (remaining == 0) {
+                    finished = true;
+                    return -1;
+                }
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed in a chunk");
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+}
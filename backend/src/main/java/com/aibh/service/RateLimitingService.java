@@ -1,5 +1,7 @@
 package com.aibh.service;
 
+import com.aibh.model.Role;
+import com.aibh.security.UserPrincipal;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
 import io.github.bucket4j.Refill;
@@ -65,6 +67,13 @@ public class RateLimitingService {
         return getBucket(key, type).getAvailableTokens();
     }
     
+    public static RateLimitType typeOf(UserPrincipal userPrincipal) {
+        if (userPrincipal == null) {
+            return RateLimitType.ANONYMOUS;
+        }
+        return userPrincipal.getRole() == Role.ADMIN ? RateLimitType.ADMIN : RateLimitType.USER;
+    }
+    
     public enum RateLimitType {
         ANONYMOUS, USER, ADMIN
     }
@@ -0,0 +1,186 @@
+package com.aibh.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing for upstream completions. The first request for a key becomes the
+ * leader and makes the call; identical requests arriving while it is in flight wait for the
+ * leader's result instead of calling upstream themselves. Streaming joiners are first sent
+ * everything streamed so far and then follow the leader's deltas live, each on its own thread:
+ * the leader only appends to the flight's buffer, so a slow client never holds up the upstream
+ * read or the other clients. A failure is rethrown to the leader and to every waiter.
+ */
+@Service
+public class RequestCoalescingService {
+    
+    private final ConcurrentMap<Object, Flight> flights = new ConcurrentHashMap<>();
+    
+    private final Counter leaders;
+    private final Counter coalesced;
+    
+    @Value("${aibh.coalescing.enabled:true}")
+    private boolean enabled;
+    
+    public RequestCoalescingService(MeterRegistry meterRegistry) {
+        this.leaders = Counter.builder("upstream_coalescing_requests_total")
+            .tag("role", "leader")
+            .description("Requests that made the upstream call for their key")
+            .register(meterRegistry);
+        this.coalesced = Counter.builder("upstream_coalescing_requests_total")
+            .tag("role", "coalesced")
+            .description("Requests that shared an identical in-flight upstream call")
+            .register(meterRegistry);
+        Gauge.builder("upstream_coalescing_in_flight", flights, ConcurrentMap::size)
+            .description("Distinct upstream calls currently shared by coalesced requests")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Runs {@code call} unless an identical call is already in flight, in which case its
+     * result is returned. A null key disables coalescing for the request.
+     */
+    public String execute(Object key, Supplier<String> call) {
+        if (!enabled || key == null) {
+            return call.get();
+        }
+        Flight flight = new Flight();
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.await();
+        }
+        return lead(key, flight, call);
+    }
+    
+    /**
+     * Streaming variant of {@link #execute}. The leader's {@code call} receives a consumer that
+     * records each delta for the joiners and forwards it to the leader's own {@code onDelta}.
+     * Joiners are sent what has been streamed since they last looked, in order, so consecutive
+     * deltas may reach them merged. A joiner of a non-streaming call gets the whole result as
+     * one delta when it completes.
+     */
+    public String executeStreaming(Object key, Consumer<String> onDelta, Function<Consumer<String>, String> call) {
+        if (!enabled || key == null) {
+            return call.apply(onDelta);
+        }
+        Flight flight = new Flight();
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            int sent = existing.follow(onDelta);
+            String result = existing.await();
+            if (sent == 0 && result != null && !result.isEmpty()) {
+                onDelta.accept(result);
+            }
+            return result;
+        }
+        return lead(key, flight, () -> call.apply(delta -> {
+            flight.publish(delta);
+            onDelta.accept(delta);
+        }));
+    }
+    
+    private String lead(Object key, Flight flight, Supplier<String> call) {
+        leaders.increment();
+        try {
+            String result = call.get();
+            flight.finish(() -> flight.result.complete(result));
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.finish(() -> flight.result.completeExceptionally(e));
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+    
+    private static final class Flight {
+        
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final StringBuilder streamed = new StringBuilder();
+        // Held only to touch the buffer; deltas are never delivered under it
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        
+        void publish(String delta) {
+            lock.lock();
+            try {
+                streamed.append(delta);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        void finish(Runnable completion) {
+            lock.lock();
+            try {
+                completion.run();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Sends {@code listener} everything streamed so far, then what follows, until the
+         * leader's call completes. Runs on the joiner's thread; returns the characters sent.
+         */
+        int follow(Consumer<String> listener) {
+            int sent = 0;
+            while (true) {
+                String chunk;
+                boolean done;
+                lock.lock();
+                try {
+                    while (streamed.length() == sent && !result.isDone()) {
+                        changed.awaitUninterruptibly();
+                    }
+                    chunk = streamed.substring(sent);
+                    done = result.isDone();
+                } finally {
+                    lock.unlock();
+                }
+                if (!chunk.isEmpty()) {
+                    listener.accept(chunk);
+                    sent += chunk.length();
+                }
+                if (done) {
+                    return sent;
+                }
+            }
+        }
+        
+        String await() {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a coalesced upstream call", e);
+            }
+        }
+    }
+}
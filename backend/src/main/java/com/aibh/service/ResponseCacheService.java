@@ -0,0 +1,161 @@
+package com.aibh.service;
+
+import com.aibh.model.ChatMessage;
+import com.aibh.model.Intent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Exact-match cache for upstream completions. Entries are keyed on the selected model,
+ * temperature, the normalized user message and a fingerprint of the optimized context, so a
+ * cached answer is only reused for an identical prompt. Time-to-live depends on the intent
+ * and the cache is bounded by the approximate memory its responses occupy.
+ */
+@Service
+public class ResponseCacheService {
+    
+    private final Cache<Key, Entry> cache;
+    
+    @Value("${aibh.cache.response.enabled:true}")
+    private boolean enabled;
+    
+    public ResponseCacheService(MeterRegistry meterRegistry,
+                                @Value("${aibh.cache.response.max-bytes:67108864}") long maxBytes) {
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((Key key, Entry entry) -> key.weight() + entry.response().length() * 2)
+            .expireAfter(new Expiry<Key, Entry>() {
+                @Override
+                public long expireAfterCreate(Key key, Entry entry, long currentTime) {
+                    return entry.ttl().toNanos();
+                }
+                
+                @Override
+                public long expireAfterUpdate(Key key, Entry entry, long currentTime, long currentDuration) {
+                    return entry.ttl().toNanos();
+                }
+                
+                @Override
+                public long expireAfterRead(Key key, Entry entry, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+        
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "llm_response_cache");
+    }
+    
+    public Key buildKey(String model, double temperature, String userMessage, List<ChatMessage> context) {
+        return new Key(model, temperature, normalize(userMessage), fingerprint(context));
+    }
+    
+    /**
+     * Returns the cached response for the key, or {@code null} on a miss.
+     */
+    public String get(Key key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(key);
+        return entry != null ? entry.response() : null;
+    }
+    
+    public void put(Key key, String response, Intent intent) {
+        if (!enabled || response == null || response.isEmpty()) {
+            return;
+        }
+        Duration ttl = getTimeToLive(intent);
+        if (!ttl.isZero()) {
+            cache.put(key, new Entry(response, ttl));
+        }
+    }
+    
+    private Duration getTimeToLive(Intent intent) {
+        switch (intent.getType()) {
+            case "greeting":
+                return Duration.ofHours(24); // Canned social replies never go stale
+            case "question":
+            case "academic":
+                return Duration.ofHours(6); // Definitions and facts are stable
+            case "programming":
+            case "instruction":
+                return Duration.ofHours(1);
+            default:
+                return Duration.ofMinutes(10); // Open-ended conversation
+        }
+    }
+    
+    static String normalize(String message) {
+        if (message == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(message.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+        }
+        // Trailing punctuation does not change the question
+        int end = normalized.length();
+        while (end > 0 && "?!.".indexOf(normalized.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+    
+    private String fingerprint(List<ChatMessage> context) {
+        if (context == null || context.isEmpty()) {
+            return "";
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (ChatMessage message : context) {
+                update(digest, message.getUserMessage());
+                update(digest, message.getAiResponse());
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private void update(MessageDigest digest, String text) {
+        if (text != null) {
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0); // Separator so turn boundaries affect the hash
+    }
+    
+    public record Key(String model, double temperature, String normalizedMessage, String contextFingerprint) {
+        
+        int weight() {
+            return 64 + (model.length() + normalizedMessage.length() + contextFingerprint.length()) * 2;
+        }
+    }
+    
+    private record Entry(String response, Duration ttl) {
+    }
+}
@@ -0,0 +1,71 @@
+package com.aibh.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model routing policy as loaded by {@link ModelRoutingService}. Each intent lists its
+ * candidate models in order of preference together with request parameters and a latency SLO;
+ * fields an intent leaves out are taken from {@code defaults}.
+ */
+public record RoutingPolicy(
+    String visionModel,
+    double explorationRatio,
+    double latencyPercentile,
+    int minSamples,
+    double maxErrorRate,
+    Route defaults,
+    Map<String, Route> intents,
+    Map<String, ModelInfo> models
+) {
+    
+    public enum Objective { CHEAPEST, FASTEST }
+    
+    public record Route(List<String> models, Integer maxTokens, Double temperature, Long latencySloMs, Objective objective) {
+        
+        Route withDefaults(Route defaults) {
+            return new Route(
+                models != null && !models.isEmpty() ? List.copyOf(models) : defaults.models(),
+                maxTokens != null ? maxTokens : defaults.maxTokens(),
+                temperature != null ? temperature : defaults.temperature(),
+                latencySloMs != null ? latencySloMs : defaults.latencySloMs(),
+                objective != null ? objective : defaults.objective()
+            );
+        }
+    }
+    
+    public record ModelInfo(double costPer1kTokens) {}
+    
+    /**
+     * Checks the policy and fills every intent's missing fields from the defaults.
+     */
+    RoutingPolicy resolve() {
+        if (defaults == null || defaults.models() == null || defaults.models().isEmpty()
+                || defaults.maxTokens() == null || defaults.temperature() == null
+                || defaults.latencySloMs() == null || defaults.objective() == null) {
+            throw new IllegalArgumentException("Routing policy defaults must set models, maxTokens, temperature, latencySloMs and objective");
+        }
+        if (visionModel == null || visionModel.isBlank()) {
+            throw new IllegalArgumentException("Routing policy must set visionModel");
+        }
+        if (explorationRatio < 0 || explorationRatio > 1 || latencyPercentile <= 0 || latencyPercentile > 1) {
+            throw new IllegalArgumentException("Routing policy explorationRatio and latencyPercentile must lie in [0, 1]");
+        }
+        Map<String, Route> resolved = new HashMap<>();
+        if (intents != null) {
+            intents.forEach((intent, route) -> resolved.put(intent, route.withDefaults(defaults)));
+        }
+        return new RoutingPolicy(visionModel, explorationRatio, latencyPercentile, Math.max(1, minSamples), maxErrorRate,
+            defaults, Map.copyOf(resolved), models != null ? Map.copyOf(models) : Map.of());
+    }
+    
+    public Route route(String intentType) {
+        return intentType != null ? intents.getOrDefault(intentType, defaults) : defaults;
+    }
+    
+    public double costPer1kTokens(String model) {
+        ModelInfo info = models.get(model);
+        return info != null ? info.costPer1kTokens() : 0.0;
+    }
+}
@@ -0,0 +1,187 @@
+package com.aibh.service;
+
+import com.aibh.model.ChatMessage;
+import com.aibh.model.Intent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Semantic tier behind {@link ResponseCacheService}. Context-free prompts are embedded with
+ * the OpenAI embedding model and matched against previously answered prompts for the same
+ * model and intent; a stored answer is reused when the cosine similarity clears that intent's
+ * threshold. Vectors are normalized once on insert so a lookup is a dot-product scan over a
+ * bounded store whose eviction is handled by Caffeine (frequency and recency aware).
+ */
+@Service
+public class SemanticCacheService {
+    
+    private final EmbeddingService embeddingService;
+    private final Cache<Long, Entry> store;
+    private final AtomicLong ids = new AtomicLong();
+    
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer lookupTime;
+    private final DistributionSummary similarity;
+    
+    @Value("${aibh.cache.semantic.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${aibh.cache.semantic.include-history:false}")
+    private boolean includeHistory;
+    
+    @Value("${aibh.cache.semantic.threshold.default:0.95}")
+    private double defaultThreshold;
+    
+    @Value("${aibh.cache.semantic.threshold.greeting:0.90}")
+    private double greetingThreshold;
+    
+    @Value("${aibh.cache.semantic.threshold.question:0.93}")
+    private double questionThreshold;
+    
+    @Value("${aibh.cache.semantic.threshold.programming:0.96}")
+    private double programmingThreshold;
+    
+    public SemanticCacheService(EmbeddingService embeddingService, MeterRegistry meterRegistry,
+                                @Value("${aibh.cache.semantic.max-entries:2000}") long maxEntries,
+                                @Value("${aibh.cache.semantic.ttl-minutes:360}") long ttlMinutes) {
+        this.embeddingService = embeddingService;
+        this.store = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, store, "llm_semantic_cache");
+        
+        this.hits = Counter.builder("semantic_cache_requests_total")
+            .tag("result", "hit")
+            .description("Semantic cache lookups")
+            .register(meterRegistry);
+        this.misses = Counter.builder("semantic_cache_requests_total")
+            .tag("result", "miss")
+            .description("Semantic cache lookups")
+            .register(meterRegistry);
+        this.lookupTime = Timer.builder("semantic_cache_lookup_time")
+            .description("Embedding plus nearest-neighbour search time per lookup")
+            .register(meterRegistry);
+        this.similarity = DistributionSummary.builder("semantic_cache_best_similarity")
+            .description("Best cosine similarity found per lookup")
+            .publishPercentiles(0.5, 0.9, 0.99)
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Embeds the prompt and searches for a close enough answered prompt. The returned lookup
+     * carries the embedding so a miss can be stored later without embedding twice.
+     */
+    public Lookup lookup(String model, Intent intent, String userMessage, List<ChatMessage> context) {
+        if (!enabled || (!includeHistory && context != null && !context.isEmpty())) {
+            return Lookup.SKIPPED;
+        }
+        
+        long start = System.nanoTime();
+        float[] embedding = normalize(embeddingService.generateModelEmbedding(userMessage));
+        if (embedding == null) {
+            return Lookup.SKIPPED;
+        }
+        
+        Entry best = null;
+        double bestScore = -1;
+        for (var candidate : store.asMap().entrySet()) {
+            Entry entry = candidate.getValue();
+            if (!entry.model().equals(model) || !entry.intentType().equals(intent.getType())
+                    || entry.embedding().length != embedding.length) {
+                continue;
+            }
+            double score = dot(embedding, entry.embedding());
+            if (score > bestScore) {
+                bestScore = score;
+                best = entry;
+            }
+        }
+        lookupTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        
+        if (best != null) {
+            similarity.record(bestScore);
+        }
+        if (best != null && bestScore >= getThreshold(intent)) {
+            hits.increment();
+            store.getIfPresent(best.id()); // Count the hit towards eviction ordering
+            return new Lookup(model, intent.getType(), embedding, best.response());
+        }
+        misses.increment();
+        return new Lookup(model, intent.getType(), embedding, null);
+    }
+    
+    public void store(Lookup lookup, String response) {
+        if (!enabled || lookup.embedding() == null || response == null || response.isEmpty()) {
+            return;
+        }
+        long id = ids.incrementAndGet();
+        store.put(id, new Entry(id, lookup.model(), lookup.intentType(), lookup.embedding(), response));
+    }
+    
+    private double getThreshold(Intent intent) {
+        switch (intent.getType()) {
+            case "greeting":
+                return greetingThreshold;
+            case "question":
+                return questionThreshold;
+            case "programming":
+                return programmingThreshold;
+            default:
+                return defaultThreshold;
+        }
+    }
+    
+    private static float[] normalize(float[] vector) {
+        if (vector == null) {
+            return null;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * scale;
+        }
+        return unit;
+    }
+    
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+    
+    public record Lookup(String model, String intentType, float[] embedding, String response) {
+        
+        public static final Lookup SKIPPED = new Lookup(null, null, null, null);
+        
+        public boolean hit() {
+            return response != null;
+        }
+    }
+    
+    private record Entry(long id, String model, String intentType, float[] embedding, String response) {
+    }
+}
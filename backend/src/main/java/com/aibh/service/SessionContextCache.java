@@ -0,0 +1,299 @@
+package com.aibh.service;
+
+import com.aibh.model.ChatMessage;
+import com.aibh.model.Conversation;
+import com.aibh.model.ConversationEmbedding;
+import com.aibh.model.MemoryContext;
+import com.aibh.repository.ChatMessageRepository;
+import com.aibh.repository.ConversationEmbeddingRepository;
+import com.aibh.repository.MemoryContextRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * Write-through cache of active chat sessions: the conversation, its owner, the rolling summary
+ * and the last turns, kept as lean copies ready for prompting, plus the embeddings of older
+ * turns that relevance-based context selection can pick from. A session is read from the
+ * database on its first turn after startup or after going idle; later turns are answered from
+ * the cache and only insert the new message. Assumes a session is served by one instance.
+ */
+@Service
+public class SessionContextCache {
+    
+    private final Cache<String, SessionContext> sessions;
+    private final ChatMessageRepository chatMessageRepository;
+    private final MemoryContextRepository memoryContextRepository;
+    private final ConversationEmbeddingRepository conversationEmbeddingRepository;
+    private final int historyTurns;
+    private final boolean summariesEnabled;
+    private final int candidateTurns;
+    
+    public SessionContextCache(ChatMessageRepository chatMessageRepository, MemoryContextRepository memoryContextRepository,
+                               ConversationEmbeddingRepository conversationEmbeddingRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${aibh.session-cache.max-bytes:33554432}") long maxBytes,
+                               @Value("${aibh.session-cache.idle-minutes:30}") long idleMinutes,
+                               @Value("${aibh.summary.history-turns:10}") int historyTurns,
+                               @Value("${aibh.summary.enabled:true}") boolean summariesEnabled,
+                               @Value("${aibh.context.relevance.enabled:true}") boolean relevanceEnabled,
+                               @Value("${aibh.context.relevance.candidate-turns:50}") int candidateTurns) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.memoryContextRepository = memoryContextRepository;
+        this.conversationEmbeddingRepository = conversationEmbeddingRepository;
+        this.historyTurns = Math.max(1, historyTurns);
+        this.summariesEnabled = summariesEnabled;
+        this.candidateTurns = relevanceEnabled ? Math.max(0, candidateTurns) : 0;
+        this.sessions = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String sessionId, SessionContext session) -> session.weight())
+            .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+            .recordStats()
+            .build();
+        
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "session_context_cache");
+    }
+    
+    /**
+     * The cached session, or null when it is not cached or belongs to another user.
+     */
+    public SessionContext get(String sessionId, Long userId) {
+        SessionContext session = sessions.getIfPresent(sessionId);
+        return session != null && session.userId.equals(userId) ? session : null;
+    }
+    
+    /**
+     * Reads the session's recent turns, summary and turn embeddings for {@code conversation} and
+     * caches them.
+     */
+    public SessionContext load(Conversation conversation, Long userId) {
+        String sessionId = conversation.getSessionId();
+        SessionContext session = new SessionContext(sessionId, conversation.getId(), userId, historyTurns, candidateTurns);
+        // Newest first from the query
+        List<ChatMessage> recent = chatMessageRepository.findRecentBySessionIdWithLimit(sessionId, historyTurns);
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            session.append(recent.get(i));
+        }
+        MemoryContext memory = summariesEnabled ? memoryContextRepository.findBySessionId(sessionId).orElse(null) : null;
+        if (memory != null && StringUtils.hasText(memory.getContextSummary()) && memory.getSummarizedMessageId() != null) {
+            session.summarized(memory.getContextSummary(), memory.getSummarizedMessageId());
+        }
+        if (candidateTurns > 0) {
+            List<ConversationEmbedding> embeddings = conversationEmbeddingRepository
+                .findByConversationIdOrderByChatMessageIdDesc(conversation.getId(), PageRequest.of(0, candidateTurns));
+            for (int i = embeddings.size() - 1; i >= 0; i--) {
+                ConversationEmbedding embedding = embeddings.get(i);
+                session.embedded(embedding.getChatMessageId(), embedding.getTokenCount(),
+                    ContextSelector.quantize(embedding.getEmbeddingVector()));
+            }
+        }
+        sessions.put(sessionId, session);
+        return session;
+    }
+    
+    /**
+     * Adds a just saved turn to the session.
+     */
+    public void append(SessionContext session, ChatMessage saved) {
+        session.append(saved);
+        reweigh(session);
+    }
+    
+    /**
+     * Records a new rolling summary for the session if it is cached.
+     */
+    public void summarized(String sessionId, String summary, long summarizedMessageId) {
+        SessionContext session = sessions.getIfPresent(sessionId);
+        if (session != null) {
+            session.summarized(summary, summarizedMessageId);
+            reweigh(session);
+        }
+    }
+    
+    /**
+     * Adds the unit-length embedding of a saved turn to the session.
+     */
+    public void embedded(SessionContext session, long chatMessageId, int tokens, float[] embedding) {
+        if (candidateTurns > 0) {
+            session.embedded(chatMessageId, tokens, ContextSelector.quantize(embedding));
+            reweigh(session);
+        }
+    }
+    
+    public void invalidate(String sessionId) {
+        sessions.invalidate(sessionId);
+    }
+    
+    // Re-inserting lets the cache see the new weight; a session evicted meanwhile stays out
+    private void reweigh(SessionContext session) {
+        sessions.asMap().replace(session.sessionId, session, session);
+    }
+    
+    /**
+     * One cached session. Turns are held in a ring of the last {@code historyTurns}, as unsaved
+     * copies carrying only what a prompt needs; embeddings in a ring of the last
+     * {@code candidateTurns}, with the turn's id and prompt tokens.
+     */
+    public static final class SessionContext {
+        
+        private final String sessionId;
+        private final Long conversationId;
+        private final Long userId;
+        private final ChatMessage[] turns;
+        private int next;
+        private int size;
+        private String summary;
+        private long summarizedMessageId;
+        private final long[] embeddedIds;
+        private final int[] embeddedTokens;
+        private final byte[][] embeddings;
+        private int nextEmbedded;
+        private int sizeEmbedded;
+        private int weight;
+        
+        SessionContext(String sessionId, Long conversationId, Long userId, int historyTurns, int candidateTurns) {
+            this.sessionId = Objects.requireNonNull(sessionId);
+            this.conversationId = Objects.requireNonNull(conversationId);
+            this.userId = Objects.requireNonNull(userId);
+            this.turns = new ChatMessage[historyTurns];
+            this.embeddedIds = new long[candidateTurns];
+            this.embeddedTokens = new int[candidateTurns];
+            this.embeddings = new byte[candidateTurns][];
+            this.weight = 128 + sessionId.length() * 2 + candidateTurns * 12;
+        }
+        
+        public String getSessionId() {
+            return sessionId;
+        }
+        
+        public Long getConversationId() {
+            return conversationId;
+        }
+        
+        public Long getUserId() {
+            return userId;
+        }
+        
+        /**
+         * Whether the conversation has no saved turn yet.
+         */
+        public synchronized boolean isEmpty() {
+            return size == 0 && summary == null;
+        }
+        
+        /**
+         * History to answer the next turn from, oldest first: the summary, if there is one,
+         * then the recent turns it does not cover yet.
+         */
+        public synchronized List<ChatMessage> context() {
+            List<ChatMessage> context = new ArrayList<>(size + 1);
+            if (summary != null) {
+                context.add(ChatMessage.summary(sessionId, summary));
+            }
+            for (int i = 0; i < size; i++) {
+                ChatMessage turn = turns[Math.floorMod(next - size + i, turns.length)];
+                if (turn.getId() > summarizedMessageId) {
+                    context.add(turn);
+                }
+            }
+            return context;
+        }
+        
+        /**
+         * Turns relevance selection can choose from, with their age: the embedded ones and the
+         * recent ones, which score on recency alone while their embedding is not in yet.
+         * Summarized turns are included, since a summary does not keep every detail.
+         */
+        synchronized List<ContextSelector.Candidate> candidates(ToIntFunction<ChatMessage> tokens) {
+            Map<Long, ContextSelector.Candidate> byId = new HashMap<>();
+            for (int i = 0; i < sizeEmbedded; i++) {
+                int slot = Math.floorMod(nextEmbedded - sizeEmbedded + i, embeddedIds.length);
+                byId.put(embeddedIds[slot], new ContextSelector.Candidate(embeddedIds[slot], 0, embeddedTokens[slot], embeddings[slot]));
+            }
+            for (int i = 0; i < size; i++) {
+                ChatMessage turn = turns[Math.floorMod(next - size + i, turns.length)];
+                byId.putIfAbsent(turn.getId(), new ContextSelector.Candidate(turn.getId(), 0, tokens.applyAsInt(turn), null));
+            }
+            List<ContextSelector.Candidate> candidates = new ArrayList<>(byId.values());
+            candidates.sort((a, b) -> Long.compare(b.id(), a.id()));
+            for (int age = 0; age < candidates.size(); age++) {
+                ContextSelector.Candidate candidate = candidates.get(age);
+                candidates.set(age, new ContextSelector.Candidate(candidate.id(), age, candidate.tokens(), candidate.embedding()));
+            }
+            return candidates;
+        }
+        
+        /**
+         * The cached copy of a turn, or null when it has left the ring.
+         */
+        synchronized ChatMessage turn(long id) {
+            for (int i = 0; i < size; i++) {
+                if (turns[i].getId() == id) {
+                    return turns[i];
+                }
+            }
+            return null;
+        }
+        
+        synchronized void append(ChatMessage saved) {
+            ChatMessage turn = new ChatMessage(sessionId, saved.getUserMessage(), saved.getAiResponse(), saved.getMessageType());
+            turn.setId(saved.getId());
+            turn.setTokensUsed(saved.getTokensUsed());
+            ChatMessage replaced = turns[next];
+            if (replaced != null) {
+                weight -= weightOf(replaced);
+            }
+            turns[next] = turn;
+            next = (next + 1) % turns.length;
+            size = Math.min(size + 1, turns.length);
+            weight += weightOf(turn);
+        }
+        
+        synchronized void summarized(String summary, long summarizedMessageId) {
+            if (summarizedMessageId < this.summarizedMessageId) {
+                return;
+            }
+            weight += (summary.length() - (this.summary != null ? this.summary.length() : 0)) * 2;
+            this.summary = summary;
+            this.summarizedMessageId = summarizedMessageId;
+        }
+        
+        synchronized void embedded(long id, int tokens, byte[] embedding) {
+            if (embeddedIds.length == 0) {
+                return;
+            }
+            byte[] replaced = embeddings[nextEmbedded];
+            if (replaced != null) {
+                weight -= replaced.length;
+            }
+            embeddedIds[nextEmbedded] = id;
+            embeddedTokens[nextEmbedded] = tokens;
+            embeddings[nextEmbedded] = embedding;
+            nextEmbedded = (nextEmbedded + 1) % embeddedIds.length;
+            sizeEmbedded = Math.min(sizeEmbedded + 1, embeddedIds.length);
+            weight += embedding.length;
+        }
+        
+        synchronized int weight() {
+            return weight;
+        }
+        
+        private static int weightOf(ChatMessage turn) {
+            return 64 + ((turn.getUserMessage() != null ? turn.getUserMessage().length() : 0)
+                + (turn.getAiResponse() != null ? turn.getAiResponse().length() : 0)) * 2;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.aibh.service;
+
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Normalizes and classifies a message in one pass, for intent detection and the fallback
+ * embedding. All keyword tables are compiled into a single
+ * {@link KeywordAutomaton} at startup; the scan lowercases and trims on the fly and allocates
+ * nothing but the returned {@link Features}, where the old code built a lowercase copy and ran a
+ * {@code contains} or regex per keyword. Keyword tables compiled elsewhere, such as the local
+ * answers', can ride along in the same pass.
+ * <p>
+ * Each {@link Group} can be overridden with a comma separated list under
+ * {@code aibh.text.keywords.<group>}, e.g. {@code aibh.text.keywords.greeting=hello,hi,hey};
+ * an empty list disables the group.
+ */
+@Service
+public class TextClassifier {
+    
+    /**
+     * How a keyword has to sit in the trimmed, lowercased message to count.
+     */
+    public enum Match {
+        /** Anywhere in the message. */
+        CONTAINS,
+        /** At the start of the message. */
+        PREFIX,
+        /** Anywhere, between word boundaries as in regex {@code \b}. */
+        WORD,
+        /** The whole message, optionally followed by a single {@code !}. */
+        WHOLE
+    }
+    
+    public enum Group {
+        PYTHON(Match.CONTAINS, "python"),
+        JAVA(Match.CONTAINS, "java"),
+        JAVASCRIPT(Match.CONTAINS, "javascript"),
+        SPRING(Match.CONTAINS, "spring"),
+        DJANGO(Match.CONTAINS, "django"),
+        REACT(Match.CONTAINS, "react"),
+        MATH(Match.CONTAINS, "math"),
+        CALCULUS(Match.CONTAINS, "calculus"),
+        PHYSICS(Match.CONTAINS, "physics"),
+        TECHNICAL(Match.WORD, "code", "function", "class", "method", "api", "database"),
+        GREETING(Match.WHOLE, "hello", "hi", "hey", "good morning", "good afternoon", "good evening"),
+        QUESTION_MARK(Match.CONTAINS, "?"),
+        DEFINITION_PREFIX(Match.PREFIX, "what is", "what are"),
+        INSTRUCTION_PREFIX(Match.PREFIX, "how to", "how do"),
+        HOW_PREFIX(Match.PREFIX, "how"),
+        WHAT_PREFIX(Match.PREFIX, "what");
+        
+        private final Match match;
+        private final String[] defaultKeywords;
+        
+        Group(Match match, String... defaultKeywords) {
+            this.match = match;
+            this.defaultKeywords = defaultKeywords;
+        }
+        
+        public Match getMatch() { return match; }
+        
+        String propertyName() {
+            return "aibh.text.keywords." + name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+    
+    /**
+     * What one pass over a message found. {@code hash} equals
+     * {@code text.toLowerCase().trim().hashCode()} for text whose lowercase form keeps its length.
+     * {@code uniqueChars} is exact for Latin-1 text and approximate beyond it.
+     * {@code lettersOrDigits} counts the characters for which {@link Character#isLetterOrDigit}
+     * holds.
+     */
+    public record Features(long groups, int length, int wordCount, int uniqueChars, int lettersOrDigits, int hash) {
+        
+        public boolean has(Group group) {
+            return (groups & 1L << group.ordinal()) != 0;
+        }
+        
+        public boolean hasAny(Group first, Group second) {
+            return (groups & (1L << first.ordinal() | 1L << second.ordinal())) != 0;
+        }
+    }
+    
+    private static final Group[] GROUPS = Group.values();
+    private static final KeywordAutomaton[] NO_AUTOMATA = new KeywordAutomaton[0];
+    
+    private final KeywordAutomaton automaton;
+    
+    public TextClassifier(Environment environment) {
+        List<KeywordAutomaton.Keyword> keywords = new ArrayList<>();
+        for (Group group : GROUPS) {
+            String[] configured = environment.getProperty(group.propertyName(), String[].class, group.defaultKeywords);
+            for (String keyword : configured) {
+                String text = keyword.toLowerCase(Locale.ROOT).strip();
+                if (!text.isEmpty()) {
+                    keywords.add(new KeywordAutomaton.Keyword(text, group.ordinal(), group.match));
+                }
+            }
+        }
+        this.automaton = new KeywordAutomaton(keywords);
+    }
+    
+    public Features classify(String text) {
+        return classify(text, NO_AUTOMATA, null);
+    }
+    
+    /**
+     * Classifies {@code text} and, in the same pass, runs it through {@code others}, whose
+     * matches are left in {@code matches}.
+     */
+    Features classify(String text, KeywordAutomaton[] others, KeywordAutomaton.Matches matches) {
+        int start = KeywordAutomaton.trimStart(text);
+        int end = KeywordAutomaton.trimEnd(text, start);
+        if (matches != null) {
+            matches.reset(others.length);
+        }
+        
+        long groups = 0;
+        int state = 0;
+        int words = 0;
+        int lettersOrDigits = 0;
+        boolean inWord = false;
+        int hash = 0;
+        // Seen Latin-1 characters, plus a 64-bit hash set for anything beyond
+        long seen0 = 0, seen1 = 0, seen2 = 0, seen3 = 0, seenOther = 0;
+        for (int i = start; i < end; i++) {
+            char c = KeywordAutomaton.toLowerCase(text.charAt(i));
+            hash = 31 * hash + c;
+            switch (c >>> 6) {
+                case 0 -> seen0 |= 1L << c;
+                case 1 -> seen1 |= 1L << c;
+                case 2 -> seen2 |= 1L << c;
+                case 3 -> seen3 |= 1L << c;
+                default -> seenOther |= 1L << (c * 0x9E3779B9 >>> 26);
+            }
+            boolean space = isWhitespace(c);
+            if (!space && !inWord) {
+                words++;
+            }
+            inWord = !space;
+            if (c < 0x80 ? (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') : Character.isLetterOrDigit(c)) {
+                lettersOrDigits++;
+            }
+        
+            state = automaton.next(state, c);
+            groups |= automaton.groupMask(state);
+            int[] anchored = automaton.anchoredPatterns(state);
+            for (int pattern : anchored) {
+                int group = automaton.patternGroup(pattern);
+                if ((groups & 1L << group) == 0 && automaton.matchesAt(text, start, end, i, pattern)) {
+                    groups |= 1L << group;
+                }
+            }
+            for (int k = 0; k < others.length; k++) {
+                others[k].advance(matches, k, text, start, end, i, c);
+            }
+        }
+        
+        int uniqueChars = Long.bitCount(seen0) + Long.bitCount(seen1) + Long.bitCount(seen2)
+            + Long.bitCount(seen3) + Long.bitCount(seenOther);
+        // String.split on an empty string still yields one element
+        return new Features(groups, end - start, Math.max(1, words), uniqueChars, lettersOrDigits, hash);
+    }
+    
+    // Same set as regex \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
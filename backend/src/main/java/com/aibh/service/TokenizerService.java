@@ -0,0 +1,79 @@
+package com.aibh.service;
+
+import com.aibh.model.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Token counts for context budgets, quota pacing and {@code tokensUsed}, from the
+ * {@link BpeEncoding} of the configured vocabulary, which {@code scripts/fetch-tokenizer.sh}
+ * downloads for the build. A configured vocabulary that cannot be found stops the startup; only
+ * an empty location falls back to the old estimate of four characters per token.
+ */
+@Service
+public class TokenizerService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TokenizerService.class);
+    
+    /**
+     * Tokens the chat format adds around each message (role and delimiters), and to prime the reply.
+     */
+    public static final int TOKENS_PER_MESSAGE = 3;
+    public static final int TOKENS_PER_REPLY = 3;
+    
+    private final BpeEncoding encoding;
+    
+    public TokenizerService(ResourceLoader resourceLoader,
+                            @Value("${aibh.tokenizer.encoding:cl100k_base}") String encodingName,
+                            @Value("${aibh.tokenizer.vocabulary-location:classpath:tokenizer/cl100k_base.tiktoken}") String vocabularyLocation) {
+        if (!StringUtils.hasText(vocabularyLocation)) {
+            logger.warn("No tokenizer vocabulary configured; estimating four characters per token");
+            this.encoding = null;
+            return;
+        }
+        Resource resource = resourceLoader.getResource(vocabularyLocation);
+        if (!resource.exists()) {
+            // Token budgets and quotas would silently drift from what the provider counts
+            throw new IllegalStateException("Tokenizer vocabulary " + vocabularyLocation + " not found; run "
+                + "scripts/fetch-tokenizer.sh before building, or set aibh.tokenizer.vocabulary-location= to estimate");
+        }
+        try (InputStream in = resource.getInputStream()) {
+            this.encoding = BpeEncoding.load(encodingName, in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read tokenizer vocabulary " + vocabularyLocation + ": " + e.getMessage(), e);
+        }
+        logger.info("Loaded {} tokenizer with {} tokens from {}", encodingName, encoding.size(), vocabularyLocation);
+    }
+    
+    public int countTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return encoding != null ? encoding.count(text) : text.length() / 4;
+    }
+    
+    /**
+     * Tokens a past turn takes in a prompt: its user and assistant messages with their overhead.
+     * Saved turns already carry the count in {@code tokensUsed}, so only other turns are tokenized.
+     */
+    public int countTurnTokens(ChatMessage turn) {
+        int content = turn.getTokensUsed() != null ? turn.getTokensUsed()
+            : countTokens(turn.getUserMessage()) + countTokens(turn.getAiResponse());
+        return content + 2 * TOKENS_PER_MESSAGE;
+    }
+    
+    /**
+     * Whether counts come from the vocabulary rather than the character estimate.
+     */
+    public boolean isExact() {
+        return encoding != null;
+    }
+}
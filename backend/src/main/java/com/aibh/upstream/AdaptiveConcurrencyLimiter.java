@@ -0,0 +1,294 @@
+package com.aibh.upstream;
+
+import com.aibh.service.RateLimitingService.RateLimitType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Gradient-style adaptive concurrency limit for one upstream. A long-term moving average of
+ * call latency is compared with each new sample: while samples stay within {@code rttTolerance}
+ * of the average the limit grows by about its square root, and as latency rises the limit
+ * shrinks in proportion, never by more than half at once. Overload failures (timeouts, 429,
+ * 5xx) cut the limit by {@code backoffRatio}.
+ * <p>
+ * Calls over the limit wait in a bounded queue per {@link RateLimitType} tier of the calling
+ * request ({@link UpstreamPriority}). Freed permits go to the tiers by weighted fair queuing,
+ * so under contention each waiting tier gets permits in proportion to its weight and lower
+ * tiers absorb most of the queuing. A call is shed with {@link UpstreamLimitExceededException}
+ * when its tier's queue is full or its wait times out.
+ */
+public class AdaptiveConcurrencyLimiter {
+    
+    private static final int LONG_WINDOW = 600;
+    private static final double STRIDE = 1.0;
+    
+    /**
+     * Queuing settings for one tier: its share of freed permits, queue bound and wait limit.
+     */
+    public record Tier(int weight, int queueSize, long queueTimeoutMs) {}
+    
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+    private final double backoffRatio;
+    private final Predicate<Throwable> isOverload;
+    private final Map<RateLimitType, TierQueue> queues = new EnumMap<>(RateLimitType.class);
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    // Guarded by lock
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double longRttNanos;
+    private double virtualTime;
+    
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, Map<RateLimitType, Tier> tiers,
+                                      double rttTolerance, double smoothing, double backoffRatio,
+                                      Predicate<Throwable> isOverload, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.rttTolerance = rttTolerance;
+        this.smoothing = smoothing;
+        this.backoffRatio = backoffRatio;
+        this.isOverload = isOverload;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        
+        for (RateLimitType type : RateLimitType.values()) {
+            Tier tier = tiers.getOrDefault(type, new Tier(1, 0, 0));
+            queues.put(type, new TierQueue(type, tier, meterRegistry));
+        }
+        
+        Gauge.builder("upstream_limit", this, AdaptiveConcurrencyLimiter::getLimit)
+            .tag("upstream", name)
+            .description("Adaptive concurrency limit for upstream calls")
+            .register(meterRegistry);
+        Gauge.builder("upstream_limit_in_flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+            .tag("upstream", name)
+            .description("Upstream calls currently holding a concurrency permit")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Runs {@code call} once a permit is available. With {@code sampleLatency} false the call
+     * still counts towards the limit and overload failures, but its duration is not sampled;
+     * used for streamed calls, whose duration reflects the answer length.
+     */
+    public <T> T execute(Supplier<T> call, boolean sampleLatency) {
+        acquire(queues.get(UpstreamPriority.current()));
+        long start = System.nanoTime();
+        long sample = -1;
+        boolean overloaded = false;
+        try {
+            T result = call.get();
+            if (sampleLatency) {
+                sample = System.nanoTime() - start;
+            }
+            return result;
+        } catch (RuntimeException e) {
+            // A cancelled call (e.g. a hedge that lost) says nothing about the upstream
+            overloaded = !Thread.currentThread().isInterrupted() && isOverload.test(e);
+            throw e;
+        } finally {
+            release(sample, overloaded);
+        }
+    }
+    
+    private void acquire(TierQueue queue) {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (queued == 0 && inFlight < (int) limit) {
+                inFlight++;
+                queue.waitTime.record(0, TimeUnit.NANOSECONDS);
+                return;
+            }
+            if (queue.waiters.size() >= queue.tier.queueSize()) {
+                queue.queueFullRejections.increment();
+                throw new UpstreamLimitExceededException("Upstream " + name + " is at its concurrency limit of "
+                    + (int) limit + " with a full " + queue.type + " queue");
+            }
+        
+            Waiter waiter = new Waiter(lock.newCondition());
+            if (queue.waiters.isEmpty()) {
+                // An idle tier rejoins at the current virtual time instead of spending saved-up credit
+                queue.pass = Math.max(queue.pass, virtualTime);
+            }
+            queue.waiters.addLast(waiter);
+            queued++;
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(queue.tier.queueTimeoutMs());
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.waiters.remove(waiter);
+                        queued--;
+                        queue.queueTimeoutRejections.increment();
+                        throw new UpstreamLimitExceededException(
+                            "Timed out waiting for a concurrency permit for upstream " + name);
+                    }
+                    remaining = waiter.ready.awaitNanos(remaining);
+                }
+                queue.waitTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    inFlight--;
+                    dispatch();
+                } else {
+                    queue.waiters.remove(waiter);
+                    queued--;
+                }
+                Thread.currentThread().interrupt();
+                throw new UpstreamLimitExceededException("Interrupted while waiting for a concurrency permit for upstream " + name);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void release(long rttNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            int wasInFlight = inFlight--;
+            if (overloaded) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (rttNanos > 0) {
+                update(rttNanos, wasInFlight);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Hands free permits to waiters, always serving the non-empty tier with the lowest pass
+    private void dispatch() {
+        while (queued > 0 && inFlight < (int) limit) {
+            TierQueue next = null;
+            for (TierQueue queue : queues.values()) {
+                if (!queue.waiters.isEmpty() && (next == null || queue.pass < next.pass)) {
+                    next = queue;
+                }
+            }
+            Waiter waiter = next.waiters.pollFirst();
+            queued--;
+            virtualTime = next.pass;
+            next.pass += STRIDE / next.tier.weight();
+            inFlight++;
+            waiter.granted = true;
+            waiter.ready.signal();
+        }
+    }
+    
+    private void update(long rttNanos, int wasInFlight) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+        } else {
+            longRttNanos += (rttNanos - longRttNanos) * 2.0 / (LONG_WINDOW + 1);
+        }
+        // After a sustained slowdown recovers, let the long average catch up faster
+        if (longRttNanos > 2.0 * rttNanos) {
+            longRttNanos *= 0.95;
+        }
+        // An underused limit proves nothing about what the upstream can take
+        if (wasInFlight < limit / 2) {
+            return;
+        }
+        
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / rttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + target * smoothing));
+    }
+    
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private int getQueued(TierQueue queue) {
+        lock.lock();
+        try {
+            return queue.waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static final class Waiter {
+        
+        private final Condition ready;
+        private boolean granted;
+        
+        Waiter(Condition ready) {
+            this.ready = ready;
+        }
+    }
+    
+    private final class TierQueue {
+        
+        private final RateLimitType type;
+        private final Tier tier;
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        private final Timer waitTime;
+        private final Counter queueFullRejections;
+        private final Counter queueTimeoutRejections;
+        
+        // Guarded by lock; virtual time at which this tier is next served
+        private double pass;
+        
+        TierQueue(RateLimitType type, Tier tier, MeterRegistry meterRegistry) {
+            this.type = type;
+            this.tier = new Tier(Math.max(1, tier.weight()), Math.max(0, tier.queueSize()), Math.max(0, tier.queueTimeoutMs()));
+            String tierTag = type.name().toLowerCase();
+        
+            this.waitTime = Timer.builder("upstream_limit_queue_wait")
+                .tag("upstream", name)
+                .tag("tier", tierTag)
+                .description("Time upstream calls waited for a concurrency permit")
+                .register(meterRegistry);
+            Gauge.builder("upstream_limit_queued", this, AdaptiveConcurrencyLimiter.this::getQueued)
+                .tag("upstream", name)
+                .tag("tier", tierTag)
+                .description("Upstream calls waiting for a concurrency permit")
+                .register(meterRegistry);
+            this.queueFullRejections = Counter.builder("upstream_limit_rejected_total")
+                .tag("upstream", name)
+                .tag("tier", tierTag)
+                .tag("reason", "queue_full")
+                .description("Upstream calls shed by the adaptive concurrency limit")
+                .register(meterRegistry);
+            this.queueTimeoutRejections = Counter.builder("upstream_limit_rejected_total")
+                .tag("upstream", name)
+                .tag("tier", tierTag)
+                .tag("reason", "queue_timeout")
+                .description("Upstream calls shed by the adaptive concurrency limit")
+                .register(meterRegistry);
+        }
+    }
+}
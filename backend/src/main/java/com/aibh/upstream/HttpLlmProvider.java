@@ -0,0 +1,76 @@
+package com.aibh.upstream;
+
+import org.springframework.util.StringUtils;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * An OpenAI-compatible provider reached over HTTP, as configured under {@code upstream.providers}.
+ * An empty model set means the provider accepts any model name.
+ */
+public class HttpLlmProvider implements LlmProvider {
+    
+    // Placeholder shipped in example configuration; treated as "not configured"
+    private static final String PLACEHOLDER_KEY = "your-openai-api-key";
+    
+    private final String name;
+    private final String chatUrl;
+    private final String embeddingUrl;
+    private final String apiKey;
+    private final Set<String> models;
+    private final Set<Capability> capabilities;
+    
+    public HttpLlmProvider(String name, String chatUrl, String embeddingUrl, String apiKey,
+                           Set<String> models, Set<Capability> capabilities) {
+        this.name = name;
+        this.chatUrl = chatUrl;
+        this.embeddingUrl = embeddingUrl;
+        this.apiKey = apiKey;
+        this.models = Set.copyOf(models);
+        this.capabilities = capabilities.isEmpty() ? EnumSet.noneOf(Capability.class) : EnumSet.copyOf(capabilities);
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    @Override
+    public String getChatUrl() {
+        return chatUrl;
+    }
+    
+    @Override
+    public String getEmbeddingUrl() {
+        return embeddingUrl;
+    }
+    
+    @Override
+    public String getApiKey() {
+        return apiKey;
+    }
+    
+    @Override
+    public boolean supportsModel(String model) {
+        return models.isEmpty() || models.contains(model);
+    }
+    
+    @Override
+    public boolean hasCapability(Capability capability) {
+        if (capability == Capability.EMBEDDINGS && !StringUtils.hasText(embeddingUrl)) {
+            return false;
+        }
+        return capabilities.contains(capability);
+    }
+    
+    @Override
+    public boolean isAvailable() {
+        return StringUtils.hasText(chatUrl) && StringUtils.hasText(apiKey) && !PLACEHOLDER_KEY.equals(apiKey);
+    }
+    
+    @Override
+    public String toString() {
+        return "HttpLlmProvider[" + name + "]";
+    }
+}
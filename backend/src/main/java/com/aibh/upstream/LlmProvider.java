@@ -0,0 +1,40 @@
+package com.aibh.upstream;
+
+/**
+ * A backend that serves the OpenAI-compatible chat completion and embedding APIs.
+ * Several providers can be registered at once; {@link UpstreamLoadBalancer} picks one per
+ * call from those that serve the requested model and capability. Request bodies and
+ * responses use the OpenAI wire format ({@link UpstreamRequestWriter}, {@link UpstreamResponseReader}).
+ */
+public interface LlmProvider {
+    
+    enum Capability {
+        CHAT,
+        STREAMING,
+        VISION,
+        EMBEDDINGS
+    }
+    
+    /**
+     * Stable name used in logs and metric tags.
+     */
+    String getName();
+    
+    String getChatUrl();
+    
+    String getEmbeddingUrl();
+    
+    /**
+     * Bearer credential for the provider, or null when it needs none.
+     */
+    String getApiKey();
+    
+    boolean supportsModel(String model);
+    
+    boolean hasCapability(Capability capability);
+    
+    /**
+     * Whether the provider is configured well enough to be called (e.g. has credentials).
+     */
+    boolean isAvailable();
+}
@@ -0,0 +1,64 @@
+package com.aibh.upstream;
+
+import com.aibh.controller.LocalLlmController;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stand-in provider served in-process by {@link LocalLlmController}, for development and tests
+ * without provider credentials. Enabled with {@code upstream.local.enabled=true}; it takes part
+ * in load balancing like any other provider and accepts every model name.
+ */
+@Component
+@ConditionalOnProperty(name = "upstream.local.enabled", havingValue = "true")
+public class LocalLlmProvider implements LlmProvider {
+    
+    private final Environment environment;
+    
+    public LocalLlmProvider(Environment environment) {
+        this.environment = environment;
+    }
+    
+    @Override
+    public String getName() {
+        return "local";
+    }
+    
+    @Override
+    public String getChatUrl() {
+        return baseUrl() + "/chat/completions";
+    }
+    
+    @Override
+    public String getEmbeddingUrl() {
+        return baseUrl() + "/embeddings";
+    }
+    
+    @Override
+    public String getApiKey() {
+        return null;
+    }
+    
+    @Override
+    public boolean supportsModel(String model) {
+        return true;
+    }
+    
+    @Override
+    public boolean hasCapability(Capability capability) {
+        return true;
+    }
+    
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+    
+    // Resolved per call: the actual port is only known once the web server has started
+    private String baseUrl() {
+        String port = environment.getProperty("local.server.port", environment.getProperty("server.port", "8080"));
+        String contextPath = environment.getProperty("server.servlet.context-path", "");
+        return "http://127.0.0.1:" + port + contextPath + LocalLlmController.BASE_PATH;
+    }
+}
@@ -0,0 +1,209 @@
+package com.aibh.upstream;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the number of concurrent upstream exchanges shared by every service that talks to
+ * the LLM provider. A lease is taken before the request is sent and handed back when the
+ * response is closed, so streamed bodies keep their slot until they are fully consumed.
+ * Over HTTP/1.1 a lease corresponds to a kept-alive connection, over HTTP/2 to a stream on
+ * the multiplexed connection.
+ * <p>
+ * The pool wraps the request factory rather than sitting in the interceptor chain: a
+ * RestTemplate with interceptors buffers every request body in memory before sending it,
+ * while the wrapped requests keep the underlying factory's streaming of bodies.
+ */
+public class UpstreamConnectionPool {
+    
+    private final Semaphore leases;
+    private final int maxLeases;
+    private final long acquireTimeoutMs;
+    private final Timer acquireTimer;
+    
+    public UpstreamConnectionPool(int maxLeases, long acquireTimeoutMs, MeterRegistry meterRegistry) {
+        this.maxLeases = maxLeases;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.leases = new Semaphore(maxLeases, true);
+        
+        this.acquireTimer = Timer.builder("upstream_pool_acquire_time")
+            .description("Time spent waiting for an upstream connection lease")
+            .register(meterRegistry);
+        
+        Gauge.builder("upstream_pool_max", this, UpstreamConnectionPool::getMaxLeases)
+            .description("Maximum concurrent upstream exchanges")
+            .register(meterRegistry);
+        
+        Gauge.builder("upstream_pool_in_use", this, UpstreamConnectionPool::getLeasedCount)
+            .description("Upstream exchanges currently in flight")
+            .register(meterRegistry);
+        
+        Gauge.builder("upstream_pool_pending", this, UpstreamConnectionPool::getPendingCount)
+            .description("Callers waiting for an upstream connection lease")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * A factory whose requests take a lease when they are executed.
+     */
+    public ClientHttpRequestFactory leasing(ClientHttpRequestFactory delegate) {
+        return (uri, method) -> new LeasedRequest(delegate.createRequest(uri, method));
+    }
+    
+    private void acquire() throws IOException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = leases.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upstream connection lease");
+        } finally {
+            acquireTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            throw new UpstreamPoolTimeoutException(
+                "Timed out after " + acquireTimeoutMs + "ms waiting for an upstream connection lease");
+        }
+    }
+    
+    public int getMaxLeases() {
+        return maxLeases;
+    }
+    
+    public int getLeasedCount() {
+        return maxLeases - leases.availablePermits();
+    }
+    
+    public int getPendingCount() {
+        return leases.getQueueLength();
+    }
+    
+    /**
+     * Leases on execute; the body goes straight to the delegate, streamed when it supports that.
+     */
+    private class LeasedRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+        
+        private final ClientHttpRequest delegate;
+        
+        LeasedRequest(ClientHttpRequest delegate) {
+            this.delegate = delegate;
+        }
+        
+        @Override
+        @NonNull
+        public HttpMethod getMethod() {
+            return delegate.getMethod();
+        }
+        
+        @Override
+        @NonNull
+        public URI getURI() {
+            return delegate.getURI();
+        }
+        
+        @Override
+        @NonNull
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+        
+        @Override
+        @NonNull
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+        
+        @Override
+        public void setBody(@NonNull Body body) {
+            if (delegate instanceof StreamingHttpOutputMessage streaming) {
+                streaming.setBody(body);
+                return;
+            }
+            try {
+                body.writeTo(delegate.getBody());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        @Override
+        @NonNull
+        public ClientHttpResponse execute() throws IOException {
+            acquire();
+            try {
+                return new LeasedResponse(delegate.execute());
+            } catch (IOException | RuntimeException e) {
+                leases.release();
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Returns the lease exactly once, when the caller closes the response.
+     */
+    private class LeasedResponse implements ClientHttpResponse {
+        
+        private final ClientHttpResponse delegate;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        
+        LeasedResponse(ClientHttpResponse delegate) {
+            this.delegate = delegate;
+        }
+        
+        @Override
+        @NonNull
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+        
+        @Override
+        @NonNull
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+        
+        @Override
+        @NonNull
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+        
+        @Override
+        @NonNull
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+        
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    leases.release();
+                }
+            }
+        }
+    }
+}
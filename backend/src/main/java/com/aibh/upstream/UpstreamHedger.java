@@ -0,0 +1,216 @@
+package com.aibh.upstream;
+
+import com.aibh.service.ModelRoutingService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedges slow upstream calls. When the first call has not answered within the model's recent
+ * latency percentile (tracked by {@link ModelRoutingService}), an identical second call is sent
+ * and whichever succeeds first wins; the other is cancelled. Hedges draw from a token budget
+ * refilled by a fixed fraction of primary requests, so extra upstream load stays bounded.
+ * Every completed call's latency is fed back to the routing service.
+ */
+@Component
+public class UpstreamHedger {
+    
+    private static final long MILLI_TOKEN = 1000;
+    
+    private final ModelRoutingService modelRoutingService;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong budgetMilliTokens = new AtomicLong();
+    
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+    private final Counter hedgesOverBudget;
+    
+    @Value("${upstream.hedge.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${upstream.hedge.percentile:0.95}")
+    private double percentile;
+    
+    @Value("${upstream.hedge.min-delay-ms:100}")
+    private long minDelayMs;
+    
+    @Value("${upstream.hedge.min-samples:20}")
+    private int minSamples;
+    
+    @Value("${upstream.hedge.budget-ratio:0.05}")
+    private double budgetRatio;
+    
+    @Value("${upstream.hedge.budget-burst:5}")
+    private int budgetBurst;
+    
+    public UpstreamHedger(ModelRoutingService modelRoutingService, MeterRegistry meterRegistry) {
+        this.modelRoutingService = modelRoutingService;
+        
+        this.hedgesSent = Counter.builder("upstream_hedges_sent_total")
+            .description("Hedged upstream requests sent")
+            .register(meterRegistry);
+        
+        this.hedgesWon = Counter.builder("upstream_hedges_won_total")
+            .description("Hedged upstream requests that answered before the original")
+            .register(meterRegistry);
+        
+        this.hedgesOverBudget = Counter.builder("upstream_hedges_over_budget_total")
+            .description("Hedges skipped because the hedge budget was exhausted")
+            .register(meterRegistry);
+    }
+    
+    public <T> T execute(String model, Supplier<T> call) {
+        if (!enabled) {
+            return timed(model, call);
+        }
+        deposit();
+        
+        long delayNanos = hedgeDelayNanos(model);
+        if (delayNanos < 0) {
+            return timed(model, call);
+        }
+        
+        HedgedCall<T> hedged = new HedgedCall<>();
+        Future<?> primary = hedged.launch(model, call, false);
+        try {
+            return hedged.result.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException slow) {
+            // Primary is past the percentile, consider hedging below
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for upstream response", e);
+        } catch (ExecutionException e) {
+            return hedged.await(primary, null);
+        }
+        
+        if (!withdraw()) {
+            hedgesOverBudget.increment();
+            return hedged.await(primary, null);
+        }
+        Future<?> hedge = hedged.launch(model, call, true);
+        if (hedge == null) {
+            // The primary finished while the hedge was being decided
+            credit(MILLI_TOKEN);
+            return hedged.await(primary, null);
+        }
+        hedgesSent.increment();
+        return hedged.await(primary, hedge);
+    }
+    
+    private <T> T timed(String model, Supplier<T> call) {
+        long start = System.nanoTime();
+        T result = call.get();
+        modelRoutingService.recordLatency(model, System.nanoTime() - start);
+        return result;
+    }
+    
+    private long hedgeDelayNanos(String model) {
+        long percentileNanos = modelRoutingService.getLatencyPercentile(model, percentile, minSamples);
+        if (percentileNanos < 0) {
+            return -1;
+        }
+        return Math.max(percentileNanos, TimeUnit.MILLISECONDS.toNanos(minDelayMs));
+    }
+    
+    private void deposit() {
+        credit((long) (budgetRatio * MILLI_TOKEN));
+    }
+    
+    private void credit(long milliTokens) {
+        long cap = budgetBurst * MILLI_TOKEN;
+        budgetMilliTokens.accumulateAndGet(milliTokens, (current, add) -> Math.min(cap, current + add));
+    }
+    
+    private boolean withdraw() {
+        long current;
+        do {
+            current = budgetMilliTokens.get();
+            if (current < MILLI_TOKEN) {
+                return false;
+            }
+        } while (!budgetMilliTokens.compareAndSet(current, current - MILLI_TOKEN));
+        return true;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * One logical request raced by up to two identical calls. The first success completes the
+     * result; a failure only propagates once every launched call has failed. The result is
+     * completed, and the calls counted, under the instance's monitor, so a hedge is never
+     * launched for a request that has already succeeded or failed.
+     */
+    private class HedgedCall<T> {
+        
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // Guarded by this
+        private int outstanding;
+        
+        /**
+         * Starts a call, or returns null without starting it when the result is already known.
+         */
+        Future<?> launch(String model, Supplier<T> call, boolean isHedge) {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return null;
+                }
+                outstanding++;
+            }
+            Supplier<T> prioritized = UpstreamPriority.propagate(call);
+            return executor.submit(() -> {
+                try {
+                    T value = timed(model, prioritized);
+                    boolean won;
+                    synchronized (this) {
+                        won = result.complete(value);
+                    }
+                    if (won && isHedge) {
+                        hedgesWon.increment();
+                    }
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        if (--outstanding == 0) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                }
+            });
+        }
+        
+        T await(Future<?> primary, Future<?> hedge) {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for upstream response", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                // Cancel whichever call lost the race; a finished one ignores this
+                primary.cancel(true);
+                if (hedge != null) {
+                    hedge.cancel(true);
+                }
+            }
+        }
+    }
+}
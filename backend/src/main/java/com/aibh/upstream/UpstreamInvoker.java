@@ -0,0 +1,288 @@
+package com.aibh.upstream;
+
+import com.aibh.service.RateLimitingService.RateLimitType;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs upstream calls behind a per-model/endpoint circuit breaker with a deadline-aware
+ * retry policy. Only retryable failures are retried, back-off uses full jitter and honours
+ * {@code Retry-After}, and no attempt is started that could not finish before the
+ * per-request deadline. An open breaker fails immediately with {@link CallNotPermittedException}.
+ * Each attempt also holds a permit from the model/endpoint's {@link AdaptiveConcurrencyLimiter},
+ * queued by the caller's {@link UpstreamPriority} tier; calls it sheds fail with
+ * {@link UpstreamLimitExceededException} and are not retried.
+ */
+@Component
+public class UpstreamInvoker {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamInvoker.class);
+    
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final Counter retriesTotal;
+    private final Counter deadlineExhaustedTotal;
+    private final Counter rejectedTotal;
+    
+    @Value("${upstream.retry.max-attempts:3}")
+    private int maxAttempts;
+    
+    @Value("${upstream.retry.base-backoff-ms:200}")
+    private long baseBackoffMs;
+    
+    @Value("${upstream.retry.max-backoff-ms:2000}")
+    private long maxBackoffMs;
+    
+    @Value("${upstream.retry.deadline-ms:12000}")
+    private long deadlineMs;
+    
+    // An attempt may run this long before the client gives up on it
+    @Value("${upstream.http.read-timeout-ms:10000}")
+    private long attemptTimeoutMs;
+    
+    @Value("${upstream.limit.enabled:true}")
+    private boolean limitEnabled;
+    
+    @Value("${upstream.limit.initial:16}")
+    private int initialLimit;
+    
+    @Value("${upstream.limit.min:2}")
+    private int minLimit;
+    
+    @Value("${upstream.limit.max:64}")
+    private int maxLimit;
+    
+    @Value("${upstream.limit.tier.admin.weight:8}")
+    private int adminWeight;
+    
+    @Value("${upstream.limit.tier.admin.queue-size:32}")
+    private int adminQueueSize;
+    
+    @Value("${upstream.limit.tier.admin.queue-timeout-ms:1000}")
+    private long adminQueueTimeoutMs;
+    
+    @Value("${upstream.limit.tier.user.weight:4}")
+    private int userWeight;
+    
+    @Value("${upstream.limit.tier.user.queue-size:32}")
+    private int userQueueSize;
+    
+    @Value("${upstream.limit.tier.user.queue-timeout-ms:500}")
+    private long userQueueTimeoutMs;
+    
+    @Value("${upstream.limit.tier.anonymous.weight:1}")
+    private int anonymousWeight;
+    
+    @Value("${upstream.limit.tier.anonymous.queue-size:16}")
+    private int anonymousQueueSize;
+    
+    @Value("${upstream.limit.tier.anonymous.queue-timeout-ms:250}")
+    private long anonymousQueueTimeoutMs;
+    
+    @Value("${upstream.limit.rtt-tolerance:1.5}")
+    private double limitRttTolerance;
+    
+    @Value("${upstream.limit.smoothing:0.2}")
+    private double limitSmoothing;
+    
+    @Value("${upstream.limit.backoff-ratio:0.9}")
+    private double limitBackoffRatio;
+    
+    public UpstreamInvoker(CircuitBreakerRegistry upstreamCircuitBreakerRegistry, MeterRegistry meterRegistry) {
+        this.circuitBreakerRegistry = upstreamCircuitBreakerRegistry;
+        this.meterRegistry = meterRegistry;
+        
+        this.retriesTotal = Counter.builder("upstream_retries_total")
+            .description("Upstream attempts retried after a retryable failure")
+            .register(meterRegistry);
+        
+        this.deadlineExhaustedTotal = Counter.builder("upstream_deadline_exhausted_total")
+            .description("Upstream calls abandoned because another attempt would overrun the request deadline")
+            .register(meterRegistry);
+        
+        this.rejectedTotal = Counter.builder("upstream_breaker_rejected_total")
+            .description("Upstream calls failed fast by an open circuit breaker")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Executes {@code call} with retries for the given model and endpoint.
+     */
+    public <T> T execute(String model, String endpoint, Supplier<T> call) {
+        CircuitBreaker breaker = breakerFor(model, endpoint);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(breaker, call, true);
+            } catch (RestClientException e) {
+                if (!isRetryable(e) || attempt >= maxAttempts || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                
+                long backoffMs = backoffMs(e, attempt);
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (backoffMs + attemptTimeoutMs > remainingMs) {
+                    deadlineExhaustedTotal.increment();
+                    throw e;
+                }
+                
+                logger.warn("Upstream attempt {} for {} failed, retrying in {}ms: {}",
+                            attempt, breaker.getName(), backoffMs, e.getMessage());
+                retriesTotal.increment();
+                sleep(backoffMs);
+            }
+        }
+    }
+    
+    /**
+     * Executes {@code call} exactly once behind the breaker. Used where a retry could replay
+     * output the caller has already consumed, such as a partially delivered stream. The call's
+     * duration is not fed to the concurrency limiter, since a stream's length is the answer's.
+     */
+    public <T> T executeOnce(String model, String endpoint, Supplier<T> call) {
+        return attempt(breakerFor(model, endpoint), call, false);
+    }
+    
+    /**
+     * Whether the breaker for the model and endpoint would currently let a call through.
+     */
+    public boolean isCallPermitted(String model, String endpoint) {
+        CircuitBreaker.State state = breakerFor(model, endpoint).getState();
+        return state != CircuitBreaker.State.OPEN && state != CircuitBreaker.State.FORCED_OPEN;
+    }
+    
+    private <T> T attempt(CircuitBreaker breaker, Supplier<T> call, boolean sampleLatency) {
+        if (!limitEnabled) {
+            return guarded(breaker, call);
+        }
+        // The limiter wraps the breaker so an open breaker hands its permit straight back
+        return limiterFor(breaker.getName()).execute(() -> guarded(breaker, call), sampleLatency);
+    }
+    
+    private <T> T guarded(CircuitBreaker breaker, Supplier<T> call) {
+        try {
+            breaker.acquirePermission();
+        } catch (CallNotPermittedException e) {
+            rejectedTotal.increment();
+            throw e;
+        }
+        
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            breaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Cancelled by the caller (e.g. a hedge that lost), not an upstream failure
+                breaker.releasePermission();
+            } else {
+                breaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            }
+            throw e;
+        }
+    }
+    
+    private CircuitBreaker breakerFor(String model, String endpoint) {
+        return circuitBreakerRegistry.circuitBreaker(model + "@" + hostOf(endpoint));
+    }
+    
+    private AdaptiveConcurrencyLimiter limiterFor(String name) {
+        return limiters.computeIfAbsent(name, key -> new AdaptiveConcurrencyLimiter(
+            key, initialLimit, minLimit, maxLimit, Map.of(
+                RateLimitType.ADMIN, new AdaptiveConcurrencyLimiter.Tier(adminWeight, adminQueueSize, adminQueueTimeoutMs),
+                RateLimitType.USER, new AdaptiveConcurrencyLimiter.Tier(userWeight, userQueueSize, userQueueTimeoutMs),
+                RateLimitType.ANONYMOUS, new AdaptiveConcurrencyLimiter.Tier(anonymousWeight, anonymousQueueSize, anonymousQueueTimeoutMs)),
+            limitRttTolerance, limitSmoothing, limitBackoffRatio, UpstreamInvoker::isRetryable, meterRegistry));
+    }
+    
+    /**
+     * Transport failures and provider-side statuses are retryable; client errors are not.
+     * Local pool exhaustion is not retried either, the upstream was never reached.
+     */
+    public static boolean isRetryable(Throwable e) {
+        if (e instanceof HttpStatusCodeException statusException) {
+            int status = statusException.getStatusCode().value();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        if (e instanceof ResourceAccessException) {
+            return !(e.getCause() instanceof UpstreamPoolTimeoutException);
+        }
+        return false;
+    }
+    
+    private long backoffMs(RestClientException e, int attempt) {
+        if (e instanceof HttpStatusCodeException statusException) {
+            Long retryAfterMs = parseRetryAfter(statusException.getResponseHeaders());
+            if (retryAfterMs != null) {
+                return retryAfterMs;
+            }
+        }
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+    
+    private Long parseRetryAfter(HttpHeaders headers) {
+        String value = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException notSeconds) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+            } catch (DateTimeParseException notDate) {
+                return null;
+            }
+        }
+    }
+    
+    private String hostOf(String endpoint) {
+        try {
+            // Keep the port so providers sharing a host get separate breakers
+            URI uri = URI.create(endpoint);
+            if (uri.getHost() == null) {
+                return endpoint;
+            }
+            return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        } catch (IllegalArgumentException e) {
+            return endpoint;
+        }
+    }
+    
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during upstream retry back-off", ie);
+        }
+    }
+}
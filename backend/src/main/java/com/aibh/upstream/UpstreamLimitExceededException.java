@@ -0,0 +1,12 @@
+package com.aibh.upstream;
+
+/**
+ * Raised when an upstream call was shed by the {@link AdaptiveConcurrencyLimiter}, either because
+ * its queue was full or because no permit became free in time. The upstream was never contacted.
+ */
+public class UpstreamLimitExceededException extends RuntimeException {
+    
+    public UpstreamLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,189 @@
+package com.aibh.upstream;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Spreads upstream calls over the registered {@link LlmProvider}s. Each provider keeps a
+ * peak-sensitive EWMA of its latency and a count of outstanding requests; a call goes to the
+ * cheaper of two randomly chosen candidates, where cost is the EWMA times (outstanding + 1).
+ * A latency spike or a failure (scored as at least the failure penalty) raises the EWMA at
+ * once, so traffic drains from a degraded provider within a few calls, while idle time decays
+ * it so a recovered provider is probed again. Providers whose circuit breaker is open for the
+ * model are skipped while any other candidate remains.
+ */
+public class UpstreamLoadBalancer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamLoadBalancer.class);
+    
+    private final Map<String, ProviderStats> providers = new LinkedHashMap<>();
+    private final UpstreamInvoker upstreamInvoker;
+    private final long decayNanos;
+    private final long failurePenaltyNanos;
+    
+    public UpstreamLoadBalancer(List<LlmProvider> providers, UpstreamInvoker upstreamInvoker, MeterRegistry meterRegistry,
+                                long decayMs, long failurePenaltyMs, long initialLatencyMs) {
+        this.upstreamInvoker = upstreamInvoker;
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMs);
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(failurePenaltyMs);
+        
+        for (LlmProvider provider : providers) {
+            if (this.providers.containsKey(provider.getName())) {
+                throw new IllegalStateException("Duplicate upstream provider name: " + provider.getName());
+            }
+            ProviderStats stats = new ProviderStats(provider, TimeUnit.MILLISECONDS.toNanos(initialLatencyMs), meterRegistry);
+            this.providers.put(provider.getName(), stats);
+            logger.info("Registered upstream provider '{}' (available: {})", provider.getName(), provider.isAvailable());
+        }
+    }
+    
+    /**
+     * Whether any configured provider can serve the capability at all.
+     */
+    public boolean isAvailable(LlmProvider.Capability capability) {
+        for (ProviderStats stats : providers.values()) {
+            if (stats.provider.isAvailable() && stats.provider.hasCapability(capability)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Runs {@code call} against the provider chosen for the model and capability, tracking its
+     * outstanding count, latency and failures. Streaming calls only count towards outstanding
+     * requests and failures, since their duration reflects the answer length.
+     */
+    public <T> T execute(String model, LlmProvider.Capability capability, Function<LlmProvider, T> call) {
+        ProviderStats stats = select(model, capability);
+        
+        stats.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            T result = call.apply(stats.provider);
+            long elapsed = System.nanoTime() - start;
+            if (capability != LlmProvider.Capability.STREAMING) {
+                stats.observe(elapsed);
+            }
+            stats.successTime.record(elapsed, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            long elapsed = System.nanoTime() - start;
+            if (!Thread.currentThread().isInterrupted() && !(e instanceof UpstreamLimitExceededException)) {
+                // A cancelled hedge or a locally shed call says nothing about the provider
+                stats.observe(Math.max(elapsed, failurePenaltyNanos));
+                stats.errorTime.record(elapsed, TimeUnit.NANOSECONDS);
+            }
+            throw e;
+        } finally {
+            stats.outstanding.decrementAndGet();
+        }
+    }
+    
+    private ProviderStats select(String model, LlmProvider.Capability capability) {
+        List<ProviderStats> candidates = new ArrayList<>();
+        List<ProviderStats> tripped = new ArrayList<>();
+        for (ProviderStats stats : providers.values()) {
+            LlmProvider provider = stats.provider;
+            if (!provider.isAvailable() || !provider.hasCapability(capability) || !provider.supportsModel(model)) {
+                continue;
+            }
+            String endpoint = capability == LlmProvider.Capability.EMBEDDINGS ? provider.getEmbeddingUrl() : provider.getChatUrl();
+            if (upstreamInvoker.isCallPermitted(model, endpoint)) {
+                candidates.add(stats);
+            } else {
+                tripped.add(stats);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // Every breaker is open: let the invoker fail fast rather than failing here
+            candidates = tripped;
+        }
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("No upstream provider serves " + model + " with " + capability);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        
+        // Power of two choices: near-best placement without herding onto one provider
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        ProviderStats a = candidates.get(first);
+        ProviderStats b = candidates.get(second);
+        long now = System.nanoTime();
+        return a.cost(now) <= b.cost(now) ? a : b;
+    }
+    
+    private final class ProviderStats {
+        
+        private final LlmProvider provider;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Timer successTime;
+        private final Timer errorTime;
+        
+        // Guarded by this
+        private double ewmaNanos;
+        private long lastObservedNanos;
+        
+        ProviderStats(LlmProvider provider, long initialLatencyNanos, MeterRegistry meterRegistry) {
+            this.provider = provider;
+            this.ewmaNanos = initialLatencyNanos;
+            this.lastObservedNanos = System.nanoTime();
+        
+            this.successTime = Timer.builder("upstream_provider_request_time")
+                .tag("provider", provider.getName())
+                .tag("outcome", "success")
+                .description("Upstream call time per provider, including retries")
+                .register(meterRegistry);
+            this.errorTime = Timer.builder("upstream_provider_request_time")
+                .tag("provider", provider.getName())
+                .tag("outcome", "error")
+                .description("Upstream call time per provider, including retries")
+                .register(meterRegistry);
+            Gauge.builder("upstream_provider_outstanding", outstanding, AtomicInteger::get)
+                .tag("provider", provider.getName())
+                .description("Upstream calls currently in flight per provider")
+                .register(meterRegistry);
+            Gauge.builder("upstream_provider_latency_ewma_seconds", this, s -> s.decayedNanos(System.nanoTime()) / 1e9)
+                .tag("provider", provider.getName())
+                .description("Peak-sensitive moving average of provider latency used for balancing")
+                .register(meterRegistry);
+        }
+        
+        synchronized void observe(long latencyNanos) {
+            long now = System.nanoTime();
+            if (latencyNanos > ewmaNanos) {
+                ewmaNanos = latencyNanos;
+            } else {
+                double weight = Math.exp(-(double) (now - lastObservedNanos) / decayNanos);
+                ewmaNanos = ewmaNanos * weight + latencyNanos * (1 - weight);
+            }
+            lastObservedNanos = now;
+        }
+        
+        synchronized double decayedNanos(long now) {
+            return ewmaNanos * Math.exp(-(double) Math.max(0, now - lastObservedNanos) / decayNanos);
+        }
+        
+        double cost(long now) {
+            return decayedNanos(now) * (outstanding.get() + 1);
+        }
+    }
+}
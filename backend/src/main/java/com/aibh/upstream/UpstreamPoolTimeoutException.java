@@ -0,0 +1,14 @@
+package com.aibh.upstream;
+
+import java.io.IOException;
+
+/**
+ * Raised when no upstream connection lease became free within the configured acquire timeout.
+ * The upstream itself was never contacted.
+ */
+public class UpstreamPoolTimeoutException extends IOException {
+    
+    public UpstreamPoolTimeoutException(String message) {
+        super(message);
+    }
+}
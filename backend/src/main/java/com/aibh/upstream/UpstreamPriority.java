@@ -0,0 +1,49 @@
+package com.aibh.upstream;
+
+import com.aibh.service.RateLimitingService.RateLimitType;
+
+import java.util.function.Supplier;
+
+/**
+ * Carries the {@link RateLimitType} tier of the request an upstream call is made for, so the
+ * {@link AdaptiveConcurrencyLimiter} can queue it by priority. The tier is bound to the calling
+ * thread for the duration of {@link #call}; work handed to other threads must be wrapped with
+ * {@link #propagate}. Calls made outside any request count as {@link RateLimitType#USER}.
+ */
+public final class UpstreamPriority {
+    
+    private static final ThreadLocal<RateLimitType> CURRENT = new ThreadLocal<>();
+    
+    private UpstreamPriority() {
+    }
+    
+    public static RateLimitType current() {
+        RateLimitType tier = CURRENT.get();
+        return tier != null ? tier : RateLimitType.USER;
+    }
+    
+    /**
+     * Runs {@code body} with {@code tier} as the current tier, restoring the previous one after.
+     */
+    public static <T> T call(RateLimitType tier, Supplier<T> body) {
+        RateLimitType previous = CURRENT.get();
+        CURRENT.set(tier);
+        try {
+            return body.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+    
+    /**
+     * Wraps {@code body} so it runs with the caller's current tier on whichever thread executes it.
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> body) {
+        RateLimitType tier = current();
+        return () -> call(tier, body);
+    }
+}
@@ -0,0 +1,12 @@
+package com.aibh.upstream;
+
+/**
+ * Raised when the {@link UpstreamQuotaPacer} could not fit a call into the provider's quota
+ * within the allowed wait. The upstream was never contacted.
+ */
+public class UpstreamQuotaExceededException extends RuntimeException {
+    
+    public UpstreamQuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,311 @@
+package com.aibh.upstream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Paces upstream calls to stay within each provider's requests-per-minute and tokens-per-minute
+ * quota for a model. Every call reserves one request and its estimated tokens from two token
+ * buckets refilled continuously at the quota rate and holding at most {@code burstSeconds} worth
+ * of quota. A reservation that leaves a bucket in debt waits until the debt is repaid, so bursts
+ * are spread out instead of tripping the quota; waits longer than {@code maxWaitMs} are shed
+ * with {@link UpstreamQuotaExceededException}.
+ * <p>
+ * Reservations are settled against the usage the provider reports, and the
+ * {@code x-ratelimit-*} response headers (or a 429 with {@code Retry-After}) correct the buckets
+ * when other clients share the quota. Quotas not configured are learned from
+ * {@code x-ratelimit-limit-*}; a model with no known quota is not paced.
+ */
+public class UpstreamQuotaPacer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamQuotaPacer.class);
+    
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+    private static final long DEFAULT_THROTTLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * Configured quota for a model; zero leaves that dimension to be learned from headers.
+     */
+    public record Quota(long requestsPerMinute, long tokensPerMinute) {}
+    
+    private final Map<String, Quota> quotas;
+    private final double burstSeconds;
+    private final long maxWaitNanos;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    
+    public UpstreamQuotaPacer(Map<String, Quota> quotas, double burstSeconds, long maxWaitMs, MeterRegistry meterRegistry) {
+        this.quotas = Map.copyOf(quotas);
+        this.burstSeconds = burstSeconds;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.meterRegistry = meterRegistry;
+    }
+    
+    /**
+     * Reserves one request and {@code estimatedTokens} for the model on the provider, waiting
+     * until the reservation fits the quota.
+     */
+    public Reservation reserve(LlmProvider provider, String model, int estimatedTokens) {
+        Bucket bucket = buckets.computeIfAbsent(provider.getName() + '|' + model, key -> new Bucket(provider.getName(), model));
+        Reservation reservation = new Reservation(bucket);
+        long waitNanos = bucket.reserve(reservation, estimatedTokens);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                bucket.refund(reservation.debitedRequests, reservation.debitedTokens);
+                Thread.currentThread().interrupt();
+                throw new UpstreamQuotaExceededException("Interrupted while pacing upstream quota for " + model);
+            } finally {
+                bucket.waitTime.record(waitNanos, TimeUnit.NANOSECONDS);
+            }
+        } else {
+            bucket.waitTime.record(0, TimeUnit.NANOSECONDS);
+        }
+        return reservation;
+    }
+    
+    /**
+     * A reserved call. Feed it the response headers and the reported usage once known.
+     */
+    public static final class Reservation {
+        
+        private final Bucket bucket;
+        // What the bucket was debited; nothing for a quota that was not known yet
+        private int debitedRequests;
+        private int debitedTokens;
+        
+        private Reservation(Bucket bucket) {
+            this.bucket = bucket;
+        }
+        
+        /**
+         * Settles the tokens debited for the call against the tokens the provider actually
+         * counted. A call reserved before the token quota was known debited none and settles
+         * nothing.
+         */
+        public void settle(int actualTokens) {
+            if (actualTokens > 0 && debitedTokens > 0) {
+                bucket.refund(0, debitedTokens - actualTokens);
+            }
+        }
+        
+        public void observe(HttpHeaders headers) {
+            bucket.observe(headers);
+        }
+        
+        /**
+         * Runs one attempt of the reserved call. A 429 from the provider pauses the model until
+         * the provider says its quota resets.
+         */
+        public <T> T attempt(Supplier<T> call) {
+            try {
+                return call.get();
+            } catch (HttpStatusCodeException e) {
+                if (e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                    bucket.throttled(e.getResponseHeaders());
+                }
+                throw e;
+            }
+        }
+    }
+    
+    private final class Bucket {
+        
+        private final String model;
+        private final Timer waitTime;
+        private final Counter rejected;
+        private final Counter throttledTotal;
+        
+        // Guarded by this; per-minute limits, zero when unknown
+        private double requestsPerMinute;
+        private double tokensPerMinute;
+        private double requests;
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+        private long pausedUntilNanos = lastRefillNanos;
+        
+        Bucket(String providerName, String model) {
+            this.model = model;
+            Quota quota = quotas.getOrDefault(model, new Quota(0, 0));
+            this.requestsPerMinute = quota.requestsPerMinute();
+            this.tokensPerMinute = quota.tokensPerMinute();
+            this.requests = capacity(requestsPerMinute);
+            this.tokens = capacity(tokensPerMinute);
+        
+            this.waitTime = Timer.builder("upstream_quota_wait")
+                .tag("provider", providerName)
+                .tag("model", model)
+                .description("Time upstream calls were held back to stay within the provider quota")
+                .register(meterRegistry);
+            this.rejected = Counter.builder("upstream_quota_rejected_total")
+                .tag("provider", providerName)
+                .tag("model", model)
+                .description("Upstream calls shed because the quota could not fit them in time")
+                .register(meterRegistry);
+            this.throttledTotal = Counter.builder("upstream_quota_throttled_total")
+                .tag("provider", providerName)
+                .tag("model", model)
+                .description("429 responses received from the provider despite pacing")
+                .register(meterRegistry);
+        }
+        
+        synchronized long reserve(Reservation reservation, int estimatedTokens) {
+            long now = System.nanoTime();
+            refill(now);
+            int debitedRequests = requestsPerMinute > 0 ? 1 : 0;
+            int debitedTokens = tokensPerMinute > 0 ? estimatedTokens : 0;
+            requests -= debitedRequests;
+            tokens -= debitedTokens;
+        
+            long wait = Math.max(pausedUntilNanos - now, Math.max(debtNanos(requests, requestsPerMinute), debtNanos(tokens, tokensPerMinute)));
+            if (wait > maxWaitNanos) {
+                requests += debitedRequests;
+                tokens += debitedTokens;
+                rejected.increment();
+                throw new UpstreamQuotaExceededException("Upstream quota for " + model + " would need a "
+                    + TimeUnit.NANOSECONDS.toMillis(wait) + "ms wait");
+            }
+            reservation.debitedRequests = debitedRequests;
+            reservation.debitedTokens = debitedTokens;
+            return wait;
+        }
+        
+        synchronized void refund(int requestCount, int tokenCount) {
+            if (requestsPerMinute > 0) {
+                requests = Math.min(capacity(requestsPerMinute), requests + requestCount);
+            }
+            if (tokensPerMinute > 0) {
+                tokens = Math.min(capacity(tokensPerMinute), tokens + tokenCount);
+            }
+        }
+        
+        synchronized void observe(HttpHeaders headers) {
+            if (headers == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            refill(now);
+        
+            double limitRequests = headerNumber(headers, "x-ratelimit-limit-requests");
+            double limitTokens = headerNumber(headers, "x-ratelimit-limit-tokens");
+            if (limitRequests > 0 && requestsPerMinute == 0) {
+                requestsPerMinute = limitRequests;
+                requests = capacity(requestsPerMinute);
+                logger.info("Learned request quota of {}/min for upstream model {}", (long) limitRequests, model);
+            }
+            if (limitTokens > 0 && tokensPerMinute == 0) {
+                tokensPerMinute = limitTokens;
+                tokens = capacity(tokensPerMinute);
+                logger.info("Learned token quota of {}/min for upstream model {}", (long) limitTokens, model);
+            }
+        
+            // The provider's count also includes other clients sharing the key
+            double remainingRequests = headerNumber(headers, "x-ratelimit-remaining-requests");
+            double remainingTokens = headerNumber(headers, "x-ratelimit-remaining-tokens");
+            if (remainingRequests >= 0 && requestsPerMinute > 0) {
+                requests = Math.min(requests, remainingRequests);
+                if (remainingRequests < 1) {
+                    pauseFor(now, parseDuration(headers.getFirst("x-ratelimit-reset-requests")));
+                }
+            }
+            if (remainingTokens >= 0 && tokensPerMinute > 0) {
+                tokens = Math.min(tokens, remainingTokens);
+                if (remainingTokens < 1) {
+                    pauseFor(now, parseDuration(headers.getFirst("x-ratelimit-reset-tokens")));
+                }
+            }
+        }
+        
+        synchronized void throttled(HttpHeaders headers) {
+            throttledTotal.increment();
+            long now = System.nanoTime();
+            long pause = -1;
+            if (headers != null) {
+                pause = Math.max(parseDuration(headers.getFirst(HttpHeaders.RETRY_AFTER) != null ?
+                    headers.getFirst(HttpHeaders.RETRY_AFTER) + "s" : null),
+                    Math.max(parseDuration(headers.getFirst("x-ratelimit-reset-requests")),
+                             parseDuration(headers.getFirst("x-ratelimit-reset-tokens"))));
+            }
+            pauseFor(now, pause > 0 ? pause : DEFAULT_THROTTLE_NANOS);
+            observe(headers);
+        }
+        
+        private void pauseFor(long now, long nanos) {
+            if (nanos > 0) {
+                pausedUntilNanos = Math.max(pausedUntilNanos, now + nanos);
+            }
+        }
+        
+        private void refill(long now) {
+            double minutes = (now - lastRefillNanos) / 60e9;
+            lastRefillNanos = now;
+            if (requestsPerMinute > 0) {
+                requests = Math.min(capacity(requestsPerMinute), requests + minutes * requestsPerMinute);
+            }
+            if (tokensPerMinute > 0) {
+                tokens = Math.min(capacity(tokensPerMinute), tokens + minutes * tokensPerMinute);
+            }
+        }
+        
+        private double capacity(double perMinute) {
+            return Math.max(1, perMinute * burstSeconds / 60.0);
+        }
+        
+        private long debtNanos(double level, double perMinute) {
+            if (perMinute <= 0 || level >= 0) {
+                return 0;
+            }
+            return (long) (-level / perMinute * 60e9);
+        }
+    }
+    
+    private static double headerNumber(HttpHeaders headers, String name) {
+        String value = headers.getFirst(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Parses reset durations such as {@code 1s}, {@code 6m0s} or {@code 250ms}; -1 if absent.
+     */
+    static long parseDuration(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        double nanos = 0;
+        boolean matched = false;
+        while (matcher.find()) {
+            matched = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            nanos += switch (matcher.group(2)) {
+                case "ms" -> amount * 1e6;
+                case "s" -> amount * 1e9;
+                case "m" -> amount * 60e9;
+                default -> amount * 3600e9;
+            };
+        }
+        return matched ? (long) nanos : -1;
+    }
+}
@@ -0,0 +1,17 @@
+package com.aibh.upstream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * A request body that writes itself straight into the outgoing HTTP stream.
+ * Built by {@link UpstreamRequestWriter} and serialized by {@link UpstreamRequestBodyConverter},
+ * so no intermediate object tree is created per call. Bodies may be written more than once
+ * when a call is retried or hedged.
+ */
+@FunctionalInterface
+public interface UpstreamRequestBody {
+    
+    void writeTo(JsonGenerator generator) throws IOException;
+}
@@ -0,0 +1,51 @@
+package com.aibh.upstream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Write-only converter for {@link UpstreamRequestBody}, generating the JSON without an
+ * intermediate object tree. With a streaming request, such as the JDK client's when the
+ * RestTemplate has no interceptors, the generator's output is handed to the client's body
+ * publisher as it is written instead of being collected into a byte array first. The
+ * generator's own buffer comes from Jackson's buffer recycler.
+ */
+public class UpstreamRequestBodyConverter extends AbstractHttpMessageConverter<UpstreamRequestBody> {
+    
+    private final JsonFactory jsonFactory;
+    
+    public UpstreamRequestBodyConverter(JsonFactory jsonFactory) {
+        super(MediaType.APPLICATION_JSON);
+        this.jsonFactory = jsonFactory;
+    }
+    
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return UpstreamRequestBody.class.isAssignableFrom(clazz);
+    }
+    
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+    
+    @Override
+    protected UpstreamRequestBody readInternal(Class<? extends UpstreamRequestBody> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Upstream request bodies are write-only", inputMessage);
+    }
+    
+    @Override
+    protected void writeInternal(UpstreamRequestBody body, HttpOutputMessage outputMessage) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+            body.writeTo(generator);
+        }
+    }
+}
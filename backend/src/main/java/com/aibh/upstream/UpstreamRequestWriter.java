@@ -0,0 +1,161 @@
+package com.aibh.upstream;
+
+import com.aibh.model.ChatMessage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Builds request bodies for the OpenAI-compatible endpoints. Field names and fixed values
+ * are pre-encoded once, and large constant strings such as the system prompt can be
+ * pre-encoded by the caller with {@link #preEncode(String)} so their UTF-8 bytes are
+ * copied as-is instead of being escaped and encoded on every request.
+ */
+@Component
+public class UpstreamRequestWriter {
+    
+    private static final SerializedString MODEL = preEncode("model");
+    private static final SerializedString MAX_TOKENS = preEncode("max_tokens");
+    private static final SerializedString TEMPERATURE = preEncode("temperature");
+    private static final SerializedString STREAM = preEncode("stream");
+    private static final SerializedString MESSAGES = preEncode("messages");
+    private static final SerializedString ROLE = preEncode("role");
+    private static final SerializedString CONTENT = preEncode("content");
+    private static final SerializedString TYPE = preEncode("type");
+    private static final SerializedString TEXT = preEncode("text");
+    private static final SerializedString IMAGE_URL = preEncode("image_url");
+    private static final SerializedString URL = preEncode("url");
+    private static final SerializedString INPUT = preEncode("input");
+    
+    private static final SerializedString SYSTEM = preEncode("system");
+    private static final SerializedString USER = preEncode("user");
+    private static final SerializedString ASSISTANT = preEncode("assistant");
+    
+    /**
+     * Encodes a constant string value once; the result can be written any number of times.
+     */
+    public static SerializedString preEncode(String value) {
+        SerializedString encoded = new SerializedString(value);
+        encoded.asQuotedUTF8(); // Computes and caches the escaped UTF-8 bytes
+        return encoded;
+    }
+    
+    public UpstreamRequestBody chatCompletion(String model, int maxTokens, double temperature, SerializableString systemPrompt,
+                                              List<ChatMessage> context, String userMessage, boolean stream) {
+        return generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName(MODEL);
+            generator.writeString(model);
+            generator.writeFieldName(MAX_TOKENS);
+            generator.writeNumber(maxTokens);
+            generator.writeFieldName(TEMPERATURE);
+            generator.writeNumber(temperature);
+            if (stream) {
+                generator.writeFieldName(STREAM);
+                generator.writeBoolean(true);
+            }
+            
+            generator.writeFieldName(MESSAGES);
+            generator.writeStartArray();
+            writeMessage(generator, SYSTEM, systemPrompt);
+            if (context != null) {
+                for (ChatMessage contextMessage : context) {
+                    if (contextMessage.isSummary()) {
+                        writeMessage(generator, SYSTEM, contextMessage.getAiResponse());
+                        continue;
+                    }
+                    if (hasText(contextMessage.getUserMessage())) {
+                        writeMessage(generator, USER, contextMessage.getUserMessage());
+                    }
+                    if (hasText(contextMessage.getAiResponse())) {
+                        writeMessage(generator, ASSISTANT, contextMessage.getAiResponse());
+                    }
+                }
+            }
+            writeMessage(generator, USER, userMessage);
+            generator.writeEndArray();
+            generator.writeEndObject();
+        };
+    }
+    
+    public UpstreamRequestBody visionCompletion(String model, int maxTokens, SerializableString systemPrompt,
+                                                String userMessage, String imageUrl) {
+        return generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName(MODEL);
+            generator.writeString(model);
+            generator.writeFieldName(MAX_TOKENS);
+            generator.writeNumber(maxTokens);
+            
+            generator.writeFieldName(MESSAGES);
+            generator.writeStartArray();
+            writeMessage(generator, SYSTEM, systemPrompt);
+            
+            generator.writeStartObject();
+            generator.writeFieldName(ROLE);
+            generator.writeString(USER);
+            generator.writeFieldName(CONTENT);
+            generator.writeStartArray();
+            
+            generator.writeStartObject();
+            generator.writeFieldName(TYPE);
+            generator.writeString(TEXT);
+            generator.writeFieldName(TEXT);
+            generator.writeString(userMessage);
+            generator.writeEndObject();
+            
+            generator.writeStartObject();
+            generator.writeFieldName(TYPE);
+            generator.writeString(IMAGE_URL);
+            generator.writeFieldName(IMAGE_URL);
+            generator.writeStartObject();
+            generator.writeFieldName(URL);
+            generator.writeString(imageUrl);
+            generator.writeEndObject();
+            generator.writeEndObject();
+            
+            generator.writeEndArray();
+            generator.writeEndObject();
+            
+            generator.writeEndArray();
+            generator.writeEndObject();
+        };
+    }
+    
+    public UpstreamRequestBody embedding(String model, String input) {
+        return generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName(INPUT);
+            generator.writeString(input);
+            generator.writeFieldName(MODEL);
+            generator.writeString(model);
+            generator.writeEndObject();
+        };
+    }
+    
+    private static void writeMessage(JsonGenerator generator, SerializableString role, SerializableString content) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ROLE);
+        generator.writeString(role);
+        generator.writeFieldName(CONTENT);
+        generator.writeString(content);
+        generator.writeEndObject();
+    }
+    
+    private static void writeMessage(JsonGenerator generator, SerializableString role, String content) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ROLE);
+        generator.writeString(role);
+        generator.writeFieldName(CONTENT);
+        generator.writeString(content);
+        generator.writeEndObject();
+    }
+    
+    private static boolean hasText(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+}
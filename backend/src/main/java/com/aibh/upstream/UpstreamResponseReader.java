@@ -0,0 +1,217 @@
+package com.aibh.upstream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Token-level readers for the OpenAI-compatible responses. Each reader walks the parser
+ * once, keeps only the fields the application uses and skips every other subtree, so no
+ * document tree or generic map is built for a response.
+ */
+@Component
+public class UpstreamResponseReader {
+    
+    private final JsonFactory jsonFactory;
+    
+    @Value("${openai.embedding.dimensions:1536}")
+    private int expectedDimensions;
+    
+    public UpstreamResponseReader(ObjectMapper objectMapper) {
+        // Own copy so the faster number parser does not change the application-wide mapper
+        this.jsonFactory = objectMapper.getFactory().copy()
+            .enable(JsonParser.Feature.USE_FAST_DOUBLE_PARSER);
+    }
+    
+    /**
+     * Reads {@code choices[0].message.content} and {@code usage} from a chat completion.
+     * Content is null when the response carries none.
+     */
+    public Completion readCompletion(InputStream body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            String content = null;
+            Usage usage = Usage.NONE;
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new Completion(null, usage);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                    content = readFirstChoice(parser, "message");
+                } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                    usage = readUsage(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new Completion(content, usage);
+        }
+    }
+    
+    /**
+     * Reads {@code choices[0].delta.content} from one server-sent event payload of a
+     * streamed completion. Returns null for events without content (role or finish markers).
+     */
+    public String readStreamDelta(String data) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String content = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                    content = readFirstChoice(parser, "delta");
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return content;
+        }
+    }
+    
+    /**
+     * Reads {@code data[0].embedding} straight into a float array sized for the configured
+     * model, growing it only if the response is longer than expected.
+     */
+    public float[] readEmbedding(InputStream body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Embedding response is not a JSON object");
+            }
+            float[] embedding = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY && embedding == null) {
+                    embedding = readFirstEmbedding(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (embedding == null) {
+                throw new IOException("Embedding response has no data[0].embedding");
+            }
+            return embedding;
+        }
+    }
+    
+    // Positioned on the choices START_ARRAY; leaves the parser on its END_ARRAY
+    private String readFirstChoice(JsonParser parser, String messageField) throws IOException {
+        String content = null;
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (first && parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if (messageField.equals(field) && value == JsonToken.START_OBJECT) {
+                        content = readContent(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+            first = false;
+        }
+        return content;
+    }
+    
+    private String readContent(JsonParser parser) throws IOException {
+        String content = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(field) && value == JsonToken.VALUE_STRING) {
+                content = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return content;
+    }
+    
+    private Usage readUsage(JsonParser parser) throws IOException {
+        int prompt = 0;
+        int completion = 0;
+        int total = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NUMBER_INT) {
+                switch (field) {
+                    case "prompt_tokens":
+                        prompt = parser.getIntValue();
+                        break;
+                    case "completion_tokens":
+                        completion = parser.getIntValue();
+                        break;
+                    case "total_tokens":
+                        total = parser.getIntValue();
+                        break;
+                    default:
+                        break;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new Usage(prompt, completion, total > 0 ? total : prompt + completion);
+    }
+    
+    // Positioned on the data START_ARRAY; leaves the parser on its END_ARRAY
+    private float[] readFirstEmbedding(JsonParser parser) throws IOException {
+        float[] embedding = null;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (embedding == null && parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if ("embedding".equals(field) && value == JsonToken.START_ARRAY) {
+                        embedding = readFloats(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return embedding;
+    }
+    
+    private float[] readFloats(JsonParser parser) throws IOException {
+        float[] values = new float[expectedDimensions];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new IOException("Unexpected token in embedding: " + token);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, size * 2));
+            }
+            values[size++] = parser.getFloatValue();
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+    
+    public record Completion(String content, Usage usage) {
+    }
+    
+    public record Usage(int promptTokens, int completionTokens, int totalTokens) {
+        
+        public static final Usage NONE = new Usage(0, 0, 0);
+    }
+}
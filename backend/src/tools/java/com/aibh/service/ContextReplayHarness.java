@@ -0,0 +1,258 @@
+package com.aibh.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Replays recorded conversations through {@link ContextSelector} and compares the context that
+ * relevance-based selection sends with the recency window it replaces: prompt tokens per turn,
+ * and how many of the earlier turns a message depends on make it into its context, the proxy
+ * used here for answer relevance. Rolling summaries are left out of both sides.
+ * <p>
+ * The input is JSON Lines, one conversation per line:
+ * {@code {"turns": [{"user": ..., "assistant": ..., "refers_to": [0, 3]}, ...]}}, where
+ * {@code refers_to} lists the zero-based indexes of the earlier turns the message needs.
+ * Embeddings come from an OpenAI-compatible endpoint when {@code --embedding-url} is given (the
+ * key is read from {@code OPENAI_API_KEY}), otherwise from a hashed bag of words, which only
+ * approximates what a model finds similar. Tokens are counted with a {@code .tiktoken} file when
+ * {@code --vocabulary} is given, otherwise estimated. It is not part of the application jar; run
+ * it with the {@code tools} profile:
+ * <pre>
+ * mvn -Ptools clean test-compile exec:exec -Dtool=ContextReplayHarness -Dtool.args="conversations.jsonl \
+ *     [--embedding-url=https://api.openai.com/v1/embeddings] [--embedding-model=text-embedding-3-small] \
+ *     [--vocabulary=cl100k_base.tiktoken] [--budget-tokens=3000] [--max-turns=10] [--always-recent-turns=2] \
+ *     [--similarity-weight=0.7] [--recency-half-life=4] [--min-score=0.2]"
+ * </pre>
+ */
+public final class ContextReplayHarness {
+    
+    private static final int BAG_OF_WORDS_DIMENSIONS = 1024;
+    
+    record Turn(String user, String assistant, Set<Integer> refersTo) {}
+    
+    /**
+     * Totals over the replayed turns for one way of selecting context.
+     */
+    static final class Tally {
+        
+        long turns;
+        long contextTokens;
+        long contextTurns;
+        long referringTurns;
+        long references;
+        long referencesKept;
+        long referringTurnsComplete;
+        
+        void add(List<ContextSelector.Candidate> selected, Set<Integer> refersTo) {
+            turns++;
+            contextTurns += selected.size();
+            Set<Integer> kept = new HashSet<>();
+            for (ContextSelector.Candidate candidate : selected) {
+                contextTokens += candidate.tokens();
+                kept.add((int) candidate.id());
+            }
+            if (!refersTo.isEmpty()) {
+                referringTurns++;
+                references += refersTo.size();
+                int hits = (int) refersTo.stream().filter(kept::contains).count();
+                referencesKept += hits;
+                referringTurnsComplete += hits == refersTo.size() ? 1 : 0;
+            }
+        }
+        
+        void print(String name) {
+            System.out.printf(Locale.ROOT, "%-9s %8.1f tokens/turn  %5.2f turns/turn  reference recall %.3f  complete context %.3f%n",
+                name, (double) contextTokens / turns, (double) contextTurns / turns,
+                references > 0 ? (double) referencesKept / references : 1,
+                referringTurns > 0 ? (double) referringTurnsComplete / referringTurns : 1);
+        }
+    }
+    
+    private ContextReplayHarness() {}
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> paths = new ArrayList<>();
+        Map<String, String> flags = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                flags.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 1) {
+            System.err.println("Usage: ContextReplayHarness <conversations.jsonl> [--embedding-url=...] "
+                + "[--embedding-model=text-embedding-3-small] [--vocabulary=cl100k_base.tiktoken] [--budget-tokens=3000] "
+                + "[--max-turns=10] [--always-recent-turns=2] [--similarity-weight=0.7] [--recency-half-life=4] [--min-score=0.2]");
+            System.exit(2);
+        }
+        int budgetTokens = Integer.parseInt(flags.getOrDefault("budget-tokens", "3000"));
+        int maxTurns = Integer.parseInt(flags.getOrDefault("max-turns", "10"));
+        ContextSelector.Options relevance = new ContextSelector.Options(
+            Integer.parseInt(flags.getOrDefault("always-recent-turns", "2")),
+            Double.parseDouble(flags.getOrDefault("similarity-weight", "0.7")),
+            Double.parseDouble(flags.getOrDefault("recency-half-life", "4")),
+            Double.parseDouble(flags.getOrDefault("min-score", "0.2")),
+            maxTurns);
+        ContextSelector.Options recency = ContextSelector.Options.recency(maxTurns);
+        
+        ToIntFunction<String> tokens = text -> text.length() / 4;
+        if (flags.containsKey("vocabulary")) {
+            try (InputStream in = Files.newInputStream(Path.of(flags.get("vocabulary")))) {
+                BpeEncoding encoding = BpeEncoding.load("cl100k_base", in);
+                tokens = encoding::count;
+            }
+        }
+        Embedder embedder = flags.containsKey("embedding-url")
+            ? new ModelEmbedder(flags.get("embedding-url"), flags.getOrDefault("embedding-model", "text-embedding-3-small"),
+                                System.getenv("OPENAI_API_KEY"))
+            : ContextReplayHarness::bagsOfWords;
+        
+        List<List<Turn>> conversations = readConversations(Path.of(paths.get(0)));
+        Tally byRecency = new Tally();
+        Tally byRelevance = new Tally();
+        for (List<Turn> conversation : conversations) {
+            // Messages are embedded alone as queries, and with their answer once saved
+            List<float[]> queries = embedder.embed(conversation.stream().map(Turn::user).toList());
+            List<float[]> embeddings = embedder.embed(conversation.stream().map(turn -> ContextSelector.turnText(turn.user(), turn.assistant())).toList());
+            int[] turnTokens = new int[conversation.size()];
+            byte[][] quantized = new byte[conversation.size()][];
+            for (int i = 0; i < turnTokens.length; i++) {
+                Turn turn = conversation.get(i);
+                turnTokens[i] = tokens.applyAsInt(turn.user()) + tokens.applyAsInt(turn.assistant())
+                    + 2 * TokenizerService.TOKENS_PER_MESSAGE;
+                float[] embedding = ContextSelector.normalize(embeddings.get(i));
+                quantized[i] = embedding != null ? ContextSelector.quantize(embedding) : null;
+            }
+        
+            // Candidate ids are the turns' indexes in the conversation
+            for (int i = 1; i < conversation.size(); i++) {
+                List<ContextSelector.Candidate> candidates = new ArrayList<>(i);
+                for (int j = 0; j < i; j++) {
+                    candidates.add(new ContextSelector.Candidate(j, i - 1 - j, turnTokens[j], quantized[j]));
+                }
+                Set<Integer> refersTo = conversation.get(i).refersTo();
+                byRecency.add(ContextSelector.select(null, candidates, recency, budgetTokens), refersTo);
+                float[] query = ContextSelector.normalize(queries.get(i));
+                byRelevance.add(ContextSelector.select(query, candidates, relevance, budgetTokens), refersTo);
+            }
+        }
+        
+        System.out.printf("Replayed %d turns of %d conversations (%d referring back), %s embeddings%n",
+            byRecency.turns, conversations.size(), byRecency.referringTurns,
+            embedder instanceof ModelEmbedder ? "model" : "bag-of-words");
+        byRecency.print("recency");
+        byRelevance.print("relevance");
+        if (byRecency.contextTokens > 0) {
+            System.out.printf(Locale.ROOT, "Context tokens per turn change by %+.1f%%%n",
+                100.0 * (byRelevance.contextTokens - byRecency.contextTokens) / byRecency.contextTokens);
+        }
+    }
+    
+    static List<List<Turn>> readConversations(Path path) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<List<Turn>> conversations = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<Turn> turns = new ArrayList<>();
+                for (JsonNode node : objectMapper.readTree(line).path("turns")) {
+                    Set<Integer> refersTo = new HashSet<>();
+                    node.path("refers_to").forEach(index -> refersTo.add(index.asInt()));
+                    turns.add(new Turn(node.path("user").asText(""), node.path("assistant").asText(""), refersTo));
+                }
+                if (turns.size() > 1) {
+                    conversations.add(turns);
+                }
+            }
+        }
+        return conversations;
+    }
+    
+    /**
+     * Signed hashing of the lower-cased words of three letters or more.
+     */
+    static float[] bagOfWords(String text) {
+        float[] vector = new float[BAG_OF_WORDS_DIMENSIONS];
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() >= 3) {
+                int hash = word.hashCode() * 0x9E3779B9;
+                vector[(hash >>> 1) % BAG_OF_WORDS_DIMENSIONS] += hash < 0 ? -1 : 1;
+            }
+        }
+        return vector;
+    }
+    
+    private static List<float[]> bagsOfWords(List<String> texts) {
+        return texts.stream().map(ContextReplayHarness::bagOfWords).toList();
+    }
+    
+    interface Embedder {
+        
+        List<float[]> embed(List<String> texts) throws IOException, InterruptedException;
+    }
+    
+    private static final class ModelEmbedder implements Embedder {
+        
+        private final HttpClient client = HttpClient.newHttpClient();
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final URI url;
+        private final String model;
+        private final String apiKey;
+        
+        ModelEmbedder(String url, String model, String apiKey) {
+            this.url = URI.create(url);
+            this.model = model;
+            this.apiKey = apiKey;
+        }
+        
+        @Override
+        public List<float[]> embed(List<String> texts) throws IOException, InterruptedException {
+            ObjectNode body = objectMapper.createObjectNode().put("model", model);
+            texts.forEach(body.putArray("input")::add);
+            HttpRequest.Builder request = HttpRequest.newBuilder(url)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)));
+            if (apiKey != null && !apiKey.isBlank()) {
+                request.header("Authorization", "Bearer " + apiKey);
+            }
+            HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("Embedding request failed with status " + response.statusCode() + ": " + response.body());
+            }
+            float[][] embeddings = new float[texts.size()][];
+            for (JsonNode item : objectMapper.readTree(response.body()).path("data")) {
+                JsonNode values = item.path("embedding");
+                float[] embedding = new float[values.size()];
+                for (int i = 0; i < embedding.length; i++) {
+                    embedding[i] = (float) values.get(i).asDouble();
+                }
+                embeddings[item.path("index").asInt()] = embedding;
+            }
+            return List.of(embeddings);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.aibh.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Trains an {@link IntentModel} offline from labelled chat messages and compares it with the
+ * keyword rules of {@link IntentDetectionService} on a held-out share of them.
+ * <p>
+ * The input is JSON Lines, one {@code {"user_message": ..., "intent": ...}} object per line, as
+ * exported from {@code chat_messages} with an added label ({@code message} is accepted for the
+ * text too). It is not part of the application jar; run it with the {@code tools} profile:
+ * <pre>
+ * mvn -Ptools clean test-compile exec:exec -Dtool=IntentModelTrainer \
+ *     -Dtool.args="labelled.jsonl intent-model.bin [--bucket-bits=18] [--min-ngram=2] [--max-ngram=4] \
+ *     [--epochs=10] [--learning-rate=0.5] [--holdout=0.1] [--min-confidence=0.6] [--seed=42]"
+ * </pre>
+ * Per-call latency against the rules is measured by {@code IntentDetectionBenchmark}.
+ */
+public final class IntentModelTrainer {
+    
+    // Categories of the intents the keyword rules produce; other labels get "conversational"
+    private static final Map<String, String> CATEGORIES = Map.of(
+        "programming", "technical",
+        "academic", "science",
+        "greeting", "social",
+        "question", "informational",
+        "instruction", "procedural",
+        "general", "conversational"
+    );
+    
+    record Example(String text, String intent) {}
+    
+    record Options(int bucketBits, int minNgram, int maxNgram, int epochs, double learningRate, long seed) {
+        
+        static final Options DEFAULTS = new Options(18, 2, 4, 10, 0.5, 42);
+    }
+    
+    private IntentModelTrainer() {}
+    
+    public static void main(String[] args) throws IOException {
+        List<String> paths = new ArrayList<>();
+        Map<String, String> flags = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                flags.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 2) {
+            System.err.println("Usage: IntentModelTrainer <labelled.jsonl> <model.bin> [--bucket-bits=18] [--min-ngram=2] "
+                + "[--max-ngram=4] [--epochs=10] [--learning-rate=0.5] [--holdout=0.1] [--min-confidence=0.6] [--seed=42]");
+            System.exit(2);
+        }
+        Options defaults = Options.DEFAULTS;
+        Options options = new Options(
+            Integer.parseInt(flags.getOrDefault("bucket-bits", String.valueOf(defaults.bucketBits()))),
+            Integer.parseInt(flags.getOrDefault("min-ngram", String.valueOf(defaults.minNgram()))),
+            Integer.parseInt(flags.getOrDefault("max-ngram", String.valueOf(defaults.maxNgram()))),
+            Integer.parseInt(flags.getOrDefault("epochs", String.valueOf(defaults.epochs()))),
+            Double.parseDouble(flags.getOrDefault("learning-rate", String.valueOf(defaults.learningRate()))),
+            Long.parseLong(flags.getOrDefault("seed", String.valueOf(defaults.seed()))));
+        double holdout = Double.parseDouble(flags.getOrDefault("holdout", "0.1"));
+        double minConfidence = Double.parseDouble(flags.getOrDefault("min-confidence", "0.6"));
+        
+        List<Example> examples = readExamples(Path.of(paths.get(0)));
+        List<Example> shuffled = new ArrayList<>(examples);
+        Collections.shuffle(shuffled, new Random(options.seed()));
+        int testSize = (int) Math.round(shuffled.size() * holdout);
+        List<Example> test = shuffled.subList(0, testSize);
+        List<Example> training = shuffled.subList(testSize, shuffled.size());
+        System.out.printf("Read %d examples: %d for training, %d held out%n", examples.size(), training.size(), test.size());
+        
+        // The holdout only measures; the written model is trained on everything
+        IntentModel model = train(training, options);
+        if (!test.isEmpty()) {
+            report(model, test, minConfidence);
+            model = train(examples, options);
+        }
+        
+        Path output = Path.of(paths.get(1));
+        try (OutputStream out = Files.newOutputStream(output)) {
+            model.write(out);
+        }
+        System.out.printf("Wrote %s (%d intents, 2^%d buckets, %d bytes)%n",
+            output, model.types.length, model.bucketBits, Files.size(output));
+    }
+    
+    static List<Example> readExamples(Path path) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<Example> examples = new ArrayList<>();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode node = objectMapper.readTree(line);
+                String text = node.path("user_message").asText(node.path("message").asText(null));
+                String intent = node.path("intent").asText(null);
+                if (text == null || text.isBlank() || intent == null || intent.isBlank()) {
+                    skipped++;
+                    continue;
+                }
+                examples.add(new Example(text, intent));
+            }
+        }
+        if (skipped > 0) {
+            System.out.printf("Skipped %d lines without a message or intent%n", skipped);
+        }
+        return examples;
+    }
+    
+    /**
+     * Fits the model with stochastic gradient descent on the softmax loss. Each message's
+     * features are scaled by {@code 1/sqrt(count)}, as {@link IntentModel#predict} does.
+     */
+    static IntentModel train(List<Example> examples, Options options) {
+        String[] types = new TreeSet<>(examples.stream().map(Example::intent).toList()).toArray(String[]::new);
+        String[] categories = Arrays.stream(types).map(type -> CATEGORIES.getOrDefault(type, "conversational")).toArray(String[]::new);
+        IntentModel model = new IntentModel(types, categories, options.bucketBits(), options.minNgram(), options.maxNgram());
+        int classes = types.length;
+        
+        int[][] features = new int[examples.size()][];
+        int[] labels = new int[examples.size()];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = features(model, examples.get(i).text());
+            labels[i] = Arrays.binarySearch(types, examples.get(i).intent());
+        }
+        
+        Random random = new Random(options.seed());
+        int[] order = new int[features.length];
+        Arrays.setAll(order, i -> i);
+        double[] probabilities = new double[classes];
+        for (int epoch = 0; epoch < options.epochs(); epoch++) {
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            double learningRate = options.learningRate() / (1 + epoch);
+            for (int index : order) {
+                int[] buckets = features[index];
+                float scale = buckets.length > 0 ? (float) (1 / Math.sqrt(buckets.length)) : 0;
+                softmax(model, buckets, scale, probabilities);
+                for (int c = 0; c < classes; c++) {
+                    float gradient = (float) (learningRate * (probabilities[c] - (c == labels[index] ? 1 : 0)));
+                    model.bias[c] -= gradient;
+                    float step = gradient * scale;
+                    for (int bucket : buckets) {
+                        model.weights[bucket * classes + c] -= step;
+                    }
+                }
+            }
+        }
+        return model;
+    }
+    
+    private static int[] features(IntentModel model, String text) {
+        Buckets buckets = new Buckets();
+        int count = model.extract(text, buckets);
+        return Arrays.copyOf(buckets.values, count);
+    }
+    
+    private static void softmax(IntentModel model, int[] buckets, float scale, double[] probabilities) {
+        int classes = model.types.length;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classes; c++) {
+            float score = 0;
+            for (int bucket : buckets) {
+                score += model.weights[bucket * classes + c];
+            }
+            probabilities[c] = model.bias[c] + score * scale;
+            max = Math.max(max, probabilities[c]);
+        }
+        double sum = 0;
+        for (int c = 0; c < classes; c++) {
+            probabilities[c] = Math.exp(probabilities[c] - max);
+            sum += probabilities[c];
+        }
+        for (int c = 0; c < classes; c++) {
+            probabilities[c] /= sum;
+        }
+    }
+    
+    private static final class Buckets implements IntentModel.FeatureSink {
+        
+        private int[] values = new int[64];
+        private int size;
+        
+        @Override
+        public void accept(int bucket) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = bucket;
+        }
+    }
+    
+    private static void report(IntentModel model, List<Example> test, double minConfidence) {
+        IntentDetectionService rules = new IntentDetectionService(new TextClassifier(new StandardEnvironment()));
+        int modelCorrect = 0, rulesCorrect = 0, confident = 0, confidentCorrect = 0, combinedCorrect = 0;
+        for (Example example : test) {
+            String byModel = model.predict(example.text(), 0).getType();
+            String byRules = rules.detectIntent(example.text()).getType();
+            boolean modelRight = byModel.equals(example.intent());
+            boolean rulesRight = byRules.equals(example.intent());
+            modelCorrect += modelRight ? 1 : 0;
+            rulesCorrect += rulesRight ? 1 : 0;
+            // What IntentDetectionService does with the model loaded: the rules below the threshold
+            if (model.predict(example.text(), minConfidence) != null) {
+                confident++;
+                confidentCorrect += modelRight ? 1 : 0;
+                combinedCorrect += modelRight ? 1 : 0;
+            } else {
+                combinedCorrect += rulesRight ? 1 : 0;
+            }
+        }
+        double n = test.size();
+        System.out.printf("Held-out accuracy: rules %.3f, model %.3f%n", rulesCorrect / n, modelCorrect / n);
+        System.out.printf("At min-confidence %.2f the model decides %.1f%% of messages (accuracy %.3f); with the rules for the rest %.3f%n",
+            minConfidence, 100 * confident / n, confident > 0 ? (double) confidentCorrect / confident : 0, combinedCorrect / n);
+    }
+}